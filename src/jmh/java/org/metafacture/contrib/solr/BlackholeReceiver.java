@@ -0,0 +1,37 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.metafacture.framework.helpers.DefaultObjectReceiver;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Hands every document over to a JMH blackhole, so that building it is not optimized away.
+ */
+public class BlackholeReceiver extends DefaultObjectReceiver<SolrInputDocument> {
+
+    private final Blackhole blackhole;
+
+    public BlackholeReceiver(Blackhole blackhole) {
+        this.blackhole = blackhole;
+    }
+
+    @Override
+    public void process(SolrInputDocument document) {
+        blackhole.consume(document);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.impl.BinaryRequestWriter;
+import org.apache.solr.client.solrj.request.RequestWriter;
+import org.apache.solr.common.util.NamedList;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A client that serializes every request like the HTTP client does, but discards the bytes.
+ * So a benchmark measures the pipeline and the serialization, but not the network or Solr.
+ */
+public class NoOpSolrClient extends SolrClient {
+
+    private static final String JAVABIN_CONTENT_TYPE = "application/javabin";
+
+    private final BinaryRequestWriter requestWriter = new BinaryRequestWriter();
+
+    @Override
+    public NamedList<Object> request(SolrRequest request, String collection) throws IOException {
+        RequestWriter.ContentWriter contentWriter = request.getContentWriter(JAVABIN_CONTENT_TYPE);
+        if (contentWriter == null) {
+            contentWriter = requestWriter.getContentWriter(request);
+        }
+        if (contentWriter != null) {
+            contentWriter.write(NullOutputStream.INSTANCE);
+        }
+
+        NamedList<Object> response = new NamedList<>();
+        response.add("status", 0);
+        return response;
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+
+    private static final class NullOutputStream extends OutputStream {
+
+        static final NullOutputStream INSTANCE = new NullOutputStream();
+
+        @Override
+        public void write(int b) {
+            // Discard
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            // Discard
+        }
+    }
+}
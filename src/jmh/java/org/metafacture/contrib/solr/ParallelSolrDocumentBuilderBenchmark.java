@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.metafacture.framework.StreamPipe;
+import org.metafacture.framework.StreamReceiver;
+import org.metafacture.metamorph.Metamorph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast records are transformed by a Metamorph and built into documents:
+ * with threads=0 by <code>morph | build-solr-doc</code> on the calling thread,
+ * otherwise by <code>build-solr-doc-parallel(morph=...)</code> with the given number of workers.
+ *
+ * The morph rewrites every field with a regular expression, so that the transformation costs
+ * more than the building, like in most real pipelines. A gain needs at least as many cores as workers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParallelSolrDocumentBuilderBenchmark {
+
+    private static final int RECORDS = 10_000;
+    private static final int FIELDS = 20;
+
+    @Param({"0", "1", "2", "4"})
+    private int threads;
+
+    private String morph;
+    private Blackhole blackhole;
+    private String[] ids;
+    private String[] values;
+
+    @Setup
+    public void setUp(Blackhole blackhole) throws IOException {
+        this.blackhole = blackhole;
+        this.morph = writeMorph();
+
+        ids = new String[RECORDS];
+        for (int i = 0; i < RECORDS; i++) {
+            ids[i] = String.valueOf(i);
+        }
+        values = new String[FIELDS];
+        for (int i = 0; i < FIELDS; i++) {
+            values[i] = "value " + i + " of a record";
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void morphAndBuild() {
+        StreamReceiver head;
+        if (threads == 0) {
+            StreamPipe<StreamReceiver> metamorph = new Metamorph(morph);
+            SolrDocumentBuilder builder = new SolrDocumentBuilder();
+            builder.setReceiver(new BlackholeReceiver(blackhole));
+            metamorph.setReceiver(builder);
+            head = metamorph;
+        } else {
+            ParallelSolrDocumentBuilder builder = new ParallelSolrDocumentBuilder();
+            builder.setThreads(threads);
+            builder.setMorph(morph);
+            builder.setReceiver(new BlackholeReceiver(blackhole));
+            head = builder;
+        }
+
+        for (int r = 0; r < RECORDS; r++) {
+            head.startRecord(ids[r]);
+            head.literal("id", ids[r]);
+            for (int i = 0; i < FIELDS; i++) {
+                head.literal("field_" + i, values[i]);
+            }
+            head.endRecord();
+        }
+        head.closeStream();
+    }
+
+    private static String writeMorph() throws IOException {
+        StringBuilder rules = new StringBuilder();
+        rules.append("<metamorph xmlns=\"http://www.culturegraph.org/metamorph\" version=\"1\"><rules>");
+        rules.append("<data source=\"id\" />");
+        for (int i = 0; i < FIELDS; i++) {
+            rules.append("<data source=\"field_").append(i).append("\" name=\"title_").append(i).append("\">");
+            rules.append("<regexp match=\"(\\w+) (\\d+) of (.*)\" format=\"${3}: ${1} ${2}\" />");
+            rules.append("<case to=\"upper\" />");
+            rules.append("</data>");
+        }
+        rules.append("</rules></metamorph>");
+
+        File file = File.createTempFile("benchmark", ".xml");
+        file.deleteOnExit();
+        Files.write(file.toPath(), rules.toString().getBytes(StandardCharsets.UTF_8));
+        return file.getPath();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast {@link SolrDocumentBuilder} turns stream events into documents,
+ * with plain fields and with atomic updates.
+ *
+ * Like a decoder, every record passes new strings for the field names.
+ * Run with <code>-prof gc</code> to see the allocations per document.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SolrDocumentBuilderBenchmark {
+
+    private static final int RECORDS = 1_000;
+
+    @Param({"10", "50"})
+    private int fields;
+
+    private SolrDocumentBuilder builder;
+    private String[] ids;
+    private char[][] names;
+    private String[] values;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        builder = new SolrDocumentBuilder();
+        builder.setReceiver(new BlackholeReceiver(blackhole));
+
+        ids = new String[RECORDS];
+        for (int i = 0; i < RECORDS; i++) {
+            ids[i] = String.valueOf(i);
+        }
+        names = new char[fields][];
+        values = new String[fields];
+        for (int i = 0; i < fields; i++) {
+            names[i] = ("field_" + i).toCharArray();
+            values[i] = "value " + i;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void plainFields() {
+        for (int r = 0; r < RECORDS; r++) {
+            builder.startRecord(ids[r]);
+            builder.literal("id", ids[r]);
+            for (int i = 0; i < fields; i++) {
+                builder.literal(new String(names[i]), values[i]);
+            }
+            builder.endRecord();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void atomicUpdates() {
+        for (int r = 0; r < RECORDS; r++) {
+            builder.startRecord(ids[r]);
+            builder.literal("id", ids[r]);
+            for (int i = 0; i < fields; i++) {
+                builder.startEntity(i % 2 == 0 ? "set" : "add");
+                String name = new String(names[i]);
+                builder.literal(name, values[i]);
+                builder.literal(name, values[i]);
+                builder.endEntity();
+            }
+            builder.endRecord();
+        }
+    }
+}
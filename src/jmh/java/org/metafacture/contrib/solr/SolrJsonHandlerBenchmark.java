@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast {@link SolrJsonHandler} turns generated JSON Lines into documents.
+ * The documents match those of {@link SolrXmlHandlerBenchmark}, so the results are comparable.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SolrJsonHandlerBenchmark {
+
+    private static final int DOCUMENTS = 1_000;
+
+    @Param({"10", "50"})
+    private int fields;
+
+    @Param({"false", "true"})
+    private boolean atomicUpdates;
+
+    private String json;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        this.json = generateJson(DOCUMENTS, fields, atomicUpdates);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public void handle() {
+        SolrJsonHandler handler = new SolrJsonHandler();
+        handler.setReceiver(new BlackholeReceiver(blackhole));
+
+        handler.process(new StringReader(json));
+        handler.closeStream();
+    }
+
+    static String generateJson(int documents, int fields, boolean atomicUpdates) {
+        StringBuilder builder = new StringBuilder();
+        for (int d = 0; d < documents; d++) {
+            builder.append("{\"id\": \"").append(d).append('"');
+            for (int f = 0; f < fields; f++) {
+                builder.append(", \"field_").append(f).append("\": ");
+                if (atomicUpdates) {
+                    builder.append(f % 2 == 0 ? "{\"set\": " : "{\"add\": ");
+                }
+                builder.append("\"value ").append(f).append(" of <").append(d).append(">\"");
+                if (atomicUpdates) {
+                    builder.append('}');
+                }
+            }
+            builder.append("}\n");
+        }
+        return builder.toString();
+    }
+}
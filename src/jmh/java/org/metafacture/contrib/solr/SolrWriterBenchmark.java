@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link SolrWriter} end to end (channels, batching, {@link SolrCommitProcess} and
+ * javabin serialization) against a client that discards the requests.
+ * Each invocation starts the writer, sends all documents and waits for the threads to finish.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SolrWriterBenchmark {
+
+    private static final int DOCUMENTS = 10_000;
+
+    @Param({"1", "2", "4"})
+    private int threads;
+
+    @Param({"1", "100", "1000"})
+    private int batchSize;
+
+    @Param({"false", "true"})
+    private boolean serializeOnce;
+
+    private SolrInputDocument[] documents;
+
+    @Setup
+    public void setUp() {
+        documents = new SolrInputDocument[DOCUMENTS];
+        for (int d = 0; d < DOCUMENTS; d++) {
+            SolrInputDocument document = new SolrInputDocument();
+            document.addField("id", String.valueOf(d));
+            for (int f = 0; f < 10; f++) {
+                document.addField("field_" + f, "value " + f + " of " + d);
+            }
+            documents[d] = document;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public SolrMetrics send() {
+        SolrWriter writer = new SolrWriter("http://localhost:8983/solr");
+        writer.setClient(new NoOpSolrClient());
+        writer.setThreads(threads);
+        writer.setBatchSize(batchSize);
+        writer.setSerializeOnce(serializeOnce);
+
+        for (SolrInputDocument document : documents) {
+            writer.process(document);
+        }
+        writer.closeStream();
+        return writer.getMetrics();
+    }
+}
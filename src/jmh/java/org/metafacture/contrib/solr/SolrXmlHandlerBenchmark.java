@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.metafacture.xml.XmlDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xml.sax.helpers.AttributesImpl;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast {@link SolrXmlHandler} turns generated Solr update XML into documents,
+ * including the parsing by {@link XmlDecoder}, compared to cutting the XML into raw commands
+ * with {@link SolrXmlSlicer} (as <code>to-solr-xml</code> does).
+ *
+ * The <code>handle</code> benchmark passes the SAX events of the same documents to the handler directly,
+ * to measure the handler on its own. Like a parser, it passes new strings for the attribute values.
+ * Run with <code>-prof gc</code> to see the allocations per document.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SolrXmlHandlerBenchmark {
+
+    private static final int DOCUMENTS = 1_000;
+
+    @Param({"10", "50"})
+    private int fields;
+
+    @Param({"false", "true"})
+    private boolean atomicUpdates;
+
+    private String xml;
+    private Blackhole blackhole;
+    private char[][] fieldNames;
+    private char[][] fieldValues;
+    private String[] idValues;
+    private AttributesImpl attributes;
+    private AttributesImpl noAttributes;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        this.xml = generateXml(DOCUMENTS, fields, atomicUpdates);
+
+        fieldNames = new char[fields][];
+        fieldValues = new char[fields][];
+        for (int f = 0; f < fields; f++) {
+            fieldNames[f] = ("field_" + f).toCharArray();
+            fieldValues[f] = ("\n      value " + f + " of <1>\n    ").toCharArray();
+        }
+        idValues = new String[DOCUMENTS];
+        for (int d = 0; d < DOCUMENTS; d++) {
+            idValues[d] = String.valueOf(d);
+        }
+        attributes = new AttributesImpl();
+        attributes.addAttribute("", "name", "name", "CDATA", "");
+        if (atomicUpdates) {
+            attributes.addAttribute("", "update", "update", "CDATA", "");
+        }
+        noAttributes = new AttributesImpl();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public void decodeAndHandle() {
+        XmlDecoder decoder = new XmlDecoder();
+        SolrXmlHandler handler = new SolrXmlHandler();
+        decoder.setReceiver(handler).setReceiver(new BlackholeReceiver(blackhole));
+
+        decoder.process(new StringReader(xml));
+        decoder.closeStream();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public void handle() {
+        SolrXmlHandler handler = new SolrXmlHandler();
+        handler.setReceiver(new BlackholeReceiver(blackhole));
+
+        handler.startElement("", "add", "add", noAttributes);
+        for (int d = 0; d < DOCUMENTS; d++) {
+            handler.startElement("", "doc", "doc", noAttributes);
+            attributes.setValue(0, new String("id"));
+            if (atomicUpdates) {
+                attributes.setValue(1, null);
+            }
+            handler.startElement("", "field", "field", attributes);
+            handler.characters(idValues[d].toCharArray(), 0, idValues[d].length());
+            handler.endElement("", "field", "field");
+            for (int f = 0; f < fields; f++) {
+                attributes.setValue(0, new String(fieldNames[f]));
+                if (atomicUpdates) {
+                    attributes.setValue(1, f % 2 == 0 ? new String("set") : new String("add"));
+                }
+                handler.startElement("", "field", "field", attributes);
+                handler.characters(fieldValues[f], 0, fieldValues[f].length);
+                handler.endElement("", "field", "field");
+            }
+            handler.endElement("", "doc", "doc");
+        }
+        handler.endElement("", "add", "add");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public void slice() throws IOException {
+        new SolrXmlSlicer().slice(new StringReader(xml), blackhole::consume);
+    }
+
+    static String generateXml(int documents, int fields, boolean atomicUpdates) {
+        StringBuilder builder = new StringBuilder("<add>\n");
+        for (int d = 0; d < documents; d++) {
+            builder.append("  <doc>\n    <field name=\"id\">").append(d).append("</field>\n");
+            for (int f = 0; f < fields; f++) {
+                builder.append("    <field name=\"field_").append(f).append('"');
+                if (atomicUpdates) {
+                    builder.append(f % 2 == 0 ? " update=\"set\"" : " update=\"add\"");
+                }
+                builder.append(">value ").append(f).append(" of &lt;").append(d).append("&gt;</field>\n");
+            }
+            builder.append("  </doc>\n");
+        }
+        return builder.append("</add>\n").toString();
+    }
+}
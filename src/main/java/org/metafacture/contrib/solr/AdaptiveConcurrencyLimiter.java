@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+/**
+ * Limits the number of batches that are sent to Solr concurrently.
+ *
+ * The limit follows an AIMD (additive increase, multiplicative decrease) scheme:
+ * It grows by one after a limit's worth of fast and successful batches and is halved
+ * if a batch fails or takes longer than twice the baseline latency. The batches that were in flight
+ * when the limit was halved do not halve it again, so a burst of failures counts once.
+ * The baseline is a moving average of the latency, which follows a permanent change of the server's
+ * latency within about a window of batches, but not a single unusually fast or slow batch.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double BACKOFF_RATIO = 0.5;
+    private static final int WINDOW_SIZE = 100;
+    private static final double BASELINE_WEIGHT = 1.0 / WINDOW_SIZE;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private int limit;
+    private int inFlight;
+    private int successes;
+    /** Number of releases of batches, that were in flight at the last decrease */
+    private int releasesToIgnore;
+
+    private double baselineNanos;
+
+    public AdaptiveConcurrencyLimiter(int minLimit, int maxLimit, int initialLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid bounds: " + minLimit + ".." + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.inFlight = 0;
+        this.successes = 0;
+        this.releasesToIgnore = 0;
+        this.baselineNanos = -1;
+    }
+
+    /** Blocks until a batch may be sent. */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    /**
+     * Signals that a batch has been sent.
+     *
+     * @param latencyNanos time (in ns) it took to send the batch
+     * @param isSuccessful whether the batch has been accepted
+     */
+    public synchronized void release(long latencyNanos, boolean isSuccessful) {
+        inFlight--;
+        boolean isIgnored = releasesToIgnore > 0;
+        if (isIgnored) {
+            releasesToIgnore--;
+        }
+
+        if (isSuccessful) {
+            // Compared with the baseline before the batch, which would otherwise rise with each slow batch
+            boolean isSlow = baselineNanos >= 0 && latencyNanos > baselineNanos * LATENCY_TOLERANCE;
+            updateBaseline(latencyNanos);
+            if (isSlow) {
+                if (!isIgnored) {
+                    decrease();
+                }
+            } else {
+                increase();
+            }
+        } else if (!isIgnored) {
+            decrease();
+        }
+
+        notifyAll();
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    private void increase() {
+        successes++;
+        if (successes >= limit) {
+            successes = 0;
+            limit = Math.min(maxLimit, limit + 1);
+        }
+    }
+
+    private void decrease() {
+        successes = 0;
+        // These batches have been sent with the old limit
+        releasesToIgnore = inFlight;
+        limit = Math.max(minLimit, (int) (limit * BACKOFF_RATIO));
+    }
+
+    private void updateBaseline(long latencyNanos) {
+        if (baselineNanos < 0) {
+            baselineNanos = latencyNanos;
+        } else {
+            baselineNanos += (latencyNanos - baselineNanos) * BASELINE_WEIGHT;
+        }
+    }
+}
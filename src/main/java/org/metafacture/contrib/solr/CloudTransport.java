@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.impl.CloudSolrClient;
+import org.apache.solr.client.solrj.impl.HttpClientUtil;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * SolrCloud: reads the router of a collection from the cluster state, splits each batch by shard
+ * and sends the parts to the shard leaders in parallel (HTTP/1.1 with a pool of keep-alive connections).
+ */
+public class CloudTransport implements SolrTransport {
+
+    public static final String NAME = "cloud";
+
+    private CloseableHttpClient httpClient;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean supportsSerializedRequests() {
+        // The client needs the documents to route them to their shards
+        return false;
+    }
+
+    /**
+     * @param url comma separated ZooKeeper hosts with an optional chroot (e.g. zk1:2181,zk2:2181/solr)
+     *            or comma separated Solr node URLs
+     */
+    @Override
+    public SolrClient createClient(String url, String core, SolrTransportOptions options) {
+        httpClient = HttpTransport.createHttpClient(options);
+        return builder(url)
+                .withHttpClient(httpClient)
+                .withConnectionTimeout(options.getConnectTimeoutMs())
+                .withSocketTimeout(options.getSocketTimeoutMs())
+                .build();
+    }
+
+    static CloudSolrClient.Builder builder(String hosts) {
+        CloudSolrClient.Builder builder;
+        if (hosts.startsWith("http://") || hosts.startsWith("https://")) {
+            builder = new CloudSolrClient.Builder(Arrays.asList(hosts.split(",")));
+        } else {
+            int chrootIndex = hosts.indexOf('/');
+            String zkHosts = chrootIndex < 0 ? hosts : hosts.substring(0, chrootIndex);
+            String zkChroot = chrootIndex < 0 ? null : hosts.substring(chrootIndex);
+            builder = new CloudSolrClient.Builder(Arrays.asList(zkHosts.split(",")), Optional.ofNullable(zkChroot));
+        }
+        return builder
+                .sendDirectUpdatesToShardLeadersOnly()
+                .withParallelUpdates(true);
+    }
+
+    @Override
+    public void close() {
+        if (httpClient != null) {
+            HttpClientUtil.close(httpClient);
+            httpClient = null;
+        }
+    }
+}
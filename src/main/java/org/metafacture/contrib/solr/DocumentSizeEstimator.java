@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Estimates the serialized size (in bytes) of a Solr Input Document.
+ *
+ * The estimate does not depend on a concrete wire format. It is meant to be cheap
+ * and roughly proportional to the size of a javabin or XML update request.
+ */
+final class DocumentSizeEstimator {
+
+    /** Fixed overhead for a document, a field or a value (tags, type markers, length prefixes). */
+    private static final int OVERHEAD = 4;
+    /** Size of numbers, dates and other values with a fixed size. */
+    private static final int FIXED_VALUE_SIZE = 8;
+
+    private DocumentSizeEstimator() {
+        // No instances allowed
+    }
+
+    static long estimate(SolrInputDocument document) {
+        long size = OVERHEAD;
+        for (SolrInputField field : document) {
+            size += OVERHEAD + field.getName().length();
+            size += estimateValue(field.getValue());
+        }
+        if (document.hasChildDocuments()) {
+            for (SolrInputDocument child : document.getChildDocuments()) {
+                size += estimate(child);
+            }
+        }
+        return size;
+    }
+
+    private static long estimateValue(Object value) {
+        if (value == null) {
+            return OVERHEAD;
+        }
+        if (value instanceof CharSequence) {
+            return OVERHEAD + ((CharSequence) value).length();
+        }
+        if (value instanceof byte[]) {
+            return OVERHEAD + ((byte[]) value).length;
+        }
+        if (value instanceof SolrInputDocument) {
+            return estimate((SolrInputDocument) value);
+        }
+        if (value instanceof Collection) {
+            long size = OVERHEAD;
+            for (Object element : (Collection<?>) value) {
+                size += estimateValue(element);
+            }
+            return size;
+        }
+        if (value instanceof Map) {
+            long size = OVERHEAD;
+            for (Map.Entry<?,?> entry : ((Map<?,?>) value).entrySet()) {
+                size += estimateValue(entry.getKey()) + estimateValue(entry.getValue());
+            }
+            return size;
+        }
+        return OVERHEAD + FIXED_VALUE_SIZE;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
+import org.metafacture.framework.MetafactureException;
+
+import java.nio.file.Paths;
+
+/**
+ * An embedded Solr in the same JVM, without HTTP and serialization.
+ *
+ * Needs solr-core (of the same version as SolrJ) on the class path, which is not part of the plugin JAR.
+ */
+public class EmbeddedTransport implements SolrTransport {
+
+    public static final String NAME = "embedded";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean supportsSerializedRequests() {
+        return false;
+    }
+
+    /**
+     * @param url Solr home directory (with solr.xml and the core directories)
+     */
+    @Override
+    public SolrClient createClient(String url, String core, SolrTransportOptions options) {
+        try {
+            return ServerFactory.create(url, core);
+        } catch (NoClassDefFoundError e) {
+            throw new MetafactureException("The embedded transport needs solr-core on the class path.", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        // Everything is released by the client
+    }
+
+    /** Keeps the solr-core classes out of the transport, so that it can be loaded without them. */
+    private static final class ServerFactory {
+
+        static SolrClient create(String solrHome, String core) {
+            // The server shuts the core container down, when it is closed
+            return new EmbeddedSolrServer(Paths.get(solrHome), core);
+        }
+    }
+}
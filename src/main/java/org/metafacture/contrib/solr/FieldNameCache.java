@@ -0,0 +1,61 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import java.util.Arrays;
+
+/**
+ * Caches the field names of records by their position in the record.
+ *
+ * Decoders pass a new string for every field name. Records mostly have their fields in the same order,
+ * so a name is compared with the cached name at its position only (without hashing). The documents of
+ * a batch share the cached names, which have their hash code computed already.
+ */
+class FieldNameCache {
+
+    /** Max number of fields per record, whose names are cached */
+    private static final int MAX_FIELDS = 1024;
+
+    private String[] names;
+    /** Position of the next field in the current record */
+    private int position;
+
+    FieldNameCache() {
+        this.names = new String[16];
+    }
+
+    /** Starts a new record. */
+    void reset() {
+        position = 0;
+    }
+
+    /** Returns the cached instance of the name of the next field, if it equals the name at this position in the last record. */
+    String get(String name) {
+        int index = position++;
+        if (index >= names.length) {
+            if (index >= MAX_FIELDS) {
+                return name;
+            }
+            names = Arrays.copyOf(names, names.length * 2);
+        }
+        String cachedName = names[index];
+        if (cachedName != null && cachedName.equals(name)) {
+            return cachedName;
+        }
+        names[index] = name;
+        return name;
+    }
+}
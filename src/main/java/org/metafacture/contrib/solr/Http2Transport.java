@@ -0,0 +1,44 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+
+/**
+ * HTTP/2, which multiplexes the requests of all threads of a writer over a few connections.
+ *
+ * Plain <code>http://</code> URLs use HTTP/2 without TLS (h2c). <code>https://</code> URLs need ALPN support
+ * in the JVM.
+ */
+public class Http2Transport implements SolrTransport {
+
+    public static final String NAME = "http2";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public SolrClient createClient(String url, String core, SolrTransportOptions options) {
+        return new JettyHttp2SolrClient(url, options);
+    }
+
+    @Override
+    public void close() {
+        // Everything is released by the client
+    }
+}
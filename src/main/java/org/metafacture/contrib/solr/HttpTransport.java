@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.impl.BinaryRequestWriter;
+import org.apache.solr.client.solrj.impl.HttpClientUtil;
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.common.params.ModifiableSolrParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP/1.1 with a pool of keep-alive connections, which is shared by all threads of a writer.
+ */
+public class HttpTransport implements SolrTransport {
+
+    public static final String NAME = "http";
+
+    private CloseableHttpClient httpClient;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public SolrClient createClient(String url, String core, SolrTransportOptions options) {
+        httpClient = createHttpClient(options);
+        HttpSolrClient client = new HttpSolrClient.Builder()
+                .withBaseSolrUrl(url)
+                .withHttpClient(httpClient)
+                .withConnectionTimeout(options.getConnectTimeoutMs())
+                .withSocketTimeout(options.getSocketTimeoutMs())
+                .build();
+        client.setRequestWriter(new BinaryRequestWriter());
+        return client;
+    }
+
+    /** Creates a HTTP client with a connection pool of the given size and time to live. */
+    static CloseableHttpClient createHttpClient(SolrTransportOptions options) {
+        PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager(
+                HttpClientUtil.getSchemaRegisteryProvider().getSchemaRegistry(), null, null, null,
+                options.getKeepAliveMs() > 0 ? options.getKeepAliveMs() : -1, TimeUnit.MILLISECONDS);
+        pool.setMaxTotal(options.getPoolSize());
+        pool.setDefaultMaxPerRoute(options.getPoolSize());
+
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set(HttpClientUtil.PROP_ALLOW_COMPRESSION, options.isCompression());
+        params.set(HttpClientUtil.PROP_CONNECTION_TIMEOUT, options.getConnectTimeoutMs());
+        params.set(HttpClientUtil.PROP_SO_TIMEOUT, options.getSocketTimeoutMs());
+        return HttpClientUtil.createClient(params, pool);
+    }
+
+    @Override
+    public void close() {
+        if (httpClient != null) {
+            HttpClientUtil.close(httpClient);
+            httpClient = null;
+        }
+    }
+}
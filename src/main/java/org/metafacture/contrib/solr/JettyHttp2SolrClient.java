@@ -0,0 +1,180 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.BinaryRequestWriter;
+import org.apache.solr.client.solrj.impl.BinaryResponseParser;
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.request.RequestWriter;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.metafacture.framework.MetafactureException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A Solr client, that talks javabin over HTTP/2 (based on the Jetty HTTP/2 client).
+ *
+ * Requests with content (e.g. updates) are sent as POST, all others as GET.
+ * The client may be used by several threads concurrently.
+ */
+public class JettyHttp2SolrClient extends SolrClient {
+
+    private static final String JAVABIN_CONTENT_TYPE = "application/javabin";
+    /** Max number of characters of a body, that is not from Solr, in an error message */
+    private static final int MAX_ERROR_BODY = 1024;
+
+    private final String baseUrl;
+    private final int socketTimeoutMs;
+    private final HttpClient httpClient;
+    private final BinaryRequestWriter requestWriter;
+    private final BinaryResponseParser responseParser;
+
+    public JettyHttp2SolrClient(String baseUrl, SolrTransportOptions options) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.socketTimeoutMs = options.getSocketTimeoutMs();
+        this.requestWriter = new BinaryRequestWriter();
+        this.responseParser = new BinaryResponseParser();
+
+        HTTP2Client http2Client = new HTTP2Client();
+        httpClient = new HttpClient(new HttpClientTransportOverHTTP2(http2Client), new SslContextFactory());
+        httpClient.setMaxConnectionsPerDestination(options.getPoolSize());
+        httpClient.setConnectTimeout(options.getConnectTimeoutMs());
+        if (options.getKeepAliveMs() > 0) {
+            httpClient.setIdleTimeout(options.getKeepAliveMs());
+        }
+        if (!options.isCompression()) {
+            httpClient.getContentDecoderFactories().clear();
+        }
+        try {
+            httpClient.start();
+        } catch (Exception e) {
+            throw new MetafactureException(e);
+        }
+    }
+
+    @Override
+    public NamedList<Object> request(SolrRequest request, String collection) throws SolrServerException, IOException {
+        ModifiableSolrParams params = request.getParams() == null
+                ? new ModifiableSolrParams()
+                : new ModifiableSolrParams(request.getParams());
+        params.set(CommonParams.WT, responseParser.getWriterType());
+        params.set(CommonParams.VERSION, responseParser.getVersion());
+
+        String url = baseUrl + (collection == null ? "" : "/" + collection) + request.getPath();
+        Request httpRequest = httpClient.newRequest(url + params.toQueryString())
+                .timeout(socketTimeoutMs, TimeUnit.MILLISECONDS);
+
+        RequestWriter.ContentWriter contentWriter = request.getContentWriter(JAVABIN_CONTENT_TYPE);
+        if (contentWriter == null) {
+            contentWriter = requestWriter.getContentWriter(request);
+        }
+        if (contentWriter == null) {
+            httpRequest.method(HttpMethod.GET);
+        } else {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            contentWriter.write(content);
+            httpRequest.method(HttpMethod.POST)
+                    .content(new BytesContentProvider(contentWriter.getContentType(), content.toByteArray()));
+        }
+
+        ContentResponse response;
+        try {
+            response = httpRequest.send();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SolrServerException("Interrupted request to " + baseUrl, e);
+        } catch (TimeoutException e) {
+            throw new SolrServerException("Timeout occurred while waiting for a response from " + baseUrl, e);
+        } catch (ExecutionException e) {
+            throw new SolrServerException("Could not send request to " + baseUrl, e.getCause());
+        }
+
+        if (response.getStatus() != HttpStatus.OK_200) {
+            throw createRemoteException(response, url);
+        }
+        return responseParser.processResponse(new ByteArrayInputStream(response.getContent()), null);
+    }
+
+    /**
+     * Creates an exception with the error message of Solr (and its metadata) from the body of the response,
+     * like {@link HttpSolrClient} does. A body, that is not from Solr (e.g. of a proxy), is added as text.
+     */
+    @SuppressWarnings("unchecked")
+    private HttpSolrClient.RemoteSolrException createRemoteException(ContentResponse response, String url) {
+        String reason = null;
+        NamedList<String> metadata = null;
+        boolean isJavabin = responseParser.getContentType().equals(response.getMediaType());
+        if (isJavabin) {
+            try {
+                NamedList<Object> body = responseParser.processResponse(new ByteArrayInputStream(response.getContent()), null);
+                Object error = body.get("error");
+                if (error instanceof NamedList) {
+                    NamedList<Object> errorList = (NamedList<Object>) error;
+                    reason = (String) errorList.get("msg");
+                    if (reason == null) {
+                        reason = (String) errorList.get("trace");
+                    }
+                    metadata = (NamedList<String>) errorList.get("metadata");
+                }
+            } catch (RuntimeException e) {
+                // Not a valid javabin body, so the status is all there is
+            }
+        }
+        if (reason == null) {
+            StringBuilder message = new StringBuilder();
+            message.append(response.getStatus()).append(" ").append(response.getReason())
+                    .append("\n\nrequest: ").append(url);
+            String body = response.getContentAsString();
+            if (!isJavabin && body != null && !body.trim().isEmpty()) {
+                message.append("\n\n").append(body.length() > MAX_ERROR_BODY ? body.substring(0, MAX_ERROR_BODY) + "..." : body);
+            }
+            reason = message.toString();
+        }
+        HttpSolrClient.RemoteSolrException exception = new HttpSolrClient.RemoteSolrException(baseUrl, response.getStatus(), reason, null);
+        if (metadata != null) {
+            exception.setMetadata(metadata);
+        }
+        return exception;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            httpClient.stop();
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,569 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.metafacture.contrib.framework.SolrDocumentReceiver;
+import org.metafacture.framework.FluxCommand;
+import org.metafacture.framework.MetafactureException;
+import org.metafacture.framework.ObjectReceiver;
+import org.metafacture.framework.StreamPipe;
+import org.metafacture.framework.StreamReceiver;
+import org.metafacture.framework.annotations.Description;
+import org.metafacture.framework.annotations.In;
+import org.metafacture.framework.annotations.Out;
+import org.metafacture.framework.helpers.DefaultObjectReceiver;
+import org.metafacture.framework.helpers.DefaultStreamPipe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Builds Solr Input Documents from metafacture stream events with several threads.
+ *
+ * The events of each record are buffered and the whole record is handed over to one of the workers.
+ * Every worker has its own {@link SolrDocumentBuilder} and optionally its own transformation in front of it:
+ * a Metamorph instance ({@link #setMorph(String)}), a Flux command or class ({@link #setPipe(String)}),
+ * or any stream pipe ({@link #setTransformation(Supplier)}). The documents of all workers are
+ * passed on to the receiver one at a time, so the receiver (e.g. {@link SolrWriter}) needs not to be thread-safe.
+ *
+ * By default the documents are passed on in the order they are built. With order "id", the records are
+ * routed to the workers by the id of their document (the literal "id", or the id of a delete,
+ * or else the record identifier), so the documents of the same id keep their order.
+ *
+ * A record that deletes by query may affect the documents of every worker. So it waits until the workers
+ * have passed on the documents of all earlier records, and is then built on the stream thread.
+ */
+@Description("Builds Solr Documents from metafacture stream events with several threads. Options: threads, order (none or id), schema, deadLetterFile, morph, pipe.")
+@In(StreamReceiver.class)
+@Out(SolrDocumentReceiver.class)
+@FluxCommand("build-solr-doc-parallel")
+public class ParallelSolrDocumentBuilder extends DefaultStreamPipe<ObjectReceiver<SolrInputDocument>> {
+
+    /** Pass on the documents in the order they are built. */
+    public static final String ORDER_NONE = "none";
+    /** Keep the order of the records per id. */
+    public static final String ORDER_ID = "id";
+
+    private static final String ID = "id";
+    private static final String DELETE = "delete";
+    private static final String QUERY = "query";
+    /** Number of records, that may wait for a worker */
+    private static final int QUEUE_CAPACITY = 256;
+    private static final int POLL_MS = 100;
+    private static final String METAMORPH_CLASS = "org.metafacture.metamorph.Metamorph";
+    private static final String FLUX_COMMANDS = "flux-commands.properties";
+
+    private int threads;
+    private boolean isIdOrder;
+    private SolrSchema schema;
+    /** Receiver of the documents with invalid values (shared by the workers), or null to drop them */
+    private ObjectReceiver<RejectedDocument> deadLetterReceiver;
+    private Supplier<? extends StreamPipe<StreamReceiver>> transformation;
+    /** Name of the option, that has set the transformation (morph or pipe) */
+    private String transformationOption;
+
+    private RecordEvents record;
+    private List<BlockingQueue<RecordEvents>> queues;
+    private List<Thread> workers;
+    private final AtomicReference<RuntimeException> failure;
+    private final Object receiverLock;
+    /** Number of records, that have been handed over to the workers, but not been built yet */
+    private final AtomicInteger pendingRecords;
+    private final Object idleLock;
+    /** Builder (and transformation) for the records, that are built on the stream thread */
+    private StreamReceiver streamHead;
+
+    public ParallelSolrDocumentBuilder() {
+        this.threads = Runtime.getRuntime().availableProcessors();
+        this.isIdOrder = false;
+        this.failure = new AtomicReference<>();
+        this.receiverLock = new Object();
+        this.pendingRecords = new AtomicInteger();
+        this.idleLock = new Object();
+    }
+
+    /** Number of workers. */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid number of threads: " + threads + ". Expected at least 1.");
+        }
+        this.threads = threads;
+    }
+
+    /** Either "none" (the default) or "id". */
+    public void setOrder(String order) {
+        if (ORDER_NONE.equals(order)) {
+            this.isIdOrder = false;
+        } else if (ORDER_ID.equals(order)) {
+            this.isIdOrder = true;
+        } else {
+            throw new IllegalArgumentException("Unknown order: " + order + ". Expected " + ORDER_NONE + " or " + ORDER_ID + ".");
+        }
+    }
+
+    /** Path of a schema file, see {@link SolrDocumentBuilder#setSchema(String)}. */
+    public void setSchema(String schema) {
+        this.schema = SolrSchema.load(schema);
+    }
+
+    /** Path of a Solr XML file for the documents with invalid values, see {@link SolrDocumentBuilder#setDeadLetterFile(String)}. */
+    public void setDeadLetterFile(String path) {
+        this.deadLetterReceiver = new RejectedDocumentWriter(path);
+    }
+
+    public void setDeadLetterReceiver(ObjectReceiver<RejectedDocument> deadLetterReceiver) {
+        this.deadLetterReceiver = deadLetterReceiver;
+    }
+
+    /**
+     * Creates a transformation for every worker, which gets the events of the records before its builder does.
+     * Each transformation is used by one thread only.
+     */
+    public void setTransformation(Supplier<? extends StreamPipe<StreamReceiver>> transformation) {
+        this.transformation = transformation;
+    }
+
+    /**
+     * Path of a Metamorph definition, which transforms the records on the workers (with one instance per worker).
+     * Metamorph is loaded by reflection, so it has to be on the class path (e.g. by the runner), but is no dependency.
+     */
+    public void setMorph(String morph) {
+        useTransformationOption("morph");
+        this.transformation = pipeFactory(METAMORPH_CLASS, new Class<?>[]{String.class}, morph);
+    }
+
+    /**
+     * A Flux command or the name of a class, which transforms the records on the workers (with one instance per worker).
+     * The class has to be a stream pipe with a public constructor without arguments (e.g. normalize-unicode-stream).
+     */
+    public void setPipe(String pipe) {
+        useTransformationOption("pipe");
+        this.transformation = pipeFactory(fluxCommands().getProperty(pipe, pipe), new Class<?>[0]);
+    }
+
+    @Override
+    public void startRecord(String identifier) {
+        record = new RecordEvents(identifier);
+    }
+
+    @Override
+    public void endRecord() {
+        if (workers == null) {
+            startWorkers();
+        }
+        if (record.deletesByQuery()) {
+            awaitIdle();
+            if (streamHead == null) {
+                streamHead = createHead();
+            }
+            record.replay(streamHead);
+        } else {
+            BlockingQueue<RecordEvents> queue = queues.get(isIdOrder ? Math.floorMod(record.routingId().hashCode(), threads) : 0);
+            enqueue(queue, record);
+        }
+        record = null;
+    }
+
+    @Override
+    public void startEntity(String name) {
+        record.add(RecordEvents.START_ENTITY, name, null);
+    }
+
+    @Override
+    public void endEntity() {
+        record.add(RecordEvents.END_ENTITY, null, null);
+    }
+
+    @Override
+    public void literal(String name, String value) {
+        record.add(RecordEvents.LITERAL, name, value);
+    }
+
+    @Override
+    public void onResetStream() {
+        try {
+            stopWorkers();
+        } catch (RuntimeException e) {
+            // The sender does not pass on the reset after a failure, so the receiver would miss it
+            passOn(e, ObjectReceiver::resetStream);
+            throw e;
+        }
+    }
+
+    @Override
+    public void onCloseStream() {
+        try {
+            stopWorkers();
+        } catch (RuntimeException e) {
+            // The sender does not close the receiver after a failure, which would not send the documents built so far
+            passOn(e, ObjectReceiver::closeStream);
+            throw e;
+        } finally {
+            if (deadLetterReceiver != null) {
+                deadLetterReceiver.closeStream();
+            }
+        }
+    }
+
+    private void passOn(RuntimeException failure, Consumer<ObjectReceiver<SolrInputDocument>> event) {
+        if (getReceiver() == null) {
+            return;
+        }
+        try {
+            event.accept(getReceiver());
+        } catch (RuntimeException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    private void startWorkers() {
+        failure.set(null);
+        pendingRecords.set(0);
+        // Without order, all workers share one queue, so a worker takes the next record when it is done
+        int queueCount = isIdOrder ? threads : 1;
+        queues = new ArrayList<>(queueCount);
+        for (int i = 0; i < queueCount; i++) {
+            queues.add(new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+        }
+
+        workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            BlockingQueue<RecordEvents> queue = queues.get(isIdOrder ? i : 0);
+            Thread worker = new Thread(() -> work(queue), "solr-doc-builder-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    private void work(BlockingQueue<RecordEvents> queue) {
+        StreamReceiver head = createHead();
+        try {
+            for (RecordEvents events = queue.take(); events != RecordEvents.END; events = queue.take()) {
+                try {
+                    if (failure.get() == null) {
+                        events.replay(head);
+                    }
+                } finally {
+                    recordDone();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+            // Keep taking records, so that the stream does not block
+            drain(queue);
+        }
+    }
+
+    /** Creates a builder, with a transformation in front of it if there is one, which passes on its documents under the lock. */
+    private StreamReceiver createHead() {
+        SolrDocumentBuilder builder = new SolrDocumentBuilder();
+        builder.useSchema(schema);
+        builder.setReceiver(new DefaultObjectReceiver<SolrInputDocument>() {
+            @Override
+            public void process(SolrInputDocument document) {
+                synchronized (receiverLock) {
+                    getReceiver().process(document);
+                }
+            }
+        });
+        if (deadLetterReceiver != null) {
+            // Not closed by the builder, which is not closed itself
+            builder.setDeadLetterReceiver(new DefaultObjectReceiver<RejectedDocument>() {
+                @Override
+                public void process(RejectedDocument rejectedDocument) {
+                    synchronized (receiverLock) {
+                        deadLetterReceiver.process(rejectedDocument);
+                    }
+                }
+            });
+        }
+        if (transformation == null) {
+            return builder;
+        }
+        StreamPipe<StreamReceiver> pipe = transformation.get();
+        pipe.setReceiver(builder);
+        return pipe;
+    }
+
+    private void useTransformationOption(String option) {
+        if (transformationOption != null && !transformationOption.equals(option)) {
+            throw new IllegalArgumentException("Use either morph or pipe, not both.");
+        }
+        transformationOption = option;
+    }
+
+    /**
+     * Returns a factory for instances of the given stream pipe class. The first instance is created at once,
+     * so that errors (e.g. of a Metamorph definition) are reported when the option is set.
+     */
+    private static Supplier<StreamPipe<StreamReceiver>> pipeFactory(String className, Class<?>[] parameterTypes, Object... arguments) {
+        Constructor<?> constructor;
+        try {
+            Class<?> pipeClass = Class.forName(className, true, ParallelSolrDocumentBuilder.class.getClassLoader());
+            if (!StreamPipe.class.isAssignableFrom(pipeClass)) {
+                throw new MetafactureException(className + " is not a stream pipe.");
+            }
+            constructor = pipeClass.getConstructor(parameterTypes);
+        } catch (ClassNotFoundException e) {
+            throw new MetafactureException("Could not find " + className + " on the class path.", e);
+        } catch (NoSuchMethodException e) {
+            throw new MetafactureException(className + " has no public constructor with " + parameterTypes.length + " argument(s).", e);
+        }
+
+        AtomicReference<StreamPipe<StreamReceiver>> first = new AtomicReference<>(newPipe(constructor, arguments));
+        return () -> {
+            StreamPipe<StreamReceiver> pipe = first.getAndSet(null);
+            return pipe != null ? pipe : newPipe(constructor, arguments);
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static StreamPipe<StreamReceiver> newPipe(Constructor<?> constructor, Object... arguments) {
+        try {
+            return (StreamPipe<StreamReceiver>) constructor.newInstance(arguments);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof MetafactureException
+                    ? (MetafactureException) cause
+                    : new MetafactureException("Could not create " + constructor.getDeclaringClass().getName() + ": " + cause.getMessage(), cause);
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new MetafactureException("Could not create " + constructor.getDeclaringClass().getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /** Returns the Flux commands of all plugins on the class path (command name to class name). */
+    private static Properties fluxCommands() {
+        Properties commands = new Properties();
+        try {
+            Enumeration<URL> resources = ParallelSolrDocumentBuilder.class.getClassLoader().getResources(FLUX_COMMANDS);
+            while (resources.hasMoreElements()) {
+                try (InputStream in = resources.nextElement().openStream()) {
+                    commands.load(in);
+                }
+            }
+        } catch (IOException e) {
+            throw new MetafactureException("Could not read the Flux commands: " + e.getMessage(), e);
+        }
+        return commands;
+    }
+
+    private void recordDone() {
+        if (pendingRecords.decrementAndGet() == 0) {
+            synchronized (idleLock) {
+                idleLock.notifyAll();
+            }
+        }
+    }
+
+    /** Waits until the workers have built all records, that have been handed over to them. */
+    private void awaitIdle() {
+        synchronized (idleLock) {
+            while (pendingRecords.get() > 0) {
+                throwFailure();
+                try {
+                    idleLock.wait(POLL_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MetafactureException(e);
+                }
+            }
+        }
+        throwFailure();
+    }
+
+    private static void drain(BlockingQueue<RecordEvents> queue) {
+        try {
+            while (queue.take() != RecordEvents.END) {
+                // Skip the record
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void enqueue(BlockingQueue<RecordEvents> queue, RecordEvents events) {
+        pendingRecords.incrementAndGet();
+        try {
+            while (!queue.offer(events, POLL_MS, TimeUnit.MILLISECONDS)) {
+                throwFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MetafactureException(e);
+        }
+        throwFailure();
+    }
+
+    private void stopWorkers() {
+        if (workers == null) {
+            return;
+        }
+        try {
+            for (BlockingQueue<RecordEvents> queue : queues) {
+                // One end marker per worker that takes from the queue
+                for (int i = 0; i < (isIdOrder ? 1 : threads); i++) {
+                    queue.put(RecordEvents.END);
+                }
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MetafactureException(e);
+        } finally {
+            workers = null;
+            queues = null;
+        }
+        throwFailure();
+    }
+
+    private void throwFailure() {
+        RuntimeException e = failure.get();
+        if (e != null) {
+            throw e instanceof MetafactureException ? e : new MetafactureException(e);
+        }
+    }
+
+    /**
+     * The stream events of a record.
+     */
+    static final class RecordEvents {
+
+        static final byte START_ENTITY = 0;
+        static final byte END_ENTITY = 1;
+        static final byte LITERAL = 2;
+
+        /** Marks the end of the stream for a worker. */
+        static final RecordEvents END = new RecordEvents(null);
+
+        private final String identifier;
+        private byte[] types;
+        private String[] names;
+        private String[] values;
+        private int size;
+
+        RecordEvents(String identifier) {
+            this.identifier = identifier;
+            this.types = new byte[16];
+            this.names = new String[16];
+            this.values = new String[16];
+        }
+
+        void add(byte type, String name, String value) {
+            if (size == types.length) {
+                types = Arrays.copyOf(types, size * 2);
+                names = Arrays.copyOf(names, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            types[size] = type;
+            names[size] = name;
+            values[size] = value;
+            size++;
+        }
+
+        void replay(StreamReceiver receiver) {
+            receiver.startRecord(identifier);
+            for (int i = 0; i < size; i++) {
+                switch (types[i]) {
+                    case START_ENTITY:
+                        receiver.startEntity(names[i]);
+                        break;
+                    case END_ENTITY:
+                        receiver.endEntity();
+                        break;
+                    default:
+                        receiver.literal(names[i], values[i]);
+                        break;
+                }
+            }
+            receiver.endRecord();
+        }
+
+        /** Returns whether the record contains a delete by query. */
+        boolean deletesByQuery() {
+            int depth = 0;
+            boolean isDelete = false;
+            for (int i = 0; i < size; i++) {
+                switch (types[i]) {
+                    case START_ENTITY:
+                        depth++;
+                        isDelete = depth == 1 && DELETE.equals(names[i]);
+                        break;
+                    case END_ENTITY:
+                        depth--;
+                        isDelete = false;
+                        break;
+                    default:
+                        if (isDelete && QUERY.equals(names[i])) {
+                            return true;
+                        }
+                        break;
+                }
+            }
+            return false;
+        }
+
+        /** Returns the id of the document, or of the first delete by id, or else the record identifier. */
+        String routingId() {
+            String deleteId = null;
+            int depth = 0;
+            boolean isDelete = false;
+            for (int i = 0; i < size; i++) {
+                switch (types[i]) {
+                    case START_ENTITY:
+                        depth++;
+                        isDelete = depth == 1 && DELETE.equals(names[i]);
+                        break;
+                    case END_ENTITY:
+                        depth--;
+                        isDelete = false;
+                        break;
+                    default:
+                        if (ID.equals(names[i])) {
+                            if (depth == 0) {
+                                return values[i];
+                            }
+                            if (isDelete && deleteId == null) {
+                                deleteId = values[i];
+                            }
+                        }
+                        break;
+                }
+            }
+            return deleteId != null ? deleteId : String.valueOf(identifier);
+        }
+    }
+}
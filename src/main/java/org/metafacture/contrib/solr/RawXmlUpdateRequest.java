@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.client.solrj.request.AbstractUpdateRequest;
+import org.apache.solr.client.solrj.request.RequestWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * An update request, that sends commands of a Solr XML update file as they are.
+ *
+ * Consecutive documents of the same <code>&lt;add&gt;</code> are grouped into one <code>&lt;add&gt;</code>
+ * (with the attributes of the original), all commands are wrapped into an <code>&lt;update&gt;</code>.
+ */
+public class RawXmlUpdateRequest extends AbstractUpdateRequest {
+
+    private static final String XML_CONTENT_TYPE = "application/xml; charset=UTF-8";
+
+    private final List<SolrXmlSlicer.Command> commands;
+
+    public RawXmlUpdateRequest(List<SolrXmlSlicer.Command> commands) {
+        super(METHOD.POST, "/update");
+        this.commands = commands;
+    }
+
+    public List<SolrXmlSlicer.Command> getCommands() {
+        return commands;
+    }
+
+    /** Writes the commands as a Solr XML update. */
+    public void write(Writer writer) throws IOException {
+        writer.write("<update>");
+        String openAddTag = null;
+        for (SolrXmlSlicer.Command command : commands) {
+            if (openAddTag != null && !openAddTag.equals(command.getAddTag())) {
+                writer.write("</add>");
+                openAddTag = null;
+            }
+            if (command.isDocument() && openAddTag == null) {
+                openAddTag = command.getAddTag();
+                writer.write(openAddTag);
+            }
+            writer.write(command.getXml());
+        }
+        if (openAddTag != null) {
+            writer.write("</add>");
+        }
+        writer.write("</update>");
+    }
+
+    @Override
+    public RequestWriter.ContentWriter getContentWriter(String expectedType) {
+        return new RequestWriter.ContentWriter() {
+            @Override
+            public void write(OutputStream os) throws IOException {
+                Writer writer = new OutputStreamWriter(os, StandardCharsets.UTF_8);
+                RawXmlUpdateRequest.this.write(writer);
+                writer.flush();
+            }
+
+            @Override
+            public String getContentType() {
+                return XML_CONTENT_TYPE;
+            }
+        };
+    }
+}
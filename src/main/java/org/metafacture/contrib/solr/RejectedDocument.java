@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * A document that could not be added to Solr, together with the reason.
+ */
+public class RejectedDocument {
+
+    private final SolrInputDocument document;
+    private final String reason;
+
+    public RejectedDocument(SolrInputDocument document, String reason) {
+        this.document = document;
+        this.reason = reason;
+    }
+
+    public SolrInputDocument getDocument() {
+        return document;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    @Override
+    public String toString() {
+        return "RejectedDocument{" +
+                "document=" + document +
+                ", reason='" + reason + '\'' +
+                '}';
+    }
+}
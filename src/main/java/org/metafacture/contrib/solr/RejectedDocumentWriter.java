@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.XML;
+import org.metafacture.framework.MetafactureException;
+import org.metafacture.framework.helpers.DefaultObjectReceiver;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Writes rejected documents to a Solr XML update file.
+ *
+ * Each document (or delete) is preceded by a comment with the reason of the rejection,
+ * so that the file can be fixed and fed back via {@code handle-solr-xml}.
+ * Documents may be written by several threads concurrently.
+ */
+public class RejectedDocumentWriter extends DefaultObjectReceiver<RejectedDocument> {
+
+    private Writer writer;
+
+    public RejectedDocumentWriter(String path) {
+        try {
+            writer = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8);
+            writer.write("<update>\n");
+            writer.flush();
+        } catch (IOException e) {
+            throw new MetafactureException(e);
+        }
+    }
+
+    @Override
+    public synchronized void process(RejectedDocument rejectedDocument) {
+        try {
+            writer.write("<!-- ");
+            writer.write(escapeComment(rejectedDocument.getReason()));
+            writer.write(" -->\n");
+            SolrInputDocument document = rejectedDocument.getDocument();
+            if (document instanceof SolrDelete) {
+                writeDelete((SolrDelete) document);
+            } else {
+                writer.write("<add>");
+                writer.write(ClientUtils.toXML(document));
+                writer.write("</add>\n");
+            }
+            writer.flush();
+        } catch (IOException e) {
+            throw new MetafactureException(e);
+        }
+    }
+
+    /**
+     * Writes a command of a Solr XML update file as it is.
+     *
+     * @param addTag start tag of the enclosing add element, or null if the command is not a document
+     */
+    public synchronized void writeRaw(String addTag, String xml, String reason) {
+        try {
+            writer.write("<!-- ");
+            writer.write(escapeComment(reason));
+            writer.write(" -->\n");
+            if (addTag != null) {
+                writer.write(addTag);
+            }
+            writer.write(xml);
+            if (addTag != null) {
+                writer.write("</add>");
+            }
+            writer.write("\n");
+            writer.flush();
+        } catch (IOException e) {
+            throw new MetafactureException(e);
+        }
+    }
+
+    @Override
+    public synchronized void closeStream() {
+        try {
+            writer.write("</update>\n");
+            writer.close();
+        } catch (IOException e) {
+            throw new MetafactureException(e);
+        }
+    }
+
+    private void writeDelete(SolrDelete delete) throws IOException {
+        String element = delete.isById() ? "id" : "query";
+        writer.write("<delete><" + element + ">");
+        XML.escapeCharData(delete.isById() ? delete.getId() : delete.getQuery(), writer);
+        writer.write("</" + element + "></delete>\n");
+    }
+
+    private static String escapeComment(String text) {
+        // "--" is not allowed within XML comments
+        return String.valueOf(text).replaceAll("-(?=-)", "- ");
+    }
+}
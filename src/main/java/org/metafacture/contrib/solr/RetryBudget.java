@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+/**
+ * A token bucket for retries, shared by all commit processes of a writer.
+ *
+ * Every retry takes a token, every successful commit gives back a fraction of a token.
+ * If the server is down, the bucket runs dry and batches fail fast instead of all
+ * threads retrying at once.
+ */
+public class RetryBudget {
+
+    /** Tokens are counted in tenths of a retry. */
+    private static final int RETRY_COST = 10;
+    private static final int REFILL_PER_SUCCESS = 1;
+
+    private final long maxTokens;
+    private long tokens;
+
+    /**
+     * @param maxTokens max number of retries without successful commits in between
+     */
+    public RetryBudget(int maxTokens) {
+        this.maxTokens = (long) maxTokens * RETRY_COST;
+        this.tokens = this.maxTokens;
+    }
+
+    /** Takes a token, if available. */
+    public synchronized boolean tryAcquire() {
+        if (tokens < RETRY_COST) {
+            return false;
+        }
+        tokens -= RETRY_COST;
+        return true;
+    }
+
+    /** Gives back a fraction of a token after a successful commit. */
+    public synchronized void onSuccess() {
+        tokens = Math.min(maxTokens, tokens + REFILL_PER_SUCCESS);
+    }
+
+    /** Returns the number of retries left. */
+    public synchronized double getTokens() {
+        return (double) tokens / RETRY_COST;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.client.solrj.request.AbstractUpdateRequest;
+import org.apache.solr.client.solrj.request.JavaBinUpdateRequestCodec;
+import org.apache.solr.client.solrj.request.RequestWriter;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * An update request, that holds a batch of documents in javabin format.
+ *
+ * The batch is serialized once and the bytes are sent as they are for every attempt.
+ * The buffer is reused for the next batch, so a request should be owned by a single thread.
+ */
+public class SerializedUpdateRequest extends AbstractUpdateRequest {
+
+    private static final String JAVABIN_CONTENT_TYPE = "application/javabin";
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    /** Keeps its (grown) array when it is reset. */
+    private final ByteArrayOutputStream buffer;
+
+    public SerializedUpdateRequest() {
+        super(METHOD.POST, "/update");
+        this.buffer = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+    }
+
+    /** Replaces the content of the request with the serialized documents. */
+    public void serialize(List<SolrInputDocument> documents) throws IOException {
+        UpdateRequest updateRequest = new UpdateRequest();
+        updateRequest.add(documents);
+
+        buffer.reset();
+        new JavaBinUpdateRequestCodec().marshal(updateRequest, buffer);
+    }
+
+    /** Returns the size (in bytes) of the serialized documents. */
+    public int getContentLength() {
+        return buffer.size();
+    }
+
+    @Override
+    public RequestWriter.ContentWriter getContentWriter(String expectedType) {
+        return new RequestWriter.ContentWriter() {
+            @Override
+            public void write(OutputStream os) throws IOException {
+                buffer.writeTo(os);
+            }
+
+            @Override
+            public String getContentType() {
+                return JAVABIN_CONTENT_TYPE;
+            }
+        };
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.jcsp.lang.AltingChannelInput;
+import org.jcsp.lang.Alternative;
+import org.jcsp.lang.CSProcess;
+import org.jcsp.lang.CSTimer;
+import org.jcsp.lang.Guard;
+import org.jcsp.lang.PoisonException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs a {@link SolrDocumentCoalescer} in its own process, so that documents leave the window when they
+ * reach the max age, even if no further documents arrive.
+ *
+ * When the input is poisoned, the remaining documents are handed over and the finisher is called
+ * (e.g. to poison the channels behind the output).
+ */
+public class SolrCoalescerProcess implements CSProcess {
+
+    private static final int DOCUMENT_INDEX = 0;
+
+    private final AltingChannelInput<SolrInputDocument> input;
+    private final SolrDocumentCoalescer coalescer;
+    private final Consumer<SolrInputDocument> output;
+    private final Runnable finisher;
+
+    /** Metrics of the writer (optional). */
+    private SolrMetrics metrics;
+
+    public SolrCoalescerProcess(AltingChannelInput<SolrInputDocument> input, SolrDocumentCoalescer coalescer,
+                                Consumer<SolrInputDocument> output, Runnable finisher) {
+        this.input = input;
+        this.coalescer = coalescer;
+        this.output = output;
+        this.finisher = finisher;
+    }
+
+    public void setMetrics(SolrMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void run() {
+        CSTimer timer = new CSTimer();
+        Alternative alternative = new Alternative(new Guard[]{input, timer});
+
+        try {
+            while (true) {
+                long expiryNanos = coalescer.getNextExpiryNanos();
+                if (expiryNanos != Long.MAX_VALUE) {
+                    long delayNanos = Math.max(0, expiryNanos - System.nanoTime());
+                    // The timer counts in ms, an alarm that is slightly late only expires the documents at once
+                    timer.setAlarm(timer.read() + TimeUnit.NANOSECONDS.toMillis(delayNanos) + 1);
+                    if (alternative.priSelect() != DOCUMENT_INDEX) {
+                        coalescer.expire(System.nanoTime(), output);
+                        continue;
+                    }
+                }
+
+                SolrInputDocument document = input.read();
+                if (coalescer.add(document, System.nanoTime(), output) && metrics != null) {
+                    metrics.recordCoalesced();
+                }
+            }
+        } catch (PoisonException e) {
+            coalescer.drain(output);
+        }
+        finisher.run();
+    }
+}
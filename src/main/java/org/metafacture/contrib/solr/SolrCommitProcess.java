@@ -17,26 +17,69 @@ package org.metafacture.contrib.solr;
 
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
 import org.apache.solr.client.solrj.response.UpdateResponse;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.UpdateParams;
+import org.jcsp.lang.Alternative;
+import org.jcsp.lang.AltingChannelInput;
 import org.jcsp.lang.Barrier;
 import org.jcsp.lang.CSProcess;
+import org.jcsp.lang.CSTimer;
+import org.jcsp.lang.Channel;
 import org.jcsp.lang.ChannelInput;
+import org.jcsp.lang.ChannelOutput;
+import org.jcsp.lang.Guard;
+import org.jcsp.lang.One2OneChannel;
+import org.jcsp.lang.Parallel;
 import org.jcsp.lang.PoisonException;
+import org.metafacture.framework.ObjectReceiver;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
 public class SolrCommitProcess implements CSProcess {
+
+    private static final int STAGE_ADD = 0;
+    private static final int STAGE_DELETE_BY_ID = 1;
+    private static final int STAGE_DELETE_BY_QUERY = 2;
+
     private ChannelInput<SolrInputDocument> channelInput;
     private Barrier barrier;
     private SolrClient client;
     private String collection;
     private int batchSize;
+    /** Max estimated size (in bytes) of a batch. */
+    private int maxBatchBytes;
     private int commitWithinMs;
-    private int maxRetries;
-    private int waitMs;
+    /** Sends the requests, classifies their failures and retries them. */
+    private final SolrRequestSender sender;
+    /** Max time (in ms) a non-empty batch waits for further documents. */
+    private int lingerMs;
+    private boolean verbose;
+    /** Shared limiter for the number of concurrently sent batches (optional). */
+    private AdaptiveConcurrencyLimiter limiter;
+    /** Receiver for documents that could not be added (optional). */
+    private ObjectReceiver<RejectedDocument> deadLetterReceiver;
+
+    private boolean serializeOnce;
+    /** Reusable request for pre-serialized batches. */
+    private SerializedUpdateRequest serializedRequest;
+    /** Documents in the serialized request. */
+    private List<SolrInputDocument> serializedDocuments;
+
+    /** Metrics of the writer (optional). */
+    private SolrMetrics metrics;
+    /** Flag for estimating the size of the batches for the bytes in flight of the metrics. */
+    private boolean measureBytes;
+
+    /** Write-ahead spool for batches (optional). */
+    private SolrSpool spool;
+
+    private List<SolrInputDocument> batch;
+    private long batchBytes;
 
     public SolrCommitProcess(ChannelInput<SolrInputDocument> channelInput,
                              Barrier barrier,
@@ -48,107 +91,407 @@ public class SolrCommitProcess implements CSProcess {
         this.client = client;
         this.collection = collection;
         this.batchSize = 1;
+        this.maxBatchBytes = -1;
         this.commitWithinMs = -1;
-        this.maxRetries = 0;
-        this.waitMs = 10_000;
+        this.sender = new SolrRequestSender();
+        this.lingerMs = -1;
+        this.serializeOnce = false;
+        this.verbose = false;
     }
 
     public void setMaxRetries(int maxRetries) {
-        this.maxRetries = maxRetries;
+        sender.setMaxRetries(maxRetries);
     }
 
     public void setWaitMs(int waitMs) {
-        this.waitMs = waitMs;
+        sender.setWaitMs(waitMs);
+    }
+
+    public void setMaxWaitMs(int maxWaitMs) {
+        sender.setMaxWaitMs(maxWaitMs);
+    }
+
+    public void setRetryBudget(RetryBudget retryBudget) {
+        sender.setRetryBudget(retryBudget);
     }
 
     public void setBatchSize(int batchSize) {
         this.batchSize = batchSize;
     }
 
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
     public void setCommitWithinMs(int commitWithinMs) {
         this.commitWithinMs = commitWithinMs;
     }
 
+    public void setLingerMs(int lingerMs) {
+        this.lingerMs = lingerMs;
+    }
+
+    public void setLimiter(AdaptiveConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    public void setDeadLetterReceiver(ObjectReceiver<RejectedDocument> deadLetterReceiver) {
+        this.deadLetterReceiver = deadLetterReceiver;
+    }
+
+    public void setMetrics(SolrMetrics metrics) {
+        this.metrics = metrics;
+        sender.setMetrics(metrics);
+    }
+
+    /**
+     * Estimates the size of the documents for the bytes in flight of the metrics, even if neither
+     * maxBatchBytes nor verbose needs it. Estimating walks all fields of each document, so it is off by default.
+     */
+    public void setMeasureBytes(boolean measureBytes) {
+        this.measureBytes = measureBytes;
+    }
+
+    public void setSpool(SolrSpool spool) {
+        this.spool = spool;
+    }
+
+    /**
+     * Serializes each batch once into a reusable javabin buffer, which is sent as it is for every retry.
+     * Requires a client that does not need the documents themselves (e.g. no CloudSolrClient, which routes by document).
+     */
+    public void setSerializeOnce(boolean serializeOnce) {
+        this.serializeOnce = serializeOnce;
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
     @Override
+    @SuppressWarnings("unchecked")
     public void run() {
-        List<SolrInputDocument> batch = new ArrayList<>(batchSize);
+        if (serializeOnce) {
+            serializedRequest = new SerializedUpdateRequest();
+            if (commitWithinMs >= 0) {
+                serializedRequest.setParam(UpdateParams.COMMIT_WITHIN, String.valueOf(commitWithinMs));
+            }
+        }
+
+        if (lingerMs <= 0) {
+            process(channelInput, null);
+        } else if (channelInput instanceof AltingChannelInput) {
+            process(channelInput, (AltingChannelInput<SolrInputDocument>) channelInput);
+        } else {
+            // Shared channel inputs can not be used as guards, so documents are relayed through a private channel.
+            int noPoisonImmunity = 0;
+            One2OneChannel<SolrInputDocument> relayChannel = Channel.one2one(noPoisonImmunity);
+            Parallel parallel = new Parallel();
+            parallel.addProcess(new RelayProcess(channelInput, relayChannel.out()));
+            parallel.addProcess(() -> process(relayChannel.in(), relayChannel.in()));
+            parallel.run();
+            parallel.releaseAllThreads();
+        }
+        barrier.sync();
+    }
+
+    /**
+     * Reads documents from the input until it is poisoned and commits them in batches.
+     *
+     * @param input channel to read the documents from
+     * @param guard the same channel as a guard, or null if partial batches should not linger
+     */
+    private void process(ChannelInput<SolrInputDocument> input, AltingChannelInput<SolrInputDocument> guard) {
+        final int documentIndex = 0;
+        CSTimer timer = new CSTimer();
+        Alternative alternative = guard == null ? null : new Alternative(new Guard[]{guard, timer});
+
+        batch = new ArrayList<>(batchSize);
+        batchBytes = 0;
 
         while (true) {
             SolrInputDocument document;
+            long documentBytes;
             try {
-                document = receive();
-                batch.add(document);
+                if (alternative == null || batch.isEmpty() || alternative.priSelect() == documentIndex) {
+                    document = input.read();
+                } else {
+                    flush();
+                    continue;
+                }
+                if (document instanceof SolrDeleteBarrier) {
+                    if (!batch.isEmpty()) {
+                        flush();
+                    }
+                    ((SolrDeleteBarrier) document).pass(this::sendDelete);
+                    continue;
+                }
+                documentBytes = estimate(document);
             } catch (PoisonException e) {
                 if (!batch.isEmpty()) {
-                    boolean isSuccessful = commit(batch);
-                    if (!isSuccessful) {
-                        retryCommit(batch, maxRetries, waitMs);
-                    }
+                    flush();
                 }
-                barrier.sync();
                 break;
             }
 
-            if (batch.size() == batchSize) {
-                boolean isSuccessful = commit(batch);
+            if (maxBatchBytes > 0 && !batch.isEmpty() && batchBytes + documentBytes > maxBatchBytes) {
+                flush();
+            }
 
-                if (!isSuccessful) {
-                    retryCommit(batch, maxRetries, waitMs);
-                }
+            if (batch.isEmpty() && alternative != null) {
+                timer.setAlarm(timer.read() + lingerMs);
+            }
 
-                batch = new ArrayList<>(batchSize);
+            batch.add(document);
+            batchBytes += documentBytes;
+
+            if (batch.size() == batchSize || (maxBatchBytes > 0 && batchBytes >= maxBatchBytes)) {
+                flush();
             }
         }
     }
 
-    private void retryCommit(List<SolrInputDocument> documents, int retries, int waitMs) {
-        int retryLimit = retries;
-        while (true) {
-            if (retryLimit == 0) {
-                break;
+    private void sendDelete(SolrDelete delete) {
+        batch.add(delete);
+        batchBytes = estimate(delete);
+        flush();
+    }
+
+    /** Returns the estimated size of the document, if any option needs it, otherwise 0. */
+    private long estimate(SolrInputDocument document) {
+        return maxBatchBytes > 0 || verbose || (measureBytes && metrics != null)
+                ? DocumentSizeEstimator.estimate(document)
+                : 0;
+    }
+
+    /**
+     * Commits the batches that have been spooled, but not been handled in a previous run, in the order
+     * they have been spooled. Has to run before any process reads from the channel, so that the batches
+     * are not overtaken by newer updates of the same documents.
+     */
+    public void recover() {
+        Path segment;
+        while ((segment = spool.pollRecovered()) != null) {
+            try {
+                commitOrBisect(spool.read(segment));
+                spool.acknowledge(segment);
+            } catch (IOException e) {
+                System.err.println("Could not recover spooled batch " + segment + ": " + e.getMessage());
             }
+        }
+    }
 
+    private void flush() {
+        Path segment = null;
+        if (spool != null) {
             try {
-                Thread.sleep(waitMs);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+                segment = spool.write(batch);
+            } catch (IOException e) {
+                System.err.println("Could not spool batch: " + e.getMessage());
             }
+        }
 
-            boolean retrySuccessful = commit(documents);
+        if (metrics != null) {
+            metrics.batchStarted(batchBytes);
+        }
 
-            if (retrySuccessful) {
-                break;
-            } else {
-                retryLimit -= 1;
+        commitOrBisect(batch);
+
+        if (metrics != null) {
+            metrics.batchFinished(batchBytes);
+        }
+
+        if (segment != null) {
+            try {
+                spool.acknowledge(segment);
+            } catch (IOException e) {
+                System.err.println("Could not remove spooled batch " + segment + ": " + e.getMessage());
             }
         }
+
+        if (verbose) {
+            System.err.println("Sent batch of " + batch.size() + " documents (~" + batchBytes + " bytes).");
+        }
+
+        batch = new ArrayList<>(batchSize);
+        batchBytes = 0;
+    }
+
+    /**
+     * Commits the documents and retries on failures. Batches that are rejected by the server
+     * are split in half recursively, until the rejected documents are found.
+     */
+    private void commitOrBisect(List<SolrInputDocument> documents) {
+        boolean isSuccessful = commit(documents);
+
+        if (!isSuccessful && !sender.isRejected()) {
+            isSuccessful = sender.retry(() -> commit(documents));
+        }
+
+        if (isSuccessful) {
+            if (metrics != null) {
+                metrics.recordDocuments(documents.size());
+            }
+            return;
+        }
+
+        if (sender.isRejected() && documents.size() > 1) {
+            int middle = documents.size() / 2;
+            commitOrBisect(documents.subList(0, middle));
+            commitOrBisect(documents.subList(middle, documents.size()));
+        } else {
+            reject(documents, sender.getLastError());
+        }
+    }
+
+    private void reject(List<SolrInputDocument> documents, String reason) {
+        if (metrics != null) {
+            metrics.recordRejected(documents.size());
+        }
+        if (deadLetterReceiver == null) {
+            System.err.println("Dropped " + documents.size() + " document(s): " + reason);
+            return;
+        }
+        for (SolrInputDocument document : documents) {
+            deadLetterReceiver.process(new RejectedDocument(document, reason));
+        }
     }
 
     private boolean commit(List<SolrInputDocument> documents) {
+        if (limiter != null) {
+            try {
+                limiter.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        long start = System.nanoTime();
+        boolean isSuccessful = false;
         try {
-            UpdateResponse response;
-            if (commitWithinMs >= 0)
-                response = client.add(collection, documents, commitWithinMs);
-            else
-                response = client.add(collection, documents);
+            isSuccessful = sender.send(() -> send(documents));
+        } finally {
+            long latency = System.nanoTime() - start;
+            if (limiter != null) {
+                // Rejected documents say nothing about the load of the server
+                limiter.release(latency, isSuccessful || sender.isRejected());
+            }
+            if (metrics != null) {
+                metrics.recordSend(latency, isSuccessful);
+            }
+        }
+        return isSuccessful;
+    }
 
-            if (response.getStatus() != 0) {
-                return false;
+    private UpdateResponse send(List<SolrInputDocument> documents) throws IOException, SolrServerException {
+        if (containsDeletes(documents)) {
+            return sendUpdates(documents);
+        } else if (serializedRequest != null) {
+            return sendSerialized(documents);
+        } else if (commitWithinMs >= 0) {
+            return client.add(collection, documents, commitWithinMs);
+        } else {
+            return client.add(collection, documents);
+        }
+    }
+
+    /** Sends the documents as a pre-serialized batch, which is only serialized again for other documents. */
+    private UpdateResponse sendSerialized(List<SolrInputDocument> documents) throws IOException, SolrServerException {
+        if (documents != serializedDocuments) {
+            serializedDocuments = null;
+            long start = System.nanoTime();
+            serializedRequest.serialize(documents);
+            if (metrics != null) {
+                metrics.recordSerialize(System.nanoTime() - start);
+            }
+            serializedDocuments = documents;
+        }
+        return serializedRequest.process(client, collection);
+    }
+
+    private static boolean containsDeletes(List<SolrInputDocument> documents) {
+        for (SolrInputDocument document : documents) {
+            if (document instanceof SolrDelete) {
+                return true;
             }
-        } catch (IOException e) {
-            System.err.println("Could not commit batch, due to communication error: " + e.getMessage());
-            return false;
-        } catch (SolrServerException e) {
-            System.err.println("Could not commit batch, due to server error: " + e.getMessage());
-            return false;
-        } catch (Exception e) {
-            System.err.println("Could not commit batch, due to unknown error: " + e.getMessage());
-            return false;
         }
-        return true;
+        return false;
     }
 
-    private SolrInputDocument receive() {
-        return channelInput.read();
+    /**
+     * Sends documents and deletes in as few requests as possible, without changing their order.
+     *
+     * Solr handles the documents of a request first, then the deletes by id and then the deletes by query.
+     * So a new request is started whenever an update arrives, that would be handled too early in the current one.
+     */
+    private UpdateResponse sendUpdates(List<SolrInputDocument> documents) throws IOException, SolrServerException {
+        UpdateRequest request = new UpdateRequest();
+        int requestStage = STAGE_ADD;
+        for (SolrInputDocument document : documents) {
+            int stage = stageOf(document);
+            if (stage < requestStage) {
+                UpdateResponse response = processUpdates(request);
+                if (response.getStatus() != 0) {
+                    return response;
+                }
+                request = new UpdateRequest();
+            }
+            requestStage = stage;
+
+            if (stage == STAGE_ADD) {
+                request.add(document);
+            } else if (stage == STAGE_DELETE_BY_ID) {
+                request.deleteById(((SolrDelete) document).getId());
+            } else {
+                request.deleteByQuery(((SolrDelete) document).getQuery());
+            }
+        }
+        return processUpdates(request);
+    }
+
+    private UpdateResponse processUpdates(UpdateRequest request) throws IOException, SolrServerException {
+        if (commitWithinMs >= 0) {
+            request.setCommitWithin(commitWithinMs);
+        }
+        return request.process(client, collection);
+    }
+
+    private static int stageOf(SolrInputDocument document) {
+        if (!(document instanceof SolrDelete)) {
+            return STAGE_ADD;
+        }
+        return ((SolrDelete) document).isById() ? STAGE_DELETE_BY_ID : STAGE_DELETE_BY_QUERY;
+    }
+
+    /** Forwards documents from a shared channel to a channel that can be used as a guard. */
+    private static class RelayProcess implements CSProcess {
+        private ChannelInput<SolrInputDocument> input;
+        private ChannelOutput<SolrInputDocument> output;
+
+        RelayProcess(ChannelInput<SolrInputDocument> input, ChannelOutput<SolrInputDocument> output) {
+            this.input = input;
+            this.output = output;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    SolrInputDocument document = input.read();
+                    output.write(document);
+                    if (document instanceof SolrDeleteBarrier) {
+                        ((SolrDeleteBarrier) document).awaitSent();
+                    }
+                } catch (PoisonException e) {
+                    output.poison(1);
+                    break;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    output.poison(1);
+                    break;
+                }
+            }
+        }
     }
 }
\ No newline at end of file
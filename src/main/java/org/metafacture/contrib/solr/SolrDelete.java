@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * A delete-by-id or delete-by-query, that flows through a pipeline like a Solr Input Document.
+ *
+ * A delete-by-id carries the id in its <code>id</code> field, so that it is routed like the
+ * documents with the same id (see <code>partitionField</code> of {@link SolrWriter}).
+ */
+public class SolrDelete extends SolrInputDocument {
+
+    private static final String ID_FIELD = "id";
+
+    private final String id;
+    private final String query;
+
+    private SolrDelete(String id, String query) {
+        this.id = id;
+        this.query = query;
+        if (id != null) {
+            setField(ID_FIELD, id);
+        }
+    }
+
+    public static SolrDelete byId(String id) {
+        return new SolrDelete(id, null);
+    }
+
+    public static SolrDelete byQuery(String query) {
+        return new SolrDelete(null, query);
+    }
+
+    public boolean isById() {
+        return id != null;
+    }
+
+    /** Returns the id of a delete-by-id, or null. */
+    public String getId() {
+        return id;
+    }
+
+    /** Returns the query of a delete-by-query, or null. */
+    public String getQuery() {
+        return query;
+    }
+
+    @Override
+    public String toString() {
+        return isById() ? "SolrDelete(id=" + id + ")" : "SolrDelete(query=" + query + ")";
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.jcsp.lang.Barrier;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * A delete that is handed to every commit process, so that it is ordered against the updates of all of them.
+ *
+ * Every process sends its pending batch and waits for the others. Then one of them sends the delete,
+ * while the others wait, before they go on with the next documents. Used for deletes that can not
+ * be routed like the documents they affect (e.g. deletes by query).
+ */
+final class SolrDeleteBarrier extends SolrInputDocument {
+
+    private final SolrDelete delete;
+    private final Barrier barrier;
+    private final AtomicBoolean isClaimed;
+    private final CountDownLatch sent;
+
+    /**
+     * @param delete the delete to send
+     * @param processes number of commit processes, that the barrier is handed to
+     */
+    SolrDeleteBarrier(SolrDelete delete, int processes) {
+        this.delete = delete;
+        this.barrier = new Barrier(processes);
+        this.isClaimed = new AtomicBoolean();
+        this.sent = new CountDownLatch(1);
+    }
+
+    /**
+     * Waits for the other processes, lets one of them send the delete and waits until it is sent.
+     * Must be called by every process, after it has sent its pending batch.
+     */
+    void pass(Consumer<SolrDelete> sender) {
+        barrier.sync();
+        if (isClaimed.compareAndSet(false, true)) {
+            try {
+                sender.accept(delete);
+            } finally {
+                sent.countDown();
+            }
+        }
+        barrier.sync();
+    }
+
+    /**
+     * Waits until the delete has been sent. A relay, that reads from a channel shared by all processes,
+     * must not read further, before its process has passed the barrier; otherwise it might take
+     * the barrier of another process.
+     */
+    void awaitSent() throws InterruptedException {
+        sent.await();
+    }
+
+    @Override
+    public String toString() {
+        return "SolrDeleteBarrier(" + delete + ")";
+    }
+}
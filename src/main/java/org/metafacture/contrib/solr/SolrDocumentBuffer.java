@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.jcsp.util.ChannelDataStore;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A FIFO channel buffer for Solr Input Documents bounded by a number of documents and/or
+ * by the estimated size (in bytes) of the buffered documents.
+ *
+ * The buffer always accepts a document as long as it is not full, so a single document may exceed the byte limit.
+ * The size of the documents is only estimated if there is a byte limit.
+ * The current depth of the buffer can be read from any thread.
+ */
+public class SolrDocumentBuffer implements ChannelDataStore<SolrInputDocument> {
+
+    private final int capacity;
+    private final long maxBytes;
+    /** Whether the buffer is bounded by bytes, so that the size of the documents has to be estimated */
+    private final boolean isBytesBounded;
+
+    private Deque<SolrInputDocument> documents;
+    private Deque<Long> documentBytes;
+
+    private volatile int size;
+    private volatile long bytes;
+
+    /**
+     * @param capacity max number of documents, values &lt;= 0 mean unbounded
+     * @param maxBytes max estimated size (in bytes) of all documents, values &lt;= 0 mean unbounded
+     */
+    public SolrDocumentBuffer(int capacity, long maxBytes) {
+        if (capacity <= 0 && maxBytes <= 0) {
+            throw new IllegalArgumentException("A buffer needs either a capacity or a max size in bytes.");
+        }
+        this.capacity = capacity > 0 ? capacity : Integer.MAX_VALUE;
+        this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+        this.isBytesBounded = maxBytes > 0;
+        this.documents = new ArrayDeque<>();
+        this.documentBytes = new ArrayDeque<>();
+        this.size = 0;
+        this.bytes = 0;
+    }
+
+    /** Returns the number of buffered documents. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the estimated size (in bytes) of all buffered documents, or 0 if the buffer is not bounded by bytes. */
+    public long bytes() {
+        return bytes;
+    }
+
+    @Override
+    public int getState() {
+        if (size == 0) {
+            return EMPTY;
+        }
+        if (size >= capacity || bytes >= maxBytes) {
+            return FULL;
+        }
+        return NONEMPTYFULL;
+    }
+
+    @Override
+    public void put(SolrInputDocument document) {
+        documents.addLast(document);
+        size++;
+        if (isBytesBounded) {
+            long estimate = DocumentSizeEstimator.estimate(document);
+            documentBytes.addLast(estimate);
+            bytes += estimate;
+        }
+    }
+
+    @Override
+    public SolrInputDocument get() {
+        SolrInputDocument document = documents.removeFirst();
+        size--;
+        if (isBytesBounded) {
+            bytes -= documentBytes.removeFirst();
+        }
+        return document;
+    }
+
+    @Override
+    public SolrInputDocument startGet() {
+        return documents.getFirst();
+    }
+
+    @Override
+    public void endGet() {
+        get();
+    }
+
+    @Override
+    public Object clone() {
+        return new SolrDocumentBuffer(capacity, maxBytes);
+    }
+
+    @Override
+    public void removeAll() {
+        documents.clear();
+        documentBytes.clear();
+        size = 0;
+        bytes = 0;
+    }
+}
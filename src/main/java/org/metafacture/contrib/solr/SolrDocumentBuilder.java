@@ -29,10 +29,9 @@ import org.metafacture.framework.helpers.DefaultStreamPipe;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 @Description("Builds a Solr Document from metafacture stream events.")
 @In(StreamReceiver.class)
@@ -40,61 +39,128 @@ import java.util.Set;
 @FluxCommand("build-solr-doc")
 public class SolrDocumentBuilder extends DefaultStreamPipe<ObjectReceiver<SolrInputDocument>> {
 
+    private static final String DELETE = "delete";
+    private static final String DELETE_BY_ID = "id";
+    private static final String DELETE_BY_QUERY = "query";
+    /** Weight of the field count of the last record in the running average (as a shift) */
+    private static final int AVERAGE_SHIFT = 4;
+
     private SolrInputDocument document;
     private String updateMethod;
     private String updateFieldName;
-    private List<String> updateFieldValues;
-    private Set<String> validUpdateMethods;
+    /** Values of the current update entity, reused for every entity */
+    private List<Object> updateFieldValues;
+    /** Canonical instances of the update methods */
+    private Map<String,String> validUpdateMethods;
+    private FieldNameCache fieldNames;
+    /** Running average of the number of fields per document (scaled by 2^AVERAGE_SHIFT) */
+    private int scaledAverageFields;
+    /** A flag that indicates a delete entity */
+    private boolean isDelete;
+    private List<SolrDelete> deletes;
+    /** Field types for the conversion of the values, or null to keep strings */
+    private SolrSchema schema;
+    /** Error of the first value of the record that does not fit its field type */
+    private String invalidValue;
+    /** Receiver of the documents with invalid values, or null to drop them */
+    private ObjectReceiver<RejectedDocument> deadLetterReceiver;
 
     public SolrDocumentBuilder() {
         updateMethod = "";
         updateFieldValues = new ArrayList<>();
+        fieldNames = new FieldNameCache();
+        deletes = new ArrayList<>();
 
         // See also: https://lucene.apache.org/solr/guide/7_5/updating-parts-of-documents.html
-        validUpdateMethods = new HashSet<>();
-        validUpdateMethods.add("add");
-        validUpdateMethods.add("add-distinct");
-        validUpdateMethods.add("inc");
-        validUpdateMethods.add("remove");
-        validUpdateMethods.add("removeregexp");
-        validUpdateMethods.add("set");
+        validUpdateMethods = new HashMap<>();
+        for (String method : new String[] {"add", "add-distinct", "inc", "remove", "removeregexp", "set"}) {
+            validUpdateMethods.put(method, method);
+        }
+    }
+
+    /**
+     * Converts the values to the types of their fields in the given schema file
+     * (<code>schema.xml</code> or <code>managed-schema</code>).
+     * Documents with values that do not fit their field type are passed on to the dead letter receiver
+     * (or reported and dropped without one).
+     */
+    public void setSchema(String schema) {
+        this.schema = SolrSchema.load(schema);
+    }
+
+    /** Path of a Solr XML file for the documents with values that do not fit their field type. */
+    public void setDeadLetterFile(String path) {
+        this.deadLetterReceiver = new RejectedDocumentWriter(path);
+    }
+
+    public void setDeadLetterReceiver(ObjectReceiver<RejectedDocument> deadLetterReceiver) {
+        this.deadLetterReceiver = deadLetterReceiver;
+    }
+
+    /** Uses a schema that has already been loaded (e.g. shared by several builders). */
+    void useSchema(SolrSchema schema) {
+        this.schema = schema;
     }
 
     @Override
     public void startRecord(String identifier) {
-        document = new SolrInputDocument();
+        // Sized for the average number of fields, so that the map does not grow while the fields are added
+        int expectedFields = scaledAverageFields >> AVERAGE_SHIFT;
+        document = new SolrInputDocument(new LinkedHashMap<>(expectedFields * 4 / 3 + 1));
+        fieldNames.reset();
+        deletes.clear();
+        invalidValue = null;
     }
 
     @Override
     public void endRecord() {
-        getReceiver().process(document);
+        for (SolrDelete delete : deletes) {
+            getReceiver().process(delete);
+        }
+        if (invalidValue != null) {
+            reject();
+        // A record may delete documents, before it adds one
+        } else if (deletes.isEmpty() || !document.isEmpty()) {
+            getReceiver().process(document);
+        }
+        scaledAverageFields += document.size() - (scaledAverageFields >> AVERAGE_SHIFT);
+        deletes.clear();
     }
 
     @Override
     public void startEntity(String name) {
-        if (!validUpdateMethods.contains(name)) {
+        if (name.equals(DELETE)) {
+            isDelete = true;
+            return;
+        }
+        String method = validUpdateMethods.get(name);
+        if (method == null) {
             throw new MetafactureException("Invalid update method " + "'" + name  + "'" + "." +
                     "Use: add, add-distinct, inc, remove, removeregexp or set.");
         }
-        updateMethod = name;
+        updateMethod = method;
     }
 
     @Override
     @SuppressWarnings("unchecked")
     public void endEntity() {
-        if (!updateMethod.isEmpty()) {
-
-            SolrInputField field = document.getField(updateFieldName);
+        if (isDelete) {
+            isDelete = false;
+            return;
+        }
+        if (!updateMethod.isEmpty() && !updateFieldValues.isEmpty()) {
 
             boolean isSingleValue = updateFieldValues.size() == 1;
             Object updateValue = isSingleValue ? updateFieldValues.get(0) : new ArrayList<>(updateFieldValues);
 
+            SolrInputField field = document.getField(updateFieldName);
+
             // New field
             if (field == null) {
-                Map<String,Object> updates = new HashMap<>();
+                Map<String,Object> updates = new HashMap<>(4);
                 updates.put(updateMethod, updateValue);
                 document.addField(updateFieldName, updates);
-            // Modify field
+            // Modify field (but not a field with plain values)
             } else {
                 Object obj = field.getValue();
                 if (obj instanceof Map) {
@@ -104,26 +170,64 @@ public class SolrDocumentBuilder extends DefaultStreamPipe<ObjectReceiver<SolrIn
             }
         }
         updateMethod = "";
-        updateFieldValues = new ArrayList<>();
+        updateFieldValues.clear();
     }
 
     @Override
     public void literal(String name, String value) {
-        if (updateMethod.isEmpty()) {
-            document.addField(name, value);
+        if (isDelete) {
+            if (name.equals(DELETE_BY_ID)) {
+                deletes.add(SolrDelete.byId(value));
+            } else if (name.equals(DELETE_BY_QUERY)) {
+                deletes.add(SolrDelete.byQuery(value));
+            } else {
+                throw new MetafactureException("Invalid delete " + "'" + name + "'" + ". Use: id or query.");
+            }
+        } else if (updateMethod.isEmpty()) {
+            document.addField(fieldNames.get(name), convert(name, value));
+        } else {
+            updateFieldName = fieldNames.get(name);
+            // A regular expression is no value of the field
+            updateFieldValues.add(updateMethod.startsWith("removeregex") ? value : convert(name, value));
+        }
+    }
+
+    private void reject() {
+        if (deadLetterReceiver == null) {
+            System.err.println("Dropped document " + document.getFieldValue("id") + ": " + invalidValue + ".");
         } else {
-            updateFieldName = name;
-            updateFieldValues.add(value);
+            deadLetterReceiver.process(new RejectedDocument(document, invalidValue));
+        }
+    }
+
+    private Object convert(String name, String value) {
+        if (schema == null) {
+            return value;
+        }
+        try {
+            return schema.convert(name, value);
+        } catch (IllegalArgumentException e) {
+            if (invalidValue == null) {
+                invalidValue = e.getMessage();
+            }
+            return value;
         }
     }
 
     @Override
     public void onResetStream() {
         updateFieldValues.clear();
+        deletes.clear();
+        isDelete = false;
+        invalidValue = null;
     }
 
     @Override
     public void onCloseStream() {
         updateFieldValues.clear();
+        deletes.clear();
+        if (deadLetterReceiver != null) {
+            deadLetterReceiver.closeStream();
+        }
     }
 }
@@ -0,0 +1,430 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * A window that merges documents with the same id, before they are sent to Solr.
+ *
+ * A full document or a delete-by-id replaces every earlier version (last write wins). An atomic update is applied
+ * to an earlier full document or its operations are merged with an earlier atomic update
+ * (e.g. two <code>add</code> operations on a field become one). If an update cannot be merged
+ * unambiguously, the earlier document leaves the window first, so the order per id is kept.
+ * A delete-by-query empties the window first.
+ *
+ * A document leaves the window when the window is full or, if a max age is given, when it is older
+ * than the max age. The age is checked whenever a document is added and by {@link #expire(long, Consumer)},
+ * which should be called on a timer (see {@link #getNextExpiryNanos()}), so that documents leave the window
+ * while no documents arrive (see {@link SolrCoalescerProcess}). The window is not thread-safe.
+ */
+public class SolrDocumentCoalescer {
+
+    private static final String SET = "set";
+    private static final String ADD = "add";
+    private static final String ADD_DISTINCT = "add-distinct";
+    private static final String REMOVE = "remove";
+    private static final String REMOVE_REGEXP = "removeregexp";
+    private static final String INC = "inc";
+
+    private final String idField;
+    private final int maxDocuments;
+    private final long maxAgeNanos;
+
+    private final LinkedHashMap<Object,Entry> window;
+    private long mergedDocuments;
+
+    /**
+     * @param idField name of the unique key field
+     * @param maxDocuments max number of documents in the window, values &lt;= 0 mean unbounded
+     * @param maxAgeMs max time (in ms) a document stays in the window, values &lt;= 0 mean unbounded
+     */
+    public SolrDocumentCoalescer(String idField, int maxDocuments, int maxAgeMs) {
+        if (maxDocuments <= 0 && maxAgeMs <= 0) {
+            throw new IllegalArgumentException("A window needs either a max number of documents or a max age.");
+        }
+        this.idField = idField;
+        this.maxDocuments = maxDocuments > 0 ? maxDocuments : Integer.MAX_VALUE;
+        this.maxAgeNanos = maxAgeMs > 0 ? maxAgeMs * 1_000_000L : Long.MAX_VALUE;
+        this.window = new LinkedHashMap<>();
+    }
+
+    /** Returns the number of documents in the window. */
+    public int size() {
+        return window.size();
+    }
+
+    /** Returns the number of documents that have been merged into an earlier document. */
+    public long getMergedDocuments() {
+        return mergedDocuments;
+    }
+
+    /**
+     * Adds a document to the window.
+     *
+     * @param output receives the documents that leave the window
+     * @return whether the document has been merged into an earlier document
+     */
+    public boolean add(SolrInputDocument document, long nowNanos, Consumer<SolrInputDocument> output) {
+        expire(nowNanos, output);
+
+        if (document instanceof SolrDelete && !((SolrDelete) document).isById()) {
+            // A query may match any document in the window
+            drain(output);
+            output.accept(document);
+            return false;
+        }
+
+        Object id = document.getFieldValue(idField);
+        if (id == null || document.hasChildDocuments()) {
+            if (id != null) {
+                evict(id, output);
+            }
+            output.accept(document);
+            return false;
+        }
+
+        Entry entry = window.get(id);
+        if (entry != null) {
+            if (merge(entry, document)) {
+                mergedDocuments++;
+                return true;
+            }
+            evict(id, output);
+        }
+
+        window.put(id, new Entry(document, nowNanos));
+        if (window.size() > maxDocuments) {
+            evictEldest(output);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the time (as of {@link System#nanoTime()}) the eldest document reaches the max age,
+     * or Long.MAX_VALUE if the window is empty or has no max age.
+     */
+    public long getNextExpiryNanos() {
+        if (window.isEmpty() || maxAgeNanos == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return window.values().iterator().next().addedNanos + maxAgeNanos;
+    }
+
+    /** Hands over all documents that are older than the max age. */
+    public void expire(long nowNanos, Consumer<SolrInputDocument> output) {
+        Iterator<Entry> entries = window.values().iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            if (nowNanos - entry.addedNanos < maxAgeNanos) {
+                break;
+            }
+            entries.remove();
+            output.accept(entry.document);
+        }
+    }
+
+    /** Hands over all documents in the order they have entered the window. */
+    public void drain(Consumer<SolrInputDocument> output) {
+        for (Entry entry : window.values()) {
+            output.accept(entry.document);
+        }
+        window.clear();
+    }
+
+    private void evict(Object id, Consumer<SolrInputDocument> output) {
+        Entry entry = window.remove(id);
+        if (entry != null) {
+            output.accept(entry.document);
+        }
+    }
+
+    private void evictEldest(Consumer<SolrInputDocument> output) {
+        Iterator<Entry> entries = window.values().iterator();
+        Entry eldest = entries.next();
+        entries.remove();
+        output.accept(eldest.document);
+    }
+
+    private boolean merge(Entry entry, SolrInputDocument document) {
+        if (!isAtomicUpdate(document)) {
+            // Also a delete replaces everything before and is replaced by a later full document
+            entry.document = document;
+            return true;
+        }
+        if (entry.document instanceof SolrDelete) {
+            return false;
+        }
+        if (!isAtomicUpdate(entry.document)) {
+            return applyUpdate(entry.document, document);
+        }
+        return mergeUpdates(entry.document, document);
+    }
+
+    private boolean isAtomicUpdate(SolrInputDocument document) {
+        for (SolrInputField field : document) {
+            if (field.getValue() instanceof Map) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Applies the operations of an atomic update to a full document in the way Solr does. */
+    @SuppressWarnings("unchecked")
+    private boolean applyUpdate(SolrInputDocument document, SolrInputDocument update) {
+        // Check first, so that a document is never left half updated
+        for (SolrInputField field : update) {
+            if (field.getValue() instanceof Map) {
+                Map<String,Object> operations = (Map<String,Object>) field.getValue();
+                if (operations.size() > 1 && operations.containsKey(INC)) {
+                    return false;
+                }
+                for (Map.Entry<String,Object> operation : operations.entrySet()) {
+                    if (!isSupported(operation.getKey()) ||
+                            INC.equals(operation.getKey()) && increment(document.getFieldValue(field.getName()), operation.getValue()) == null) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        for (SolrInputField field : update) {
+            String name = field.getName();
+            if (name.equals(idField)) {
+                continue;
+            }
+            if (!(field.getValue() instanceof Map)) {
+                document.setField(name, field.getValue());
+                continue;
+            }
+            for (Map.Entry<String,Object> operation : ((Map<String,Object>) field.getValue()).entrySet()) {
+                List<Object> values = valuesOf(document.getFieldValues(name));
+                Object result = apply(operation.getKey(), values, operation.getValue());
+                if (result == null) {
+                    document.removeField(name);
+                } else {
+                    document.setField(name, result);
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Merges the operations of two atomic updates field by field. */
+    @SuppressWarnings("unchecked")
+    private boolean mergeUpdates(SolrInputDocument document, SolrInputDocument update) {
+        Map<String,Object> mergedFields = new HashMap<>();
+        for (SolrInputField field : update) {
+            String name = field.getName();
+            if (name.equals(idField)) {
+                continue;
+            }
+            SolrInputField earlierField = document.getField(name);
+            if (earlierField == null) {
+                mergedFields.put(name, field.getValue());
+                continue;
+            }
+            Map<String,Object> merged = mergeOperations(operationsOf(earlierField.getValue()), operationsOf(field.getValue()));
+            if (merged == null) {
+                return false;
+            }
+            mergedFields.put(name, merged);
+        }
+
+        for (Map.Entry<String,Object> field : mergedFields.entrySet()) {
+            document.setField(field.getKey(), field.getValue());
+        }
+        return true;
+    }
+
+    /**
+     * Merges two single operations on a field.
+     *
+     * @return the merged operation, or null if the result would depend on the order of operations
+     */
+    private Map<String,Object> mergeOperations(Map<String,Object> earlier, Map<String,Object> later) {
+        if (later.size() != 1 || earlier.size() != 1) {
+            return later.size() == 1 && later.containsKey(SET) ? later : null;
+        }
+        String earlierOperation = earlier.keySet().iterator().next();
+        String laterOperation = later.keySet().iterator().next();
+        Object earlierValue = earlier.get(earlierOperation);
+        Object laterValue = later.get(laterOperation);
+
+        if (SET.equals(laterOperation)) {
+            return later;
+        }
+        if (SET.equals(earlierOperation)) {
+            if (!isSupported(laterOperation)) {
+                return null;
+            }
+            List<Object> values = earlierValue == null ? new ArrayList<>() : valuesOf(earlierValue);
+            if (INC.equals(laterOperation) && increment(earlierValue, laterValue) == null) {
+                return null;
+            }
+            return operation(SET, apply(laterOperation, values, laterValue));
+        }
+        if (!earlierOperation.equals(laterOperation)) {
+            return null;
+        }
+        switch (laterOperation) {
+            case INC:
+                Object sum = increment(earlierValue, laterValue);
+                return sum == null ? null : operation(INC, sum);
+            case ADD_DISTINCT:
+                return operation(ADD_DISTINCT, apply(ADD_DISTINCT, valuesOf(earlierValue), laterValue));
+            case ADD:
+            case REMOVE:
+            case REMOVE_REGEXP:
+                List<Object> values = valuesOf(earlierValue);
+                values.addAll(valuesOf(laterValue));
+                return operation(laterOperation, values);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Applies an operation to the values of a field.
+     *
+     * @return the new value of the field, or null if the field is removed
+     */
+    private static Object apply(String operation, List<Object> values, Object argument) {
+        switch (operation) {
+            case SET:
+                return argument;
+            case ADD:
+                values.addAll(valuesOf(argument));
+                break;
+            case ADD_DISTINCT:
+                for (Object value : valuesOf(argument)) {
+                    if (!containsValue(values, value)) {
+                        values.add(value);
+                    }
+                }
+                break;
+            case REMOVE:
+                for (Object value : valuesOf(argument)) {
+                    values.removeIf(v -> String.valueOf(v).equals(String.valueOf(value)));
+                }
+                break;
+            case REMOVE_REGEXP:
+                for (Object regex : valuesOf(argument)) {
+                    Pattern pattern = Pattern.compile(String.valueOf(regex));
+                    values.removeIf(v -> pattern.matcher(String.valueOf(v)).matches());
+                }
+                break;
+            case INC:
+                return increment(values.isEmpty() ? null : values.get(0), argument);
+            default:
+                throw new IllegalArgumentException("Unsupported operation: " + operation);
+        }
+        return values.isEmpty() ? null : (values.size() == 1 ? values.get(0) : values);
+    }
+
+    /** Returns the sum of two numbers (as a string, if one of them is a string), or null if they are no numbers. */
+    private static Object increment(Object value, Object increment) {
+        if (value instanceof Collection && ((Collection<?>) value).size() == 1) {
+            value = ((Collection<?>) value).iterator().next();
+        }
+        if (value == null) {
+            value = 0L;
+        }
+        if (value instanceof Collection || increment instanceof Collection || increment == null) {
+            return null;
+        }
+        boolean isString = value instanceof CharSequence || increment instanceof CharSequence;
+        try {
+            Number sum;
+            try {
+                sum = Long.parseLong(value.toString()) + Long.parseLong(increment.toString());
+            } catch (NumberFormatException e) {
+                sum = Double.parseDouble(value.toString()) + Double.parseDouble(increment.toString());
+            }
+            return isString ? sum.toString() : sum;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean isSupported(String operation) {
+        switch (operation) {
+            case SET:
+            case ADD:
+            case ADD_DISTINCT:
+            case REMOVE:
+            case REMOVE_REGEXP:
+            case INC:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean containsValue(List<Object> values, Object value) {
+        for (Object v : values) {
+            if (String.valueOf(v).equals(String.valueOf(value))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the operations on a field, a plain value of an atomic update means <code>set</code>. */
+    @SuppressWarnings("unchecked")
+    private static Map<String,Object> operationsOf(Object value) {
+        return value instanceof Map ? (Map<String,Object>) value : operation(SET, value);
+    }
+
+    private static Map<String,Object> operation(String operation, Object value) {
+        Map<String,Object> operations = new HashMap<>();
+        operations.put(operation, value);
+        return operations;
+    }
+
+    private static List<Object> valuesOf(Object value) {
+        List<Object> values = new ArrayList<>();
+        if (value instanceof Collection) {
+            values.addAll((Collection<?>) value);
+        } else if (value != null) {
+            values.add(value);
+        }
+        return values;
+    }
+
+    private static final class Entry {
+
+        private SolrInputDocument document;
+        private final long addedNanos;
+
+        Entry(SolrInputDocument document, long addedNanos) {
+            this.document = document;
+            this.addedNanos = addedNanos;
+        }
+    }
+}
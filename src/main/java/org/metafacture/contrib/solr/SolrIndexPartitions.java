@@ -0,0 +1,174 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
+import org.apache.solr.core.CoreContainer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Local Solr cores (one per partition of a shard) in a temporary Solr home,
+ * whose indexes are merged into one index per shard at the end.
+ *
+ * Needs solr-core on the class path.
+ */
+public class SolrIndexPartitions {
+
+    private static final String SOLR_XML = "<solr></solr>\n";
+
+    private final Path workDirectory;
+    private final int shards;
+    private final int partitions;
+    private final EmbeddedSolrServer server;
+
+    /**
+     * @param configDirectory Solr config directory (with solrconfig.xml and the schema), which is copied for every core
+     * @param workDirectory temporary Solr home for the cores, which must not exist yet
+     */
+    public SolrIndexPartitions(Path configDirectory, Path workDirectory, int shards, int partitions) throws IOException {
+        this.workDirectory = workDirectory;
+        this.shards = shards;
+        this.partitions = partitions;
+
+        Files.createDirectories(workDirectory);
+        Files.write(workDirectory.resolve("solr.xml"), SOLR_XML.getBytes(StandardCharsets.UTF_8));
+        for (int shard = 0; shard < shards; shard++) {
+            for (int partition = 0; partition < partitions; partition++) {
+                String core = coreName(shard, partition);
+                Path coreDirectory = workDirectory.resolve(core);
+                copyDirectory(configDirectory, coreDirectory.resolve("conf"));
+                try (Writer writer = Files.newBufferedWriter(coreDirectory.resolve("core.properties"), StandardCharsets.UTF_8)) {
+                    writer.write("name=" + core + "\n");
+                }
+            }
+        }
+
+        CoreContainer container = CoreContainer.createAndLoad(workDirectory);
+        if (!container.getCoreInitFailures().isEmpty()) {
+            Exception cause = container.getCoreInitFailures().values().iterator().next().exception;
+            container.shutdown();
+            throw new IOException("Could not create cores: " + cause.getMessage(), cause);
+        }
+        this.server = new EmbeddedSolrServer(container, coreName(0, 0));
+    }
+
+    /** Returns the client for all cores, the core is selected by the collection of a request. */
+    public SolrClient getClient() {
+        return server;
+    }
+
+    public static String coreName(int shard, int partition) {
+        return "shard" + (shard + 1) + "_partition" + (partition + 1);
+    }
+
+    /** Commits all cores and shuts them down. */
+    public void commit() throws IOException {
+        try {
+            for (int shard = 0; shard < shards; shard++) {
+                for (int partition = 0; partition < partitions; partition++) {
+                    server.commit(coreName(shard, partition));
+                }
+            }
+        } catch (SolrServerException e) {
+            throw new IOException(e);
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Merges the indexes of the partitions of each shard into <code>shard&lt;N&gt;/data/index</code>
+     * of the output directory and removes the temporary Solr home.
+     *
+     * @param maxSegments max number of segments per shard, or 0 to keep the segments as they are
+     */
+    public void merge(Path outputDirectory, int maxSegments) throws IOException {
+        for (int shard = 0; shard < shards; shard++) {
+            Path shardIndex = outputDirectory.resolve("shard" + (shard + 1)).resolve("data").resolve("index");
+            Files.createDirectories(shardIndex);
+
+            List<Directory> partitionIndexes = new ArrayList<>(partitions);
+            try (Directory target = FSDirectory.open(shardIndex);
+                 IndexWriter writer = new IndexWriter(target, new IndexWriterConfig()
+                         .setOpenMode(IndexWriterConfig.OpenMode.CREATE))) {
+                for (int partition = 0; partition < partitions; partition++) {
+                    partitionIndexes.add(FSDirectory.open(
+                            workDirectory.resolve(coreName(shard, partition)).resolve("data").resolve("index")));
+                }
+                writer.addIndexes(partitionIndexes.toArray(new Directory[0]));
+                if (maxSegments > 0) {
+                    writer.forceMerge(maxSegments);
+                }
+                writer.commit();
+            } finally {
+                for (Directory directory : partitionIndexes) {
+                    directory.close();
+                }
+            }
+        }
+        deleteDirectory(workDirectory);
+    }
+
+    private static void copyDirectory(Path source, Path target) throws IOException {
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Path copy = target.resolve(source.relativize(path).toString());
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(copy);
+                } else {
+                    Files.copy(path, copy, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+
+    static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
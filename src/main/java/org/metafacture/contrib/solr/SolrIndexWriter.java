@@ -0,0 +1,251 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.cloud.CompositeIdRouter;
+import org.apache.solr.common.cloud.DocRouter;
+import org.jcsp.lang.Barrier;
+import org.jcsp.lang.Channel;
+import org.jcsp.lang.One2OneChannel;
+import org.jcsp.lang.Parallel;
+import org.metafacture.contrib.framework.SolrDocumentReceiver;
+import org.metafacture.contrib.framework.helpers.DefaultSolrDocumentReceiver;
+import org.metafacture.framework.FluxCommand;
+import org.metafacture.framework.MetafactureException;
+import org.metafacture.framework.ObjectReceiver;
+import org.metafacture.framework.annotations.Description;
+import org.metafacture.framework.annotations.In;
+import org.metafacture.framework.annotations.Out;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+@Description("Builds a Solr index locally, without a Solr server.")
+@In(SolrDocumentReceiver.class)
+@Out(Void.class)
+@FluxCommand("to-solr-index")
+public class SolrIndexWriter extends DefaultSolrDocumentReceiver {
+
+    private static final String ID_FIELD = "id";
+    private static final String WORK_DIRECTORY = ".partitions";
+
+    /** Directory for the indexes of the shards */
+    private String outputDirectory;
+    /** Solr config directory with solrconfig.xml and the schema */
+    private String configDirectory;
+
+    /** Number of shards, the documents are routed to like the compositeId router of SolrCloud does */
+    private int shards;
+    /** Number of cores per shard, that are written in parallel */
+    private int partitions;
+    /** Number of documents per update of a core */
+    private int batchSize;
+    /** Max number of segments per shard after the merge */
+    private int maxSegments;
+
+    /** Receiver for documents that could not be added */
+    private ObjectReceiver<RejectedDocument> deadLetterReceiver;
+
+    /** Flag for reporting the number of documents and bytes per batch. */
+    private boolean verbose;
+
+    private SolrIndexPartitions indexPartitions;
+    private List<One2OneChannel<SolrInputDocument>> partitionChannels;
+    private List<DocRouter.Range> shardRanges;
+    private CompositeIdRouter router;
+    /** Counter for distributing documents without an id */
+    private int unkeyedDocuments;
+    private Thread runner;
+
+    /** Flag for a hook that acts before the first processing occurs. */
+    private boolean onStartup;
+
+    public SolrIndexWriter(String outputDirectory) {
+        this.outputDirectory = outputDirectory;
+        this.shards = 1;
+        this.partitions = 1;
+        this.batchSize = 1000;
+        this.maxSegments = 1;
+        this.verbose = false;
+        this.router = new CompositeIdRouter();
+        this.onStartup = true;
+    }
+
+    public void setConfigDirectory(String configDirectory) {
+        this.configDirectory = configDirectory;
+    }
+
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    public void setPartitions(int partitions) {
+        this.partitions = partitions;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setMaxSegments(int maxSegments) {
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Writes documents that could not be added to a Solr XML file.
+     *
+     * @param path path of the file
+     */
+    public void setDeadLetterFile(String path) {
+        this.deadLetterReceiver = new RejectedDocumentWriter(path);
+    }
+
+    public void setDeadLetterReceiver(ObjectReceiver<RejectedDocument> deadLetterReceiver) {
+        this.deadLetterReceiver = deadLetterReceiver;
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /** Returns the hash range of the given shard (counted from 0). */
+    public DocRouter.Range getShardRange(int shard) {
+        return router.partitionRange(shards, router.fullRange()).get(shard);
+    }
+
+    @Override
+    public void process(SolrInputDocument document) {
+        if (onStartup) {
+            start();
+            onStartup = false;
+        }
+
+        if (document instanceof SolrDelete && !((SolrDelete) document).isById()) {
+            // A query may match documents in every partition
+            for (One2OneChannel<SolrInputDocument> channel : partitionChannels) {
+                channel.out().write(document);
+            }
+        } else {
+            partitionChannels.get(selectPartition(document)).out().write(document);
+        }
+    }
+
+    private void start() {
+        if (configDirectory == null) {
+            throw new MetafactureException("Missing config directory (with solrconfig.xml and the schema).");
+        }
+        Path workDirectory = Paths.get(outputDirectory, WORK_DIRECTORY);
+        if (Files.exists(workDirectory)) {
+            throw new MetafactureException("Work directory " + workDirectory + " exists already, remove it first.");
+        }
+
+        try {
+            indexPartitions = new SolrIndexPartitions(Paths.get(configDirectory), workDirectory, shards, partitions);
+        } catch (IOException e) {
+            throw new MetafactureException(e);
+        } catch (NoClassDefFoundError e) {
+            throw new MetafactureException("to-solr-index needs solr-core on the class path.", e);
+        }
+
+        shardRanges = router.partitionRange(shards, router.fullRange());
+        unkeyedDocuments = 0;
+
+        int workers = shards * partitions;
+        int noPoisonImmunity = 0;
+        partitionChannels = new ArrayList<>(workers);
+        Barrier barrier = new Barrier(workers);
+        Parallel parallel = new Parallel();
+        for (int shard = 0; shard < shards; shard++) {
+            for (int partition = 0; partition < partitions; partition++) {
+                One2OneChannel<SolrInputDocument> channel = Channel.one2one(noPoisonImmunity);
+                partitionChannels.add(channel);
+
+                SolrCommitProcess process = new SolrCommitProcess(channel.in(), barrier,
+                        indexPartitions.getClient(), SolrIndexPartitions.coreName(shard, partition));
+                process.setBatchSize(batchSize);
+                process.setDeadLetterReceiver(deadLetterReceiver);
+                process.setVerbose(verbose);
+                parallel.addProcess(process);
+            }
+        }
+
+        runner = new Thread(parallel::run);
+        runner.start();
+    }
+
+    /**
+     * Returns the index of the partition channel for a document: The shard is selected by the hash
+     * of the id (as in SolrCloud), the partition within the shard by the same hash.
+     */
+    private int selectPartition(SolrInputDocument document) {
+        Object id = document.getFieldValue(ID_FIELD);
+        if (id == null) {
+            return Math.floorMod(unkeyedDocuments++, partitionChannels.size());
+        }
+
+        int hash = router.sliceHash(id.toString(), null, null, null);
+        int shard = 0;
+        while (shard < shards - 1 && !shardRanges.get(shard).includes(hash)) {
+            shard++;
+        }
+        return shard * partitions + Math.floorMod(hash, partitions);
+    }
+
+    private void finish() {
+        for (One2OneChannel<SolrInputDocument> channel : partitionChannels) {
+            channel.out().poison(1);
+        }
+        try {
+            runner.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MetafactureException(e);
+        }
+
+        try {
+            indexPartitions.commit();
+            indexPartitions.merge(Paths.get(outputDirectory), maxSegments);
+        } catch (IOException e) {
+            throw new MetafactureException(e);
+        }
+        if (verbose) {
+            System.err.println("Built " + shards + " shard(s) in " + outputDirectory + ".");
+        }
+    }
+
+    @Override
+    public void resetStream() {
+        if (!onStartup) {
+            finish();
+        }
+        onStartup = true;
+    }
+
+    @Override
+    public void closeStream() {
+        if (!onStartup) {
+            finish();
+        }
+        if (deadLetterReceiver != null) {
+            deadLetterReceiver.closeStream();
+        }
+    }
+}
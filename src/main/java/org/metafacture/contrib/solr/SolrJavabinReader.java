@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.FastInputStream;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.metafacture.contrib.framework.SolrDocumentReceiver;
+import org.metafacture.framework.FluxCommand;
+import org.metafacture.framework.MetafactureException;
+import org.metafacture.framework.ObjectReceiver;
+import org.metafacture.framework.annotations.Description;
+import org.metafacture.framework.annotations.In;
+import org.metafacture.framework.annotations.Out;
+import org.metafacture.framework.helpers.DefaultObjectPipe;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Replays the Solr Input Documents of a file written by {@link SolrJavabinWriter}.
+ *
+ * The records are read into a buffer over a file channel and decoded from javabin in place.
+ * A truncated record at the end of the file (e.g. of an aborted recording) is reported and skipped,
+ * also if the file is compressed and its gzip stream ends early. A record with an invalid length is
+ * reported as corrupt, as the records after it can not be found.
+ */
+@Description("Replays Solr Input Documents from a javabin file written by write-solr-javabin (given by its path).")
+@In(String.class)
+@Out(SolrDocumentReceiver.class)
+@FluxCommand("read-solr-javabin")
+public class SolrJavabinReader extends DefaultObjectPipe<String, ObjectReceiver<SolrInputDocument>> {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int HEADER_SIZE = SolrJavabinWriter.MAGIC.length + 2;
+    private static final int LENGTH_SIZE = 4;
+
+    private final ByteArrayInputStream noMoreInput;
+    private ByteBuffer buffer;
+
+    public SolrJavabinReader() {
+        this.noMoreInput = new ByteArrayInputStream(new byte[0]);
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void process(String path) {
+        try (FileChannel file = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            ReadableByteChannel channel = openRecords(file, path);
+            buffer.clear();
+            buffer.flip();
+
+            long records = 0;
+            while (true) {
+                if (!fill(channel, LENGTH_SIZE)) {
+                    if (buffer.hasRemaining()) {
+                        reportTruncated(records, path);
+                    }
+                    break;
+                }
+                int length = buffer.getInt();
+                if (length <= 0 || length > SolrJavabinWriter.MAX_RECORD_SIZE) {
+                    throw new MetafactureException("Corrupt record " + (records + 1) + " in " + path + ": invalid length "
+                            + length + ".");
+                }
+                if (!fill(channel, length)) {
+                    reportTruncated(records, path);
+                    break;
+                }
+
+                FastInputStream in = new FastInputStream(noMoreInput, buffer.array(), buffer.position(), buffer.position() + length);
+                Object entry = new JavaBinCodec().unmarshal(in);
+                buffer.position(buffer.position() + length);
+                records++;
+
+                getReceiver().process(entry instanceof SolrInputDocument
+                        ? (SolrInputDocument) entry
+                        : SolrSpool.fromMap((Map<String,Object>) entry));
+            }
+        } catch (IOException e) {
+            throw new MetafactureException("Could not read " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void reportTruncated(long records, String path) {
+        System.err.println("Skipped truncated record " + (records + 1) + " at the end of " + path + ".");
+    }
+
+    /** Checks the header and returns a channel for the (decompressed) records. */
+    private ReadableByteChannel openRecords(FileChannel file, String path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && file.read(header) >= 0) {
+            // Read until the header is complete or the file ends
+        }
+        byte[] bytes = header.array();
+        if (header.hasRemaining() || !Arrays.equals(Arrays.copyOf(bytes, SolrJavabinWriter.MAGIC.length), SolrJavabinWriter.MAGIC)) {
+            throw new MetafactureException(path + " is not a javabin file written by write-solr-javabin.");
+        }
+        if (bytes[HEADER_SIZE - 2] != SolrJavabinWriter.VERSION) {
+            throw new MetafactureException("Unsupported version " + bytes[HEADER_SIZE - 2] + " of " + path + ".");
+        }
+
+        boolean isCompressed = (bytes[HEADER_SIZE - 1] & SolrJavabinWriter.FLAG_GZIP) != 0;
+        return isCompressed ? Channels.newChannel(new GZIPInputStream(Channels.newInputStream(file), BUFFER_SIZE)) : file;
+    }
+
+    /**
+     * Makes sure that the buffer holds at least the given number of bytes, growing it if needed.
+     *
+     * @return false if the channel ends before
+     */
+    private boolean fill(ReadableByteChannel channel, int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return true;
+        }
+        if (buffer.capacity() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(bytes, buffer.capacity() * 2));
+            larger.put(buffer);
+            buffer = larger;
+        } else {
+            buffer.compact();
+        }
+        while (buffer.position() < bytes && read(channel) >= 0) {
+            // Read until the buffer holds enough bytes or the channel ends
+        }
+        buffer.flip();
+        return buffer.remaining() >= bytes;
+    }
+
+    /**
+     * Reads from the channel, treating a truncated gzip stream like its end.
+     * The bytes decompressed before the stream broke off are kept in the buffer.
+     */
+    private int read(ReadableByteChannel channel) throws IOException {
+        try {
+            return channel.read(buffer);
+        } catch (EOFException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.FastOutputStream;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.metafacture.contrib.framework.SolrDocumentReceiver;
+import org.metafacture.framework.FluxCommand;
+import org.metafacture.framework.MetafactureException;
+import org.metafacture.framework.annotations.Description;
+import org.metafacture.framework.annotations.In;
+import org.metafacture.framework.annotations.Out;
+import org.metafacture.framework.helpers.DefaultObjectReceiver;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records a stream of Solr Input Documents in a javabin file, which can be replayed with {@link SolrJavabinReader}.
+ *
+ * The file starts with a header (magic bytes, format version and flags). It is followed by one record per
+ * document: its length (4 bytes) and the document in javabin, the binary format of SolrJ.
+ * Deletes are written as maps (like in a {@link SolrSpool}). With compression, everything after the header
+ * is compressed with gzip.
+ */
+@Description("Records Solr Input Documents in a (optionally gzip compressed) javabin file. Options: compress.")
+@In(SolrDocumentReceiver.class)
+@Out(Void.class)
+@FluxCommand("write-solr-javabin")
+public class SolrJavabinWriter extends DefaultObjectReceiver<SolrInputDocument> {
+
+    static final byte[] MAGIC = {'S', 'J', 'B'};
+    static final byte VERSION = 1;
+    static final byte FLAG_GZIP = 1;
+    /** Max size (in bytes) of a record, so that a reader can tell a corrupt length */
+    static final int MAX_RECORD_SIZE = 256 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String path;
+    private boolean compress;
+
+    private DataOutputStream output;
+    private ByteArrayOutputStream record;
+    private FastOutputStream recordStream;
+
+    public SolrJavabinWriter(String path) {
+        this.path = path;
+        this.compress = false;
+    }
+
+    /** Compresses the records with gzip. */
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    @Override
+    public void process(SolrInputDocument document) {
+        try {
+            if (output == null) {
+                open();
+            }
+
+            // A codec must not be reused, but the buffer can be
+            new JavaBinCodec().marshal(document instanceof SolrDelete ? SolrSpool.toMap((SolrDelete) document) : document,
+                    recordStream);
+            if (record.size() > MAX_RECORD_SIZE) {
+                record.reset();
+                throw new MetafactureException("Document " + document.getFieldValue("id") + " exceeds the max record size of "
+                        + MAX_RECORD_SIZE + " bytes.");
+            }
+            output.writeInt(record.size());
+            record.writeTo(output);
+            record.reset();
+        } catch (IOException e) {
+            throw new MetafactureException("Could not write " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void closeStream() {
+        try {
+            if (output == null) {
+                open();
+            }
+            output.close();
+            output = null;
+        } catch (IOException e) {
+            throw new MetafactureException("Could not write " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void open() throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(path),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        OutputStream out = Channels.newOutputStream(channel);
+        out.write(MAGIC);
+        out.write(new byte[] {VERSION, compress ? FLAG_GZIP : 0});
+
+        output = new DataOutputStream(compress
+                ? new GZIPOutputStream(out, BUFFER_SIZE)
+                : new BufferedOutputStream(out, BUFFER_SIZE));
+        record = new ByteArrayOutputStream();
+        recordStream = new FastOutputStream(record);
+    }
+}
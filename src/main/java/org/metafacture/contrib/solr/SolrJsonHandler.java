@@ -0,0 +1,285 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.metafacture.contrib.framework.SolrDocumentReceiver;
+import org.metafacture.framework.FluxCommand;
+import org.metafacture.framework.MetafactureException;
+import org.metafacture.framework.ObjectReceiver;
+import org.metafacture.framework.annotations.Description;
+import org.metafacture.framework.annotations.In;
+import org.metafacture.framework.annotations.Out;
+import org.metafacture.framework.helpers.DefaultObjectPipe;
+import org.noggit.JSONParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Converts JSON Solr Documents for Index Updates to a Metafacture Stream.
+ *
+ * The input is read token by token (with the pull parser of SolrJ), so a file is never held in memory as a whole.
+ * Supported are
+ * <ul>
+ *     <li>an array of documents: <code>[{"id": "1"}, {"id": "2"}]</code>,</li>
+ *     <li>documents one after another, e.g. JSON Lines: <code>{"id": "1"}\n{"id": "2"}</code> and</li>
+ *     <li>objects with commands: <code>{"add": {"doc": {"id": "1"}}, "delete": {"id": "2"}, "commit": {}}</code>.</li>
+ * </ul>
+ * An object is read as commands if its first key is a command (add, delete, commit, optimize or rollback).
+ *
+ * A field value that is an object of modifiers (e.g. <code>{"set": "alice"}</code>) is an atomic update
+ * (see {@link SolrXmlHandler}). Any other object as field value, within an array or not, is a child document.
+ * Deletes are passed on as {@link SolrDelete}s in the order they appear between the documents.
+ */
+@Description("A handler for JSON (and JSON Lines) formatted index updates for Apache Solr.")
+@In(Reader.class)
+@Out(SolrDocumentReceiver.class)
+@FluxCommand("handle-solr-json")
+public class SolrJsonHandler extends DefaultObjectPipe<Reader, ObjectReceiver<SolrInputDocument>> {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String ADD = "add";
+    private static final String DOC = "doc";
+    private static final String DELETE = "delete";
+    private static final String ID = "id";
+    private static final String QUERY = "query";
+    private static final Set<String> COMMANDS = new HashSet<>(Arrays.asList(ADD, DELETE, "commit", "optimize", "rollback"));
+    private static final Set<String> MODIFIERS = new HashSet<>(Arrays.asList("set", "add", "add-distinct", "remove", "removeregex", "inc"));
+
+    private final char[] buffer;
+
+    public SolrJsonHandler() {
+        this.buffer = new char[BUFFER_SIZE];
+    }
+
+    @Override
+    public void process(Reader reader) {
+        JSONParser parser = new JSONParser(reader, buffer);
+        try {
+            for (int event = parser.nextEvent(); event != JSONParser.EOF; event = parser.nextEvent()) {
+                if (event == JSONParser.ARRAY_START) {
+                    for (event = parser.nextEvent(); event != JSONParser.ARRAY_END; event = parser.nextEvent()) {
+                        expect(parser, event, JSONParser.OBJECT_START);
+                        getReceiver().process(readDocument(parser));
+                    }
+                } else {
+                    expect(parser, event, JSONParser.OBJECT_START);
+                    handleObject(parser);
+                }
+            }
+        } catch (IOException | JSONParser.ParseException e) {
+            throw new MetafactureException("Could not parse JSON: " + e.getMessage(), e);
+        }
+    }
+
+    /** Handles a top-level object, either a document or commands. */
+    private void handleObject(JSONParser parser) throws IOException {
+        int event = parser.nextEvent();
+        if (event == JSONParser.OBJECT_END) {
+            return;
+        }
+        String key = parser.getString();
+        if (!COMMANDS.contains(key)) {
+            SolrInputDocument document = new SolrInputDocument();
+            readField(parser, document, key);
+            getReceiver().process(readFields(parser, document));
+            return;
+        }
+
+        while (true) {
+            handleCommand(parser, key);
+            event = parser.nextEvent();
+            if (event == JSONParser.OBJECT_END) {
+                return;
+            }
+            key = parser.getString();
+        }
+    }
+
+    private void handleCommand(JSONParser parser, String command) throws IOException {
+        int event = parser.nextEvent();
+        switch (command) {
+            case ADD:
+                expect(parser, event, JSONParser.OBJECT_START);
+                for (event = parser.nextEvent(); event != JSONParser.OBJECT_END; event = parser.nextEvent()) {
+                    if (DOC.equals(parser.getString())) {
+                        expect(parser, parser.nextEvent(), JSONParser.OBJECT_START);
+                        getReceiver().process(readDocument(parser));
+                    } else {
+                        // Options like overwrite or commitWithin
+                        skipValue(parser, parser.nextEvent());
+                    }
+                }
+                break;
+            case DELETE:
+                if (event == JSONParser.ARRAY_START) {
+                    for (event = parser.nextEvent(); event != JSONParser.ARRAY_END; event = parser.nextEvent()) {
+                        handleDelete(parser, event);
+                    }
+                } else {
+                    handleDelete(parser, event);
+                }
+                break;
+            default:
+                skipValue(parser, event);
+                break;
+        }
+    }
+
+    /** Handles an id or an object with an id or a query. */
+    private void handleDelete(JSONParser parser, int event) throws IOException {
+        if (event != JSONParser.OBJECT_START) {
+            getReceiver().process(SolrDelete.byId(String.valueOf(readValue(parser, event))));
+            return;
+        }
+        for (event = parser.nextEvent(); event != JSONParser.OBJECT_END; event = parser.nextEvent()) {
+            String key = parser.getString();
+            if (ID.equals(key)) {
+                getReceiver().process(SolrDelete.byId(String.valueOf(readValue(parser, parser.nextEvent()))));
+            } else if (QUERY.equals(key)) {
+                getReceiver().process(SolrDelete.byQuery(String.valueOf(readValue(parser, parser.nextEvent()))));
+            } else {
+                // Options like _version_ or _route_
+                skipValue(parser, parser.nextEvent());
+            }
+        }
+    }
+
+    /** Reads a document, whose start has already been read. */
+    private SolrInputDocument readDocument(JSONParser parser) throws IOException {
+        return readFields(parser, new SolrInputDocument());
+    }
+
+    private SolrInputDocument readFields(JSONParser parser, SolrInputDocument document) throws IOException {
+        for (int event = parser.nextEvent(); event != JSONParser.OBJECT_END; event = parser.nextEvent()) {
+            readField(parser, document, parser.getString());
+        }
+        return document;
+    }
+
+    private void readField(JSONParser parser, SolrInputDocument document, String name) throws IOException {
+        int event = parser.nextEvent();
+        switch (event) {
+            case JSONParser.ARRAY_START:
+                for (event = parser.nextEvent(); event != JSONParser.ARRAY_END; event = parser.nextEvent()) {
+                    if (event == JSONParser.OBJECT_START) {
+                        document.addChildDocument(readDocument(parser));
+                    } else {
+                        addValue(document, name, readValue(parser, event));
+                    }
+                }
+                break;
+            case JSONParser.OBJECT_START:
+                readObjectValue(parser, document, name);
+                break;
+            default:
+                addValue(document, name, readValue(parser, event));
+                break;
+        }
+    }
+
+    /** Reads either an atomic update or a child document. */
+    private void readObjectValue(JSONParser parser, SolrInputDocument document, String name) throws IOException {
+        int event = parser.nextEvent();
+        if (event == JSONParser.OBJECT_END) {
+            document.addChildDocument(new SolrInputDocument());
+            return;
+        }
+        String key = parser.getString();
+        if (!MODIFIERS.contains(key)) {
+            SolrInputDocument child = new SolrInputDocument();
+            readField(parser, child, key);
+            document.addChildDocument(readFields(parser, child));
+            return;
+        }
+
+        Map<String,Object> fieldUpdates = new HashMap<>();
+        while (true) {
+            fieldUpdates.put(key, readUpdateValue(parser, parser.nextEvent()));
+            event = parser.nextEvent();
+            if (event == JSONParser.OBJECT_END) {
+                break;
+            }
+            key = parser.getString();
+        }
+        document.addField(name, fieldUpdates);
+    }
+
+    private Object readUpdateValue(JSONParser parser, int event) throws IOException {
+        if (event != JSONParser.ARRAY_START) {
+            return readValue(parser, event);
+        }
+        List<Object> values = new ArrayList<>();
+        for (event = parser.nextEvent(); event != JSONParser.ARRAY_END; event = parser.nextEvent()) {
+            values.add(readValue(parser, event));
+        }
+        return values;
+    }
+
+    private static void addValue(SolrInputDocument document, String name, Object value) {
+        if (value != null) {
+            document.addField(name, value);
+        }
+    }
+
+    /** Reads a string, number, boolean or null. */
+    private static Object readValue(JSONParser parser, int event) throws IOException {
+        switch (event) {
+            case JSONParser.STRING:
+                return parser.getString();
+            case JSONParser.LONG:
+                return parser.getLong();
+            case JSONParser.NUMBER:
+                return parser.getDouble();
+            case JSONParser.BIGNUMBER:
+                return parser.getNumberChars().toString();
+            case JSONParser.BOOLEAN:
+                return parser.getBoolean();
+            case JSONParser.NULL:
+                parser.getNull();
+                return null;
+            default:
+                throw new MetafactureException("Unexpected " + JSONParser.getEventString(event)
+                        + " at position " + parser.getPosition() + ", expected a value.");
+        }
+    }
+
+    private static void skipValue(JSONParser parser, int event) throws IOException {
+        if (event != JSONParser.OBJECT_START && event != JSONParser.ARRAY_START) {
+            readValue(parser, event);
+            return;
+        }
+        int level = parser.getLevel();
+        while (parser.getLevel() >= level) {
+            parser.nextEvent();
+        }
+    }
+
+    private static void expect(JSONParser parser, int event, int expected) {
+        if (event != expected) {
+            throw new MetafactureException("Unexpected " + JSONParser.getEventString(event) + " at position "
+                    + parser.getPosition() + ", expected " + JSONParser.getEventString(expected) + ".");
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Indexing metrics of a {@link SolrWriter} or {@link SolrXmlPassthroughWriter}, fed by their processes.
+ *
+ * All methods may be called from any thread.
+ */
+public class SolrMetrics implements SolrMetricsMBean {
+
+    static final String CSV_HEADER = "timestamp,documents,documentsPerSecond,batches,failures,retries," +
+            "rejectedDocuments,coalescedDocuments,queueDepth,queueDepthBytes,busyThreads,inFlightBytes," +
+            "sendP50Micros,sendP99Micros,sendMaxMicros,serializeP50Micros,serializeP99Micros,serializeMaxMicros";
+
+    private final LongAdder documents = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder rejectedDocuments = new LongAdder();
+    private final LongAdder coalescedDocuments = new LongAdder();
+
+    private final AtomicInteger busyThreads = new AtomicInteger();
+    private final AtomicLong inFlightBytes = new AtomicLong();
+
+    private final LatencyHistogram sendLatency = new LatencyHistogram();
+    private final LatencyHistogram serializeLatency = new LatencyHistogram();
+
+    private volatile IntSupplier queueDepth = () -> 0;
+    private volatile LongSupplier queueDepthBytes = () -> 0;
+
+    void setQueueDepth(IntSupplier queueDepth, LongSupplier queueDepthBytes) {
+        this.queueDepth = queueDepth;
+        this.queueDepthBytes = queueDepthBytes;
+    }
+
+    /**
+     * Registers the metrics as a JMX MBean <code>org.metafacture.contrib.solr:type=...,core=...</code>.
+     *
+     * @return name of the MBean, or null if it could not be registered
+     */
+    ObjectName register(String type, String core, Object writer) {
+        try {
+            ObjectName name = new ObjectName("org.metafacture.contrib.solr:type=" + type + ",core=" +
+                    ObjectName.quote(core) + ",id=" + System.identityHashCode(writer));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            return name;
+        } catch (JMException e) {
+            System.err.println("Could not register metrics MBean: " + e.getMessage());
+            return null;
+        }
+    }
+
+    static void unregister(ObjectName name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            System.err.println("Could not unregister metrics MBean: " + e.getMessage());
+        }
+    }
+
+    void batchStarted(long bytes) {
+        busyThreads.incrementAndGet();
+        inFlightBytes.addAndGet(bytes);
+    }
+
+    void batchFinished(long bytes) {
+        batches.increment();
+        inFlightBytes.addAndGet(-bytes);
+        busyThreads.decrementAndGet();
+    }
+
+    void recordSend(long nanos, boolean isSuccessful) {
+        sendLatency.record(nanos / 1000);
+        if (!isSuccessful) {
+            failures.increment();
+        }
+    }
+
+    void recordDocuments(int documentCount) {
+        documents.add(documentCount);
+    }
+
+    void recordSerialize(long nanos) {
+        serializeLatency.record(nanos / 1000);
+    }
+
+    void recordRetry() {
+        retries.increment();
+    }
+
+    void recordRejected(int documentCount) {
+        rejectedDocuments.add(documentCount);
+    }
+
+    @Override
+    public long getDocuments() {
+        return documents.sum();
+    }
+
+    @Override
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    void recordCoalesced() {
+        coalescedDocuments.increment();
+    }
+
+    @Override
+    public long getRejectedDocuments() {
+        return rejectedDocuments.sum();
+    }
+
+    @Override
+    public long getCoalescedDocuments() {
+        return coalescedDocuments.sum();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    @Override
+    public long getQueueDepthBytes() {
+        return queueDepthBytes.getAsLong();
+    }
+
+    @Override
+    public int getBusyThreads() {
+        return busyThreads.get();
+    }
+
+    @Override
+    public long getInFlightBytes() {
+        return inFlightBytes.get();
+    }
+
+    @Override
+    public long getSendLatencyP50() {
+        return sendLatency.getPercentile(0.5);
+    }
+
+    @Override
+    public long getSendLatencyP99() {
+        return sendLatency.getPercentile(0.99);
+    }
+
+    @Override
+    public long getSendLatencyMax() {
+        return sendLatency.getMax();
+    }
+
+    @Override
+    public long getSerializeLatencyP50() {
+        return serializeLatency.getPercentile(0.5);
+    }
+
+    @Override
+    public long getSerializeLatencyP99() {
+        return serializeLatency.getPercentile(0.99);
+    }
+
+    @Override
+    public long getSerializeLatencyMax() {
+        return serializeLatency.getMax();
+    }
+
+    public LatencyHistogram getSendLatency() {
+        return sendLatency;
+    }
+
+    public LatencyHistogram getSerializeLatency() {
+        return serializeLatency;
+    }
+
+    /** Returns the current values as a CSV line (see {@link #CSV_HEADER}). */
+    String toCsv(long timestamp, double documentsPerSecond) {
+        return timestamp + "," + getDocuments() + "," + String.format(Locale.ROOT, "%.1f", documentsPerSecond) + "," +
+                getBatches() + "," + getFailures() + "," + getRetries() + "," + getRejectedDocuments() + "," + getCoalescedDocuments() + "," +
+                getQueueDepth() + "," + getQueueDepthBytes() + "," + getBusyThreads() + "," + getInFlightBytes() + "," +
+                getSendLatencyP50() + "," + getSendLatencyP99() + "," + getSendLatencyMax() + "," +
+                getSerializeLatencyP50() + "," + getSerializeLatencyP99() + "," + getSerializeLatencyMax();
+    }
+
+    @Override
+    public String toString() {
+        return "SolrMetrics{" +
+                "documents=" + getDocuments() +
+                ", batches=" + getBatches() +
+                ", failures=" + getFailures() +
+                ", retries=" + getRetries() +
+                ", rejectedDocuments=" + getRejectedDocuments() +
+                ", coalescedDocuments=" + getCoalescedDocuments() +
+                ", queueDepth=" + getQueueDepth() +
+                ", busyThreads=" + getBusyThreads() +
+                ", inFlightBytes=" + getInFlightBytes() +
+                ", sendLatency(p50/p99/max us)=" + getSendLatencyP50() + "/" + getSendLatencyP99() + "/" + getSendLatencyMax() +
+                ", serializeLatency(p50/p99/max us)=" + getSerializeLatencyP50() + "/" + getSerializeLatencyP99() + "/" + getSerializeLatencyMax() +
+                '}';
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+/**
+ * JMX view of the indexing metrics of a {@link SolrWriter}. Latencies are given in microseconds.
+ */
+public interface SolrMetricsMBean {
+
+    long getDocuments();
+
+    long getBatches();
+
+    long getFailures();
+
+    long getRetries();
+
+    long getRejectedDocuments();
+
+    long getCoalescedDocuments();
+
+    int getQueueDepth();
+
+    long getQueueDepthBytes();
+
+    int getBusyThreads();
+
+    /** Estimated size of the batches being sent, 0 unless the metrics are reported or the size is needed otherwise. */
+    long getInFlightBytes();
+
+    long getSendLatencyP50();
+
+    long getSendLatencyP99();
+
+    long getSendLatencyMax();
+
+    /** Measured with serializeOnce only, otherwise the client serializes each batch while sending it. */
+    long getSerializeLatencyP50();
+
+    long getSerializeLatencyP99();
+
+    long getSerializeLatencyMax();
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.metafacture.framework.MetafactureException;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the metrics of a {@link SolrWriter} or {@link SolrXmlPassthroughWriter} periodically, either as a line on standard error
+ * or as a row of a CSV file. A final report is written when the reporter is closed.
+ */
+public class SolrMetricsReporter implements AutoCloseable {
+
+    private final SolrMetrics metrics;
+    private final PrintWriter csvWriter;
+    private final ScheduledExecutorService scheduler;
+
+    private long lastNanos;
+    private long lastDocuments;
+
+    /**
+     * @param metrics metrics to report
+     * @param intervalMs time (in ms) between two reports
+     * @param csvFile path of the CSV file (appended to), or null for standard error
+     */
+    public SolrMetricsReporter(SolrMetrics metrics, int intervalMs, String csvFile) {
+        this.metrics = metrics;
+        this.csvWriter = csvFile != null ? openCsv(csvFile) : null;
+        this.lastNanos = System.nanoTime();
+        this.lastDocuments = metrics.getDocuments();
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "solr-metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleAtFixedRate(this::report, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void report() {
+        long nanos = System.nanoTime();
+        long documents = metrics.getDocuments();
+        double seconds = (nanos - lastNanos) / 1e9;
+        double documentsPerSecond = seconds > 0 ? (documents - lastDocuments) / seconds : 0;
+        lastNanos = nanos;
+        lastDocuments = documents;
+
+        if (csvWriter != null) {
+            csvWriter.println(metrics.toCsv(System.currentTimeMillis(), documentsPerSecond));
+            csvWriter.flush();
+        } else {
+            System.err.println(String.format(Locale.ROOT, "%.1f docs/s, ", documentsPerSecond) + metrics);
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        report();
+        if (csvWriter != null) {
+            csvWriter.close();
+        }
+    }
+
+    private static PrintWriter openCsv(String csvFile) {
+        Path path = Paths.get(csvFile);
+        try {
+            boolean isNew = !Files.exists(path) || Files.size(path) == 0;
+            PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+            if (isNew) {
+                writer.println(SolrMetrics.CSV_HEADER);
+            }
+            return writer;
+        } catch (IOException e) {
+            throw new MetafactureException(e);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrException;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Sends the requests of a process of to-solr or to-solr-xml, classifies their failures and retries them.
+ *
+ * Failed requests are retried with an exponential backoff, as long as the shared retry budget allows.
+ * Requests that are rejected by the server (client errors) are not retried, as they can not succeed
+ * without changes. Each process has its own sender, which keeps the error of its last request.
+ */
+public class SolrRequestSender {
+
+    /** A request to Solr. */
+    @FunctionalInterface
+    public interface Request {
+        UpdateResponse process() throws IOException, SolrServerException;
+    }
+
+    private int maxRetries;
+    /** Base delay (in ms) before a retry. The delay doubles with every further retry. */
+    private int waitMs;
+    /** Max delay (in ms) before a retry. */
+    private int maxWaitMs;
+    /** Budget for retries, shared by all processes (optional). */
+    private RetryBudget retryBudget;
+    /** Metrics of the writer (optional). */
+    private SolrMetrics metrics;
+
+    /** Error message of the last unsuccessful request. */
+    private String lastError;
+    /** Flag that indicates whether the last request has been rejected by the server (client error). */
+    private boolean isRejected;
+
+    public SolrRequestSender() {
+        this.maxRetries = 0;
+        this.waitMs = 10_000;
+        this.maxWaitMs = 300_000;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public void setWaitMs(int waitMs) {
+        this.waitMs = waitMs;
+    }
+
+    public void setMaxWaitMs(int maxWaitMs) {
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    public void setRetryBudget(RetryBudget retryBudget) {
+        this.retryBudget = retryBudget;
+    }
+
+    public void setMetrics(SolrMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public boolean isRejected() {
+        return isRejected;
+    }
+
+    /**
+     * Processes the request once and reports a failure on stderr.
+     *
+     * @return whether the request has succeeded
+     */
+    public boolean send(Request request) {
+        isRejected = false;
+        try {
+            UpdateResponse response = request.process();
+            if (response.getStatus() != 0) {
+                lastError = "Response status " + response.getStatus();
+                return false;
+            }
+        } catch (IOException e) {
+            lastError = "Communication error: " + e.getMessage();
+            System.err.println("Could not send batch, due to communication error: " + e.getMessage());
+            return false;
+        } catch (SolrServerException e) {
+            lastError = "Server error: " + e.getMessage();
+            System.err.println("Could not send batch, due to server error: " + e.getMessage());
+            return false;
+        } catch (SolrException e) {
+            lastError = "Server error (" + e.code() + "): " + e.getMessage();
+            isRejected = isClientError(e.code());
+            System.err.println("Could not send batch, due to server error: " + e.getMessage());
+            return false;
+        } catch (Exception e) {
+            lastError = "Unknown error: " + e.getMessage();
+            System.err.println("Could not send batch, due to unknown error: " + e.getMessage());
+            return false;
+        }
+        if (retryBudget != null) {
+            retryBudget.onSuccess();
+        }
+        return true;
+    }
+
+    /**
+     * Retries a failed request, until it succeeds or is rejected, or the retries or the budget are exhausted.
+     *
+     * @param attempt sends the request (e.g. with {@link #send(Request)}) and returns whether it has succeeded
+     * @return whether a retry has succeeded
+     */
+    public boolean retry(BooleanSupplier attempt) {
+        for (int i = 0; i < maxRetries; i++) {
+            if (retryBudget != null && !retryBudget.tryAcquire()) {
+                System.err.println("Could not retry batch, due to exhausted retry budget.");
+                return false;
+            }
+
+            if (metrics != null) {
+                metrics.recordRetry();
+            }
+
+            try {
+                Thread.sleep(backoffMs(i));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+
+            if (attempt.getAsBoolean()) {
+                return true;
+            } else if (isRejected) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the delay before a retry: An exponential backoff, capped by maxWaitMs,
+     * of which the second half is random, so that threads do not retry in lockstep.
+     */
+    long backoffMs(int attempt) {
+        long delay = Math.min(maxWaitMs, (long) waitMs << Math.min(attempt, 30));
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+
+    /** Returns whether the request can not succeed without changes (HTTP 4xx, except timeouts and rate limits). */
+    static boolean isClientError(int code) {
+        return code >= 400 && code < 500 && code != 408 && code != 429;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.metafacture.framework.MetafactureException;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The field types of a Solr schema (<code>schema.xml</code> or <code>managed-schema</code>), to convert
+ * string values to the Java types of their fields before they are sent.
+ *
+ * Numeric fields (point and trie) get Integer, Long, Float or Double values, date fields get Dates and
+ * boolean fields get Booleans. Values of any other field, and of fields that are not in the schema, stay strings.
+ * Date math (e.g. <code>NOW/DAY</code>) is left to the server. A schema may be shared by several threads.
+ */
+public class SolrSchema {
+
+    /** Java type of the values of a field. */
+    enum Type { STRING, INTEGER, LONG, FLOAT, DOUBLE, DATE, BOOLEAN }
+
+    private static final Map<String,Type> TYPES_BY_CLASS = new HashMap<>();
+    /** Older schema.xml files may spell the element in lower case, which Solr still accepts */
+    private static final String[] FIELD_TYPE_TAGS = {"fieldType", "fieldtype"};
+
+    static {
+        for (String prefix : new String[] {"", "Trie"}) {
+            TYPES_BY_CLASS.put(prefix + "IntField", Type.INTEGER);
+            TYPES_BY_CLASS.put(prefix + "LongField", Type.LONG);
+            TYPES_BY_CLASS.put(prefix + "FloatField", Type.FLOAT);
+            TYPES_BY_CLASS.put(prefix + "DoubleField", Type.DOUBLE);
+        }
+        TYPES_BY_CLASS.put("IntPointField", Type.INTEGER);
+        TYPES_BY_CLASS.put("LongPointField", Type.LONG);
+        TYPES_BY_CLASS.put("FloatPointField", Type.FLOAT);
+        TYPES_BY_CLASS.put("DoublePointField", Type.DOUBLE);
+        TYPES_BY_CLASS.put("DatePointField", Type.DATE);
+        TYPES_BY_CLASS.put("TrieDateField", Type.DATE);
+        TYPES_BY_CLASS.put("BoolField", Type.BOOLEAN);
+    }
+
+    private final Map<String,Type> fields;
+    /** Patterns of the dynamic fields, the longest first (like Solr matches them) */
+    private final List<String> dynamicFields;
+    private final Map<String,Type> dynamicFieldTypes;
+    private final Map<String,Type> resolvedFields;
+
+    SolrSchema(Map<String,Type> fields, Map<String,Type> dynamicFieldTypes) {
+        this.fields = fields;
+        this.dynamicFieldTypes = dynamicFieldTypes;
+        this.dynamicFields = new ArrayList<>(dynamicFieldTypes.keySet());
+        this.dynamicFields.sort((a, b) -> b.length() - a.length());
+        this.resolvedFields = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Loads the field types of a schema file.
+     *
+     * @param path path of <code>schema.xml</code> or <code>managed-schema</code>
+     */
+    public static SolrSchema load(String path) {
+        org.w3c.dom.Document schema;
+        try {
+            schema = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new File(path));
+        } catch (IOException | SAXException | ParserConfigurationException e) {
+            throw new MetafactureException("Could not load schema " + path + ": " + e.getMessage(), e);
+        }
+
+        Map<String,Type> fieldTypes = new HashMap<>();
+        for (String tagName : FIELD_TYPE_TAGS) {
+            NodeList fieldTypeElements = schema.getElementsByTagName(tagName);
+            for (int i = 0; i < fieldTypeElements.getLength(); i++) {
+                Element fieldType = (Element) fieldTypeElements.item(i);
+                String className = fieldType.getAttribute("class");
+                fieldTypes.put(fieldType.getAttribute("name"),
+                        TYPES_BY_CLASS.getOrDefault(className.substring(className.lastIndexOf('.') + 1), Type.STRING));
+            }
+        }
+        if (fieldTypes.values().stream().allMatch(type -> type == Type.STRING)) {
+            System.err.println("Schema " + path + " has no numeric, date or boolean field types, all values stay strings.");
+        }
+
+        return new SolrSchema(readFields(schema, "field", fieldTypes), readFields(schema, "dynamicField", fieldTypes));
+    }
+
+    private static Map<String,Type> readFields(org.w3c.dom.Document schema, String tagName, Map<String,Type> fieldTypes) {
+        Map<String,Type> fields = new HashMap<>();
+        NodeList elements = schema.getElementsByTagName(tagName);
+        for (int i = 0; i < elements.getLength(); i++) {
+            Element field = (Element) elements.item(i);
+            fields.put(field.getAttribute("name"), fieldTypes.getOrDefault(field.getAttribute("type"), Type.STRING));
+        }
+        return fields;
+    }
+
+    /**
+     * Converts a value to the type of its field.
+     *
+     * @throws IllegalArgumentException if the value is not valid for the field type
+     */
+    public Object convert(String field, String value) {
+        Type type = typeOf(field);
+        if (type == Type.STRING) {
+            return value;
+        }
+
+        String trimmed = value.trim();
+        try {
+            switch (type) {
+                case INTEGER:
+                    return Integer.valueOf(trimmed);
+                case LONG:
+                    return Long.valueOf(trimmed);
+                case FLOAT:
+                    return Float.valueOf(trimmed);
+                case DOUBLE:
+                    return Double.valueOf(trimmed);
+                case DATE:
+                    return toDate(trimmed);
+                case BOOLEAN:
+                    return toBoolean(trimmed);
+                default:
+                    return value;
+            }
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new IllegalArgumentException("'" + value + "' is no valid " + type.name().toLowerCase(Locale.ROOT)
+                    + " for field '" + field + "'");
+        }
+    }
+
+    Type typeOf(String field) {
+        Type type = fields.get(field);
+        if (type != null) {
+            return type;
+        }
+        return resolvedFields.computeIfAbsent(field, this::matchDynamicField);
+    }
+
+    private Type matchDynamicField(String field) {
+        for (String pattern : dynamicFields) {
+            boolean matches = pattern.startsWith("*")
+                    ? field.endsWith(pattern.substring(1))
+                    : pattern.endsWith("*") && field.startsWith(pattern.substring(0, pattern.length() - 1));
+            if (matches) {
+                return dynamicFieldTypes.get(pattern);
+            }
+        }
+        return Type.STRING;
+    }
+
+    /** Returns a Date for an ISO-8601 instant, or the string for date math. */
+    private static Object toDate(String value) {
+        if (value.startsWith("NOW")) {
+            return value;
+        }
+        int end = value.indexOf('Z');
+        if (end > 0 && end < value.length() - 1) {
+            // e.g. 2018-01-01T00:00:00Z/DAY, but the date itself must be valid
+            Instant.parse(value.substring(0, end + 1));
+            return value;
+        }
+        return Date.from(Instant.parse(value));
+    }
+
+    /** Accepts the values Solr accepts: everything starting with t, T or 1 is true. */
+    private static Boolean toBoolean(String value) {
+        if (value.isEmpty()) {
+            throw new IllegalArgumentException();
+        }
+        char c = value.charAt(0);
+        return c == 't' || c == 'T' || c == '1';
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.metafacture.framework.MetafactureException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A write-ahead spool for batches of Solr Input Documents.
+ *
+ * Every batch is written to its own segment file (javabin, deletes as maps) before it is sent and the segment
+ * is deleted once the batch has been handled. Segments that are left over from a previous run
+ * (e.g. after a crash) are picked up for recovery when the spool is opened.
+ * The spool may be shared by several threads.
+ */
+public class SolrSpool {
+
+    private static final String SEGMENT_SUFFIX = ".batch";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String DELETE_BY_ID = "deleteById";
+    private static final String DELETE_BY_QUERY = "deleteByQuery";
+
+    private final Path directory;
+    private final AtomicLong sequence;
+    private final Deque<Path> recoveredSegments;
+
+    public SolrSpool(String directory) {
+        this.directory = Paths.get(directory);
+        this.recoveredSegments = new ArrayDeque<>();
+
+        long maxSequence = 0;
+        try {
+            Files.createDirectories(this.directory);
+
+            List<Path> segments = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory)) {
+                for (Path path : stream) {
+                    String fileName = path.getFileName().toString();
+                    if (fileName.endsWith(SEGMENT_SUFFIX)) {
+                        segments.add(path);
+                        maxSequence = Math.max(maxSequence, sequenceOf(fileName));
+                    } else if (fileName.endsWith(TEMP_SUFFIX)) {
+                        // Incomplete segment, the batch has never been sent
+                        Files.delete(path);
+                    }
+                }
+            }
+            segments.sort(null);
+            recoveredSegments.addAll(segments);
+        } catch (IOException e) {
+            throw new MetafactureException(e);
+        }
+        this.sequence = new AtomicLong(maxSequence);
+    }
+
+    /** Returns the next segment left over from a previous run, or null if there is none. */
+    public synchronized Path pollRecovered() {
+        return recoveredSegments.pollFirst();
+    }
+
+    /** Returns the number of segments left over from a previous run, which have not been polled yet. */
+    public synchronized int getRecoveredCount() {
+        return recoveredSegments.size();
+    }
+
+    /**
+     * Writes the documents to a new segment and forces it to the storage device.
+     *
+     * @return path of the segment
+     */
+    public Path write(List<SolrInputDocument> documents) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        List<Object> entries = new ArrayList<>(documents.size());
+        for (SolrInputDocument document : documents) {
+            entries.add(document instanceof SolrDelete ? toMap((SolrDelete) document) : document);
+        }
+        new JavaBinCodec().marshal(entries, bytes);
+
+        String name = String.format("%020d", sequence.incrementAndGet());
+        Path temp = directory.resolve(name + TEMP_SUFFIX);
+        Path segment = directory.resolve(name + SEGMENT_SUFFIX);
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, segment, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        return segment;
+    }
+
+    /** Forces the entries of the directory (i.e. the name of a new segment) to the storage device. */
+    private void syncDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // Directories can not be opened on every platform (e.g. Windows), where renames are durable anyway
+        }
+    }
+
+    /** Reads the documents of a segment. */
+    @SuppressWarnings("unchecked")
+    public List<SolrInputDocument> read(Path segment) throws IOException {
+        List<Object> entries;
+        try (InputStream in = Files.newInputStream(segment)) {
+            entries = (List<Object>) new JavaBinCodec().unmarshal(in);
+        }
+        List<SolrInputDocument> documents = new ArrayList<>(entries.size());
+        for (Object entry : entries) {
+            documents.add(entry instanceof SolrInputDocument ? (SolrInputDocument) entry : fromMap((Map<String,Object>) entry));
+        }
+        return documents;
+    }
+
+    /** Deletes a segment, after its documents have been handled. */
+    public void acknowledge(Path segment) throws IOException {
+        Files.deleteIfExists(segment);
+    }
+
+    static Map<String,Object> toMap(SolrDelete delete) {
+        Map<String,Object> map = new HashMap<>();
+        map.put(delete.isById() ? DELETE_BY_ID : DELETE_BY_QUERY, delete.isById() ? delete.getId() : delete.getQuery());
+        return map;
+    }
+
+    static SolrDelete fromMap(Map<String,Object> map) {
+        Object id = map.get(DELETE_BY_ID);
+        return id != null ? SolrDelete.byId(id.toString()) : SolrDelete.byQuery(String.valueOf(map.get(DELETE_BY_QUERY)));
+    }
+
+    private static long sequenceOf(String fileName) {
+        try {
+            return Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
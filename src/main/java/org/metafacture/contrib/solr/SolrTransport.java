@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+
+import java.io.Closeable;
+
+/**
+ * A way to reach Solr, e.g. HTTP/1.1, HTTP/2 or an embedded Solr in the same JVM.
+ *
+ * Transports are looked up by name via {@link java.util.ServiceLoader}, so further transports can be
+ * added by a JAR with a <code>META-INF/services/org.metafacture.contrib.solr.SolrTransport</code> file.
+ * A transport instance creates one client and owns the resources (e.g. the connection pool) of that client,
+ * which are released when the transport is closed.
+ */
+public interface SolrTransport extends Closeable {
+
+    /** Returns the name, that selects this transport (e.g. in Flux: transport="http2"). */
+    String getName();
+
+    /**
+     * Returns whether the client accepts pre-serialized javabin requests
+     * (see {@link SerializedUpdateRequest}).
+     */
+    default boolean supportsSerializedRequests() {
+        return true;
+    }
+
+    /**
+     * Creates the client.
+     *
+     * @param url Solr Server URL, or a transport specific location (e.g. ZooKeeper hosts or a Solr home directory)
+     * @param core default core
+     */
+    SolrClient createClient(String url, String core, SolrTransportOptions options);
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+/**
+ * Connection settings for a {@link SolrTransport}. A transport ignores settings that do not apply to it.
+ */
+public class SolrTransportOptions {
+
+    private int poolSize;
+    private int connectTimeoutMs;
+    private int socketTimeoutMs;
+    private int keepAliveMs;
+    private boolean compression;
+
+    public SolrTransportOptions() {
+        this.poolSize = 10;
+        this.connectTimeoutMs = 60_000;
+        this.socketTimeoutMs = 600_000;
+        this.keepAliveMs = -1;
+        this.compression = true;
+    }
+
+    /** Returns the max number of connections (per host). */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public void setConnectTimeoutMs(int connectTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+    }
+
+    /** Returns the max time (in ms) to wait for data of a response. */
+    public int getSocketTimeoutMs() {
+        return socketTimeoutMs;
+    }
+
+    public void setSocketTimeoutMs(int socketTimeoutMs) {
+        this.socketTimeoutMs = socketTimeoutMs;
+    }
+
+    /** Returns the max time (in ms) a connection is kept open for reuse, values &lt;= 0 mean unlimited. */
+    public int getKeepAliveMs() {
+        return keepAliveMs;
+    }
+
+    public void setKeepAliveMs(int keepAliveMs) {
+        this.keepAliveMs = keepAliveMs;
+    }
+
+    /** Returns whether compressed responses are accepted. */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.metafacture.framework.MetafactureException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Looks up {@link SolrTransport}s by name.
+ */
+public final class SolrTransports {
+
+    private SolrTransports() {
+        // No instances allowed
+    }
+
+    /** Returns a new instance of the transport with the given name. */
+    public static SolrTransport create(String name) {
+        List<String> names = new ArrayList<>();
+        Iterator<SolrTransport> transports = ServiceLoader.load(SolrTransport.class, SolrTransports.class.getClassLoader()).iterator();
+        while (transports.hasNext()) {
+            SolrTransport transport;
+            try {
+                transport = transports.next();
+            } catch (ServiceConfigurationError e) {
+                // A transport, whose dependencies are missing
+                continue;
+            }
+            if (transport.getName().equals(name)) {
+                return transport;
+            }
+            names.add(transport.getName());
+        }
+        throw new MetafactureException("Unknown transport '" + name + "'. Use: " + String.join(", ", names) + ".");
+    }
+}
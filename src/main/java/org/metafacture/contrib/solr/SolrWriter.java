@@ -16,45 +16,127 @@
 package org.metafacture.contrib.solr;
 
 import org.apache.solr.client.solrj.SolrClient;
-import org.apache.solr.client.solrj.impl.BinaryRequestWriter;
-import org.apache.solr.client.solrj.impl.HttpSolrClient;
 import org.apache.solr.common.SolrInputDocument;
 import org.jcsp.lang.Barrier;
 import org.jcsp.lang.Channel;
+import org.jcsp.lang.ChannelInput;
+import org.jcsp.lang.ChannelOutput;
 import org.jcsp.lang.One2AnyChannel;
+import org.jcsp.lang.One2OneChannel;
 import org.jcsp.lang.Parallel;
 import org.metafacture.contrib.framework.SolrDocumentReceiver;
 import org.metafacture.contrib.framework.helpers.DefaultSolrDocumentReceiver;
 import org.metafacture.framework.FluxCommand;
 import org.metafacture.framework.MetafactureException;
+import org.metafacture.framework.ObjectReceiver;
 import org.metafacture.framework.annotations.Description;
 import org.metafacture.framework.annotations.In;
 import org.metafacture.framework.annotations.Out;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.management.ObjectName;
+
 @Description("Adds documents to a Solr core.")
 @In(SolrDocumentReceiver.class)
 @Out(Void.class)
 @FluxCommand("to-solr")
 public class SolrWriter extends DefaultSolrDocumentReceiver {
 
-    /** Solr Server URL */
+    private static final String ID_FIELD = "id";
+
+    /** Solr Server URL (or ZooKeeper hosts / Solr node URLs in cloud mode) */
     private String url;
     private String core;
+    /** Flag for SolrCloud mode, which sends documents directly to their shard leaders (same as transport="cloud") */
+    private boolean cloud;
 
+    /** Name of the transport, that creates the client (see {@link SolrTransport}) */
+    private String transportName;
+    private SolrTransportOptions transportOptions;
+    /** Max number of connections, defaults to the number of threads */
+    private int poolSize;
+    /** Transport of the client, if the client has been created by the writer (and is closed by it) */
+    private SolrTransport transport;
     private SolrClient client;
     /** Number of document per commit */
     private int batchSize;
+    /** Max estimated size (in bytes) of a batch */
+    private int maxBatchBytes;
     /** Time range in which a commit will happen. */
     private int commitWithinMs;
 
     private int maxRetries;
     private int waitMs;
+    private int maxWaitMs;
+    /** Max number of retries across all threads without successful commits in between */
+    private int retryBudget;
+
+    /** Max time (in ms) a non-empty batch waits for further documents */
+    private int lingerMs;
+
+    /** Receiver for documents that could not be added */
+    private ObjectReceiver<RejectedDocument> deadLetterReceiver;
+
+    /** Directory for the write-ahead spool */
+    private String spoolDirectory;
+
+    /** Flag for serializing each batch only once into a reusable buffer */
+    private boolean serializeOnce;
+
+    /** Flag for reporting the number of documents and bytes per batch. */
+    private boolean verbose;
+
+    private SolrMetrics metrics;
+    /** Flag for registering the metrics as a JMX MBean */
+    private boolean jmx;
+    private ObjectName mbeanName;
+    /** Time (in ms) between two reports of the metrics */
+    private int metricsIntervalMs;
+    /** CSV file for the reports of the metrics (instead of standard error) */
+    private String metricsFile;
+    private SolrMetricsReporter metricsReporter;
 
     /** Number of threads to run in parallel */
     private int threads;
+    /** Flag for adapting the number of active threads to the observed batch latency and errors */
+    private boolean adaptive;
+    private int minThreads;
+    private int maxThreads;
+    private AdaptiveConcurrencyLimiter limiter;
+    /** Number of commit processes */
+    private int workers;
     private Barrier barrier;
     private One2AnyChannel<SolrInputDocument> documentChannel;
 
+    /**
+     * Field, whose value decides which thread handles a document. Keeps updates of a document in order,
+     * and lets deletes by id (if the field is "id") go to the thread of their document instead of all threads.
+     */
+    private String partitionField;
+    /** Channels to the threads in partitioned mode */
+    private List<One2OneChannel<SolrInputDocument>> partitionChannels;
+    /** Counter for distributing documents without a partition field value */
+    private int unkeyedDocuments;
+
+    /** Max number of documents waiting for a free thread */
+    private int queueSize;
+    /** Max estimated size (in bytes) of all documents waiting for a free thread */
+    private int queueBytes;
+    private List<SolrDocumentBuffer> queues;
+
+    /** Max number of documents in the coalescing window */
+    private int coalesceSize;
+    /** Max time (in ms) a document stays in the coalescing window */
+    private int coalesceMs;
+    private SolrDocumentCoalescer coalescer;
+    /** Channel to the process of the coalescing window, if documents expire after coalesceMs */
+    private One2OneChannel<SolrInputDocument> coalescerChannel;
+    private Consumer<SolrInputDocument> channelWriter;
+
     private Thread runner;
 
     /** Flag for a hook that acts before the first processing occurs. */
@@ -63,22 +145,77 @@ public class SolrWriter extends DefaultSolrDocumentReceiver {
     public SolrWriter(String url) {
         this.url = url;
         this.core = "default";
+        this.cloud = false;
+        this.transportName = HttpTransport.NAME;
+        this.transportOptions = new SolrTransportOptions();
+        this.poolSize = -1;
         this.threads = 1;
+        this.adaptive = false;
+        this.minThreads = 1;
+        this.maxThreads = -1;
         this.batchSize = 1;
+        this.maxBatchBytes = -1;
         this.commitWithinMs = -1;
         this.onStartup = true;
         this.maxRetries = 0;
         this.waitMs = 10_000;
+        this.maxWaitMs = 300_000;
+        this.retryBudget = -1;
+        this.lingerMs = -1;
+        this.queueSize = 0;
+        this.queueBytes = 0;
+        this.queues = new ArrayList<>();
+        this.serializeOnce = false;
+        this.verbose = false;
+        this.metrics = new SolrMetrics();
+        this.jmx = false;
+        this.metricsIntervalMs = -1;
+        this.coalesceSize = 0;
+        this.coalesceMs = -1;
+        this.channelWriter = this::write;
     }
 
     public void setCore(String core) {
         this.core = core;
     }
 
+    /** Uses the given client instead of creating one from the URL. The client stays open, it is closed by the caller. */
+    public void setClient(SolrClient client) {
+        this.client = client;
+    }
+
+    public void setCloud(boolean cloud) {
+        this.cloud = cloud;
+    }
+
+    public void setTransport(String transport) {
+        this.transportName = transport;
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public void setConnectTimeoutMs(int connectTimeoutMs) {
+        transportOptions.setConnectTimeoutMs(connectTimeoutMs);
+    }
+
+    public void setSocketTimeoutMs(int socketTimeoutMs) {
+        transportOptions.setSocketTimeoutMs(socketTimeoutMs);
+    }
+
+    public void setKeepAliveMs(int keepAliveMs) {
+        transportOptions.setKeepAliveMs(keepAliveMs);
+    }
+
     public void setBatchSize(int batchSize) {
         this.batchSize = batchSize;
     }
 
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
     public void setCommitWithinMs(int commitWithinMs) {
         this.commitWithinMs = commitWithinMs;
     }
@@ -87,6 +224,23 @@ public class SolrWriter extends DefaultSolrDocumentReceiver {
         this.threads = threads;
     }
 
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    public void setMinThreads(int minThreads) {
+        this.minThreads = minThreads;
+    }
+
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    /** Returns the number of threads that may send batches concurrently. */
+    public int getActiveThreads() {
+        return limiter == null ? threads : limiter.getLimit();
+    }
+
     public void setMaxRetries(int maxRetries) {
         this.maxRetries = maxRetries;
     }
@@ -95,29 +249,175 @@ public class SolrWriter extends DefaultSolrDocumentReceiver {
         this.waitMs = waitMs;
     }
 
+    public void setMaxWaitMs(int maxWaitMs) {
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    public void setRetryBudget(int retryBudget) {
+        this.retryBudget = retryBudget;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public void setQueueBytes(int queueBytes) {
+        this.queueBytes = queueBytes;
+    }
+
+    /** Returns the number of documents waiting for a free thread. */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (SolrDocumentBuffer queue : queues) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    /** Returns the estimated size (in bytes) of all documents waiting for a free thread (0 without {@code queueBytes}). */
+    public long getQueueDepthBytes() {
+        long bytes = 0;
+        for (SolrDocumentBuffer queue : queues) {
+            bytes += queue.bytes();
+        }
+        return bytes;
+    }
+
+    public void setPartitionField(String partitionField) {
+        this.partitionField = partitionField;
+    }
+
+    public void setLingerMs(int lingerMs) {
+        this.lingerMs = lingerMs;
+    }
+
+    /**
+     * Writes documents that could not be added to a Solr XML file.
+     *
+     * @param path path of the file
+     */
+    public void setDeadLetterFile(String path) {
+        this.deadLetterReceiver = new RejectedDocumentWriter(path);
+    }
+
+    public void setDeadLetterReceiver(ObjectReceiver<RejectedDocument> deadLetterReceiver) {
+        this.deadLetterReceiver = deadLetterReceiver;
+    }
+
+    public void setSpoolDirectory(String spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+    }
+
+    public void setSerializeOnce(boolean serializeOnce) {
+        this.serializeOnce = serializeOnce;
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    public void setCoalesceSize(int coalesceSize) {
+        this.coalesceSize = coalesceSize;
+    }
+
+    public void setCoalesceMs(int coalesceMs) {
+        this.coalesceMs = coalesceMs;
+    }
+
+    public void setJmx(boolean jmx) {
+        this.jmx = jmx;
+    }
+
+    public void setMetricsIntervalMs(int metricsIntervalMs) {
+        this.metricsIntervalMs = metricsIntervalMs;
+    }
+
+    public void setMetricsFile(String metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    public SolrMetrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     public void process(SolrInputDocument document) {
         if (onStartup) {
-            HttpSolrClient httpClient = new HttpSolrClient.Builder()
-                    .withBaseSolrUrl(url)
-                    .allowCompression(true)
-                    .build();
-            httpClient.setRequestWriter(new BinaryRequestWriter());
-            client = httpClient;
+            workers = threads;
+            if (adaptive) {
+                workers = Math.max(threads, maxThreads);
+                limiter = new AdaptiveConcurrencyLimiter(minThreads, workers, threads);
+            } else {
+                limiter = null;
+            }
+
+            boolean supportsSerializedRequests = true;
+            if (client == null) {
+                transport = SolrTransports.create(cloud ? CloudTransport.NAME : transportName);
+                transportOptions.setPoolSize(poolSize > 0 ? poolSize : workers);
+                client = transport.createClient(url, core, transportOptions);
+                supportsSerializedRequests = transport.supportsSerializedRequests();
+            }
 
             int noPoisonImmunity = 0;
-            documentChannel = Channel.one2any(noPoisonImmunity);
+            boolean isQueued = queueSize > 0 || queueBytes > 0;
+            queues = new ArrayList<>();
+            if (partitionField == null) {
+                partitionChannels = null;
+                documentChannel = isQueued
+                        ? Channel.one2any(createQueue(), noPoisonImmunity)
+                        : Channel.one2any(noPoisonImmunity);
+            } else {
+                documentChannel = null;
+                partitionChannels = new ArrayList<>(workers);
+                for (int i = 0; i < workers; i++) {
+                    partitionChannels.add(isQueued
+                            ? Channel.one2one(createQueue(), noPoisonImmunity)
+                            : Channel.one2one(noPoisonImmunity));
+                }
+            }
+
+            RetryBudget sharedRetryBudget = retryBudget >= 0 ? new RetryBudget(retryBudget) : null;
+
+            SolrSpool spool = spoolDirectory != null ? new SolrSpool(spoolDirectory) : null;
+            if (spool != null && spool.getRecoveredCount() > 0) {
+                System.err.println("Recovering " + spool.getRecoveredCount() + " spooled batches.");
+            }
+
+            metrics.setQueueDepth(this::getQueueDepth, this::getQueueDepthBytes);
+            if (jmx) {
+                mbeanName = metrics.register("SolrWriter", core, this);
+            }
+            if (metricsIntervalMs > 0) {
+                metricsReporter = new SolrMetricsReporter(metrics, metricsIntervalMs, metricsFile);
+            }
 
-            barrier = new Barrier(threads);
+            coalescer = coalesceSize > 0 || coalesceMs > 0
+                    ? new SolrDocumentCoalescer(ID_FIELD, coalesceSize, coalesceMs)
+                    : null;
+
+            barrier = new Barrier(workers);
 
             Parallel parallel = new Parallel();
-            for (int i = 0; i < threads; i++) {
-                SolrCommitProcess process = new SolrCommitProcess(documentChannel.in(), barrier, client, core);
-                process.setBatchSize(batchSize);
-                process.setCommitWithinMs(commitWithinMs);
-                process.setMaxRetries(maxRetries);
-                process.setWaitMs(waitMs);
+            if (coalescer != null && coalesceMs > 0) {
+                // Documents have to leave the window on time, even if no further documents arrive
+                coalescerChannel = Channel.one2one(noPoisonImmunity);
+                SolrCoalescerProcess process = new SolrCoalescerProcess(coalescerChannel.in(), coalescer, channelWriter, this::poison);
+                process.setMetrics(metrics);
                 parallel.addProcess(process);
+                coalescer = null;
+            } else {
+                coalescerChannel = null;
+            }
+            if (spool != null && spool.getRecoveredCount() > 0) {
+                // Replayed on this thread and in order, before any thread sends newer updates
+                createCommitProcess(null, spool, sharedRetryBudget, supportsSerializedRequests).recover();
+            }
+            for (int i = 0; i < workers; i++) {
+                ChannelInput<SolrInputDocument> input = partitionChannels == null
+                        ? documentChannel.in()
+                        : partitionChannels.get(i).in();
+                parallel.addProcess(createCommitProcess(input, spool, sharedRetryBudget, supportsSerializedRequests));
             }
 
             onStartup = false;
@@ -131,23 +431,146 @@ public class SolrWriter extends DefaultSolrDocumentReceiver {
             runner.start();
         }
 
-        documentChannel.out().write(document);
+        if (coalescerChannel != null) {
+            coalescerChannel.out().write(document);
+        } else if (coalescer == null) {
+            write(document);
+        } else if (coalescer.add(document, System.nanoTime(), channelWriter)) {
+            metrics.recordCoalesced();
+        }
+    }
+
+    private SolrCommitProcess createCommitProcess(ChannelInput<SolrInputDocument> input, SolrSpool spool,
+                                                  RetryBudget sharedRetryBudget, boolean supportsSerializedRequests) {
+        SolrCommitProcess process = new SolrCommitProcess(input, barrier, client, core);
+        process.setBatchSize(batchSize);
+        process.setMaxBatchBytes(maxBatchBytes);
+        process.setCommitWithinMs(commitWithinMs);
+        process.setMaxRetries(maxRetries);
+        process.setWaitMs(waitMs);
+        process.setMaxWaitMs(maxWaitMs);
+        process.setRetryBudget(sharedRetryBudget);
+        process.setLingerMs(lingerMs);
+        process.setLimiter(limiter);
+        process.setDeadLetterReceiver(deadLetterReceiver);
+        process.setSpool(spool);
+        process.setMetrics(metrics);
+        process.setMeasureBytes(jmx || metricsIntervalMs > 0);
+        process.setSerializeOnce(serializeOnce && supportsSerializedRequests);
+        process.setVerbose(verbose);
+        return process;
+    }
+
+    private void write(SolrInputDocument document) {
+        if (document instanceof SolrDelete && workers > 1 && !isRouted((SolrDelete) document)) {
+            broadcast(new SolrDeleteBarrier((SolrDelete) document, workers));
+        } else {
+            selectChannel(document).write(document);
+        }
+    }
+
+    /**
+     * Returns whether the delete goes to the same thread as the documents it affects: A delete by id does,
+     * if the documents are partitioned by id. Other deletes are handed to all threads as a barrier.
+     */
+    private boolean isRouted(SolrDelete delete) {
+        return partitionChannels != null && delete.getFieldValue(partitionField) != null;
+    }
+
+    /** Hands over the barrier to every thread. */
+    private void broadcast(SolrDeleteBarrier deleteBarrier) {
+        if (partitionChannels == null) {
+            // A thread waits at the barrier until all threads have taken it, so every thread takes one
+            for (int i = 0; i < workers; i++) {
+                documentChannel.out().write(deleteBarrier);
+            }
+        } else {
+            for (One2OneChannel<SolrInputDocument> channel : partitionChannels) {
+                channel.out().write(deleteBarrier);
+            }
+        }
+    }
+
+    /** Hands over the documents in the coalescing window to the threads and poisons their channels. */
+    private void finish() {
+        if (coalescerChannel != null) {
+            // The process of the window poisons the channels to the threads, when it is done
+            coalescerChannel.out().poison(1);
+            return;
+        }
+        if (coalescer != null) {
+            coalescer.drain(channelWriter);
+        }
+        poison();
+    }
+
+    private SolrDocumentBuffer createQueue() {
+        SolrDocumentBuffer queue = new SolrDocumentBuffer(queueSize, queueBytes);
+        queues.add(queue);
+        return queue;
+    }
+
+    private ChannelOutput<SolrInputDocument> selectChannel(SolrInputDocument document) {
+        if (partitionChannels == null) {
+            return documentChannel.out();
+        }
+        Object key = document.getFieldValue(partitionField);
+        int hash = key == null ? unkeyedDocuments++ : key.toString().hashCode();
+        return partitionChannels.get(Math.floorMod(hash, partitionChannels.size())).out();
+    }
+
+    private void closeMetrics() {
+        if (metricsReporter != null) {
+            metricsReporter.close();
+            metricsReporter = null;
+        }
+        if (mbeanName != null) {
+            SolrMetrics.unregister(mbeanName);
+            mbeanName = null;
+        }
+    }
+
+    private void poison() {
+        if (partitionChannels == null) {
+            documentChannel.out().poison(1);
+        } else {
+            for (One2OneChannel<SolrInputDocument> channel : partitionChannels) {
+                channel.out().poison(1);
+            }
+        }
     }
 
     @Override
     public void resetStream() {
         onStartup = true;
-        documentChannel.out().poison(1);
+        finish();
+        closeMetrics();
     }
 
     @Override
     public void closeStream() {
-        documentChannel.out().poison(1);
+        finish();
         try {
             runner.join();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new MetafactureException(e);
         }
+        closeMetrics();
+        if (deadLetterReceiver != null) {
+            deadLetterReceiver.closeStream();
+        }
+        if (transport == null) {
+            // The client has been set by the caller, who closes it
+            return;
+        }
+        try {
+            client.close();
+            client = null;
+            transport.close();
+            transport = null;
+        } catch (IOException e) {
+            throw new MetafactureException(e);
+        }
     }
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.jcsp.lang.CSProcess;
+import org.jcsp.lang.ChannelInput;
+import org.jcsp.lang.PoisonException;
+
+import java.util.List;
+
+/**
+ * Sends batches of raw Solr XML commands until its input is poisoned.
+ *
+ * Failed batches are retried, batches that are rejected by the server are split in half recursively,
+ * until the rejected commands are found.
+ */
+public class SolrXmlBatchProcess implements CSProcess {
+
+    private ChannelInput<List<SolrXmlSlicer.Command>> channelInput;
+    private SolrClient client;
+    private String collection;
+    private int commitWithinMs;
+    /** Sends the requests, classifies their failures and retries them. */
+    private final SolrRequestSender sender;
+    /** Metrics of the writer (optional). */
+    private SolrMetrics metrics;
+    /** Writer for commands that could not be sent (optional). */
+    private RejectedDocumentWriter deadLetterWriter;
+    private boolean verbose;
+    /** Called after each batch has been handled (optional). */
+    private Runnable sentListener;
+
+    public SolrXmlBatchProcess(ChannelInput<List<SolrXmlSlicer.Command>> channelInput, SolrClient client, String collection) {
+        this.channelInput = channelInput;
+        this.client = client;
+        this.collection = collection;
+        this.commitWithinMs = -1;
+        this.sender = new SolrRequestSender();
+        this.verbose = false;
+    }
+
+    public void setCommitWithinMs(int commitWithinMs) {
+        this.commitWithinMs = commitWithinMs;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        sender.setMaxRetries(maxRetries);
+    }
+
+    public void setWaitMs(int waitMs) {
+        sender.setWaitMs(waitMs);
+    }
+
+    public void setMaxWaitMs(int maxWaitMs) {
+        sender.setMaxWaitMs(maxWaitMs);
+    }
+
+    public void setRetryBudget(RetryBudget retryBudget) {
+        sender.setRetryBudget(retryBudget);
+    }
+
+    public void setMetrics(SolrMetrics metrics) {
+        this.metrics = metrics;
+        sender.setMetrics(metrics);
+    }
+
+    public void setDeadLetterWriter(RejectedDocumentWriter deadLetterWriter) {
+        this.deadLetterWriter = deadLetterWriter;
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    public void setSentListener(Runnable sentListener) {
+        this.sentListener = sentListener;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            List<SolrXmlSlicer.Command> batch;
+            try {
+                batch = channelInput.read();
+            } catch (PoisonException e) {
+                break;
+            }
+            long batchBytes = metrics != null ? sizeOf(batch) : 0;
+            if (metrics != null) {
+                metrics.batchStarted(batchBytes);
+            }
+            try {
+                sendOrBisect(batch);
+            } finally {
+                if (metrics != null) {
+                    metrics.batchFinished(batchBytes);
+                }
+                if (sentListener != null) {
+                    sentListener.run();
+                }
+            }
+            if (verbose) {
+                System.err.println("Sent batch of " + batch.size() + " commands.");
+            }
+        }
+    }
+
+    private void sendOrBisect(List<SolrXmlSlicer.Command> commands) {
+        boolean isSuccessful = send(commands);
+        if (!isSuccessful && !sender.isRejected()) {
+            isSuccessful = sender.retry(() -> send(commands));
+        }
+
+        if (isSuccessful) {
+            if (metrics != null) {
+                metrics.recordDocuments(commands.size());
+            }
+            return;
+        }
+        if (sender.isRejected() && commands.size() > 1) {
+            int middle = commands.size() / 2;
+            sendOrBisect(commands.subList(0, middle));
+            sendOrBisect(commands.subList(middle, commands.size()));
+            return;
+        }
+
+        if (metrics != null) {
+            metrics.recordRejected(commands.size());
+        }
+        if (deadLetterWriter == null) {
+            System.err.println("Dropped " + commands.size() + " command(s): " + sender.getLastError());
+        } else {
+            for (SolrXmlSlicer.Command command : commands) {
+                deadLetterWriter.writeRaw(command.getAddTag(), command.getXml(), sender.getLastError());
+            }
+        }
+    }
+
+    private boolean send(List<SolrXmlSlicer.Command> commands) {
+        RawXmlUpdateRequest request = new RawXmlUpdateRequest(commands);
+        if (commitWithinMs >= 0) {
+            request.setCommitWithin(commitWithinMs);
+        }
+
+        long start = System.nanoTime();
+        boolean isSuccessful = sender.send(() -> request.process(client, collection));
+        if (metrics != null) {
+            metrics.recordSend(System.nanoTime() - start, isSuccessful);
+        }
+        return isSuccessful;
+    }
+
+    /** Returns the size (in characters) of the commands, as the bytes in flight of the metrics. */
+    private static long sizeOf(List<SolrXmlSlicer.Command> commands) {
+        long size = 0;
+        for (SolrXmlSlicer.Command command : commands) {
+            size += command.getXml().length();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.metafacture.contrib.framework.SolrDocumentReceiver;
+import org.metafacture.framework.FluxCommand;
+import org.metafacture.framework.MetafactureException;
+import org.metafacture.framework.ObjectReceiver;
+import org.metafacture.framework.annotations.Description;
+import org.metafacture.framework.annotations.In;
+import org.metafacture.framework.annotations.Out;
+import org.metafacture.framework.helpers.DefaultObjectPipe;
+import org.metafacture.framework.helpers.DefaultObjectReceiver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads a Solr XML update file with several threads.
+ *
+ * The file is memory-mapped and split into ranges of whole commands by a boundary scan
+ * (see {@link SolrXmlRangeScanner}). Each range is parsed by its own {@link SolrXmlHandler} on a fork-join pool.
+ * The documents (and deletes) are passed on by the calling thread, either in the order of the file or
+ * in the order of the file per id: a range is passed on before a later range with one of its ids,
+ * a delete by query or a commit.
+ *
+ * The encoding of the file has to be ASCII compatible (e.g. UTF-8 or ISO-8859-1). Entities that are declared
+ * in a DOCTYPE are not available to the ranges.
+ */
+@Description("Reads a Solr XML update file (given by its path) with several threads. "
+        + "Options: threads, chunkSize (in bytes), order (id or document), schema, deadLetterFile.")
+@In(String.class)
+@Out(SolrDocumentReceiver.class)
+@FluxCommand("read-solr-xml")
+public class SolrXmlFileReader extends DefaultObjectPipe<String, ObjectReceiver<SolrInputDocument>> {
+
+    /** Keep the order of the file per id. */
+    public static final String ORDER_ID = "id";
+    /** Keep the order of the file. */
+    public static final String ORDER_DOCUMENT = "document";
+
+    private static final long SEGMENT_SIZE = 256L * 1024 * 1024;
+    private static final int DECLARATION_SIZE = 256;
+    private static final Pattern ENCODING = Pattern.compile("^<\\?xml[^>]*encoding\\s*=\\s*[\"']([A-Za-z0-9._-]+)[\"']");
+
+    private int threads;
+    private long chunkSize;
+    private boolean isDocumentOrder;
+    /** Field types for the conversion of the values (shared by the handlers), or null to keep strings */
+    private SolrSchema schema;
+    /** Receiver of the documents with invalid values (shared by the handlers), or null to drop them */
+    private ObjectReceiver<RejectedDocument> deadLetterReceiver;
+
+    private ForkJoinPool pool;
+    /** Factory for the parsers, which is not thread-safe */
+    private final SAXParserFactory parserFactory;
+    /** A parser per thread of the pool, reused for the ranges the thread parses */
+    private final ThreadLocal<XMLReader> xmlReaders;
+
+    public SolrXmlFileReader() {
+        this.threads = Runtime.getRuntime().availableProcessors();
+        this.chunkSize = 16L * 1024 * 1024;
+        this.isDocumentOrder = false;
+        this.parserFactory = SAXParserFactory.newInstance();
+        this.parserFactory.setNamespaceAware(true);
+        this.xmlReaders = ThreadLocal.withInitial(this::newXmlReader);
+    }
+
+    /** Number of threads, that parse the ranges. */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /** Min size (in bytes) of a range. */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /** Either "id" (the default) or "document". */
+    public void setOrder(String order) {
+        if (ORDER_ID.equals(order)) {
+            this.isDocumentOrder = false;
+        } else if (ORDER_DOCUMENT.equals(order)) {
+            this.isDocumentOrder = true;
+        } else {
+            throw new IllegalArgumentException("Unknown order: " + order + ". Expected " + ORDER_ID + " or " + ORDER_DOCUMENT + ".");
+        }
+    }
+
+    /** Path of a schema file, see {@link SolrXmlHandler#setSchema(String)}. */
+    public void setSchema(String schema) {
+        this.schema = SolrSchema.load(schema);
+    }
+
+    /** Path of a Solr XML file for the documents with invalid values, see {@link SolrXmlHandler#setDeadLetterFile(String)}. */
+    public void setDeadLetterFile(String path) {
+        this.deadLetterReceiver = new RejectedDocumentWriter(path);
+    }
+
+    public void setDeadLetterReceiver(ObjectReceiver<RejectedDocument> deadLetterReceiver) {
+        this.deadLetterReceiver = deadLetterReceiver;
+    }
+
+    @Override
+    public void process(String path) {
+        if (pool == null) {
+            pool = new ForkJoinPool(threads);
+        }
+
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            String encoding = readEncoding(channel);
+            LinkedList<PendingRange> pending = new LinkedList<>();
+            int window = threads * 2;
+
+            SolrXmlRangeScanner scanner = new SolrXmlRangeScanner(chunkSize, range -> {
+                pending.add(new PendingRange(range,
+                        CompletableFuture.supplyAsync(() -> parse(channel, range, encoding), pool)));
+                while (pending.size() >= window) {
+                    emit(pending, true);
+                }
+            });
+
+            long size = channel.size();
+            for (long position = 0; position < size; position += SEGMENT_SIZE) {
+                scanner.scan(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_SIZE, size - position)));
+            }
+            scanner.finish();
+
+            while (!pending.isEmpty()) {
+                emit(pending, true);
+            }
+        } catch (IOException e) {
+            throw new MetafactureException("Could not read " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void onCloseStream() {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+        if (deadLetterReceiver != null) {
+            deadLetterReceiver.closeStream();
+        }
+    }
+
+    /**
+     * Passes on the documents of the ranges, that are parsed and no longer wait for an earlier range.
+     *
+     * @param block whether to wait until at least one range has been passed on
+     */
+    private void emit(List<PendingRange> pending, boolean block) {
+        boolean isEmitted = false;
+        List<PendingRange> earlier = new ArrayList<>();
+        for (Iterator<PendingRange> iterator = pending.iterator(); iterator.hasNext(); ) {
+            PendingRange candidate = iterator.next();
+            if (candidate.documents.isDone() && !mustWait(earlier, candidate.range)) {
+                for (SolrInputDocument document : join(candidate.documents)) {
+                    getReceiver().process(document);
+                }
+                iterator.remove();
+                isEmitted = true;
+            } else if (isDocumentOrder) {
+                break;
+            } else {
+                earlier.add(candidate);
+            }
+        }
+
+        if (block && !isEmitted) {
+            if (isDocumentOrder) {
+                join(pending.get(0).documents);
+            } else {
+                // Ranges that are done only wait for an earlier range, so waiting for them would return at once
+                CompletableFuture<?>[] parsing = earlier.stream().map(p -> p.documents).filter(f -> !f.isDone())
+                        .toArray(CompletableFuture[]::new);
+                // Without any, a range has been parsed in the meantime and can be passed on now
+                if (parsing.length > 0) {
+                    CompletableFuture.anyOf(parsing).join();
+                }
+            }
+            emit(pending, false);
+        }
+    }
+
+    private static boolean mustWait(List<PendingRange> earlier, SolrXmlRange range) {
+        for (PendingRange pendingRange : earlier) {
+            if (pendingRange.range.precedes(range)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<SolrInputDocument> parse(FileChannel channel, SolrXmlRange range, String encoding) {
+        List<SolrInputDocument> documents = new ArrayList<>();
+        SolrXmlHandler handler = new SolrXmlHandler();
+        handler.useSchema(schema);
+        if (deadLetterReceiver != null) {
+            // Ranges are parsed concurrently, and the handlers are not closed
+            handler.setDeadLetterReceiver(new DefaultObjectReceiver<RejectedDocument>() {
+                @Override
+                public void process(RejectedDocument rejectedDocument) {
+                    synchronized (deadLetterReceiver) {
+                        deadLetterReceiver.process(rejectedDocument);
+                    }
+                }
+            });
+        }
+        handler.setReceiver(new DefaultObjectReceiver<SolrInputDocument>() {
+            @Override
+            public void process(SolrInputDocument document) {
+                documents.add(document);
+            }
+        });
+
+        try {
+            String prefix = (encoding != null ? "<?xml version=\"1.0\" encoding=\"" + encoding + "\"?>" : "")
+                    + "<update>" + (range.startsInAdd() ? "<add>" : "");
+            String suffix = (range.endsInAdd() ? "</add>" : "") + "</update>";
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, range.getStart(), range.getEnd() - range.getStart());
+            InputStream input = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                    new ByteArrayInputStream(prefix.getBytes(StandardCharsets.US_ASCII)),
+                    new ByteBufferInputStream(bytes),
+                    new ByteArrayInputStream(suffix.getBytes(StandardCharsets.US_ASCII)))));
+
+            XMLReader reader = xmlReaders.get();
+            reader.setContentHandler(handler);
+            reader.parse(new InputSource(input));
+        } catch (IOException | SAXException e) {
+            throw new MetafactureException("Could not parse bytes " + range.getStart() + " to " + range.getEnd()
+                    + ": " + e.getMessage(), e);
+        }
+        return documents;
+    }
+
+    private XMLReader newXmlReader() {
+        try {
+            synchronized (parserFactory) {
+                return parserFactory.newSAXParser().getXMLReader();
+            }
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new MetafactureException("Could not create an XML parser: " + e.getMessage(), e);
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new MetafactureException(e.getCause());
+        }
+    }
+
+    /** Returns the encoding of the XML declaration, or null if there is none. */
+    private static String readEncoding(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(DECLARATION_SIZE);
+        channel.read(buffer, 0);
+        Matcher matcher = ENCODING.matcher(new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII));
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static final class PendingRange {
+
+        private final SolrXmlRange range;
+        private final CompletableFuture<List<SolrInputDocument>> documents;
+
+        private PendingRange(SolrXmlRange range, CompletableFuture<List<SolrInputDocument>> documents) {
+            this.range = range;
+            this.documents = documents;
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, n);
+            return n;
+        }
+    }
+}
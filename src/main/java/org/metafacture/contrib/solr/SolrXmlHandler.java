@@ -29,6 +29,7 @@ import org.xml.sax.Attributes;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -36,6 +37,9 @@ import java.util.Map;
  * Converts XML Solr Documents for Index Updates to a Metafacture Stream.
  *
  * Encodes atomic index updates. See also: https://wiki.apache.org/solr/UpdateXmlMessages#Optional_attributes_for_.22add.22
+ *
+ * Deletes (<code>&lt;delete&gt;&lt;id&gt;</code> and <code>&lt;delete&gt;&lt;query&gt;</code>) are passed on as {@link SolrDelete}s
+ * in the order they appear between the documents.
  */
 @Description("A handler for XML formatted index updates for Apache Solr.")
 @In(XmlReceiver.class)
@@ -45,10 +49,28 @@ public class SolrXmlHandler extends DefaultXmlPipe<ObjectReceiver<SolrInputDocum
 {
     private static final String DOC = "doc";
     private static final String FIELD = "field";
+    private static final String DELETE = "delete";
+    private static final String ID = "id";
+    private static final String QUERY = "query";
     private static final String NO_MODIFICATION = "";
+    private static final String NAME_ATTRIBUTE = "name";
+    private static final String UPDATE_ATTRIBUTE = "update";
+    /** Weight of the field count of the last document in the running average (as a shift) */
+    private static final int AVERAGE_SHIFT = 4;
+    /** Canonical instances of the field modifiers, so that the update maps share them */
+    private static final Map<String,String> MODIFIERS = new HashMap<>();
+
+    static {
+        for (String modifier : new String[] {"add", "add-distinct", "inc", "remove", "removeregex", "removeregexp", "set"}) {
+            MODIFIERS.put(modifier, modifier);
+        }
+    }
 
     private SolrInputDocument solrDocument;
 
+    /** A flag that indicates a delete element */
+    private boolean isDelete;
+
     /** Document depth (documents in a document). */
     private int documentDepth = 0;
 
@@ -60,6 +82,9 @@ public class SolrXmlHandler extends DefaultXmlPipe<ObjectReceiver<SolrInputDocum
 
     /** Value of the name attribute for a field element */
     private String fieldName;
+    private FieldNameCache fieldNames;
+    /** Running average of the number of fields per document (scaled by 2^AVERAGE_SHIFT) */
+    private int scaledAverageFields;
     /** A flag that indicates a atomic update */
 
     private boolean isModified;
@@ -69,29 +94,69 @@ public class SolrXmlHandler extends DefaultXmlPipe<ObjectReceiver<SolrInputDocum
      */
     private String fieldModifier;
 
+    /** Atomic updates of the current document by field name, created for the first update only */
     private Map<String, Map<String,Object>> fieldUpdatesMap;
 
+    /** Field types for the conversion of the values, or null to keep strings */
+    private SolrSchema schema;
+    /** Error of the first value of the document that does not fit its field type */
+    private String invalidValue;
+    /** Receiver of the documents with invalid values, or null to drop them */
+    private ObjectReceiver<RejectedDocument> deadLetterReceiver;
+
     public SolrXmlHandler() {
         this.isModified = false;
+        this.fieldNames = new FieldNameCache();
+    }
+
+    /**
+     * Converts the values to the types of their fields in the given schema file
+     * (<code>schema.xml</code> or <code>managed-schema</code>).
+     * Documents with values that do not fit their field type are passed on to the dead letter receiver
+     * (or reported and dropped without one).
+     */
+    public void setSchema(String schema) {
+        this.schema = SolrSchema.load(schema);
+    }
+
+    /** Path of a Solr XML file for the documents with values that do not fit their field type. */
+    public void setDeadLetterFile(String path) {
+        this.deadLetterReceiver = new RejectedDocumentWriter(path);
+    }
+
+    public void setDeadLetterReceiver(ObjectReceiver<RejectedDocument> deadLetterReceiver) {
+        this.deadLetterReceiver = deadLetterReceiver;
+    }
+
+    /** Uses a schema that has already been loaded (e.g. shared by several handlers). */
+    void useSchema(SolrSchema schema) {
+        this.schema = schema;
     }
 
     public void startElement(final String uri, final String localName,
                              final String qName, final Attributes attributes) {
         currentElement = localName;
+        characters.setLength(0);
         switch (localName) {
             case DOC:
-                solrDocument = new SolrInputDocument();
-                fieldUpdatesMap = new HashMap<>();
+                // Sized for the average number of fields, so that the map does not grow while the fields are added
+                int expectedFields = scaledAverageFields >> AVERAGE_SHIFT;
+                solrDocument = new SolrInputDocument(new LinkedHashMap<>(expectedFields * 4 / 3 + 1));
+                fieldNames.reset();
                 documentDepth++;
                 if (documentDepth == 2) {
                     throw new MetafactureException("Nested documents are not supported!");
                 }
                 break;
+            case DELETE:
+                isDelete = true;
+                break;
             case FIELD:
-                fieldName = attributes.getValue("name");
-                isModified = attributes.getValue("update") != null;
+                fieldName = fieldNames.get(attributes.getValue(NAME_ATTRIBUTE));
+                String update = attributes.getValue(UPDATE_ATTRIBUTE);
+                isModified = update != null;
                 if (isModified) {
-                    fieldModifier = attributes.getValue("update");
+                    fieldModifier = MODIFIERS.getOrDefault(update, update);
                 }
                 break;
             default:
@@ -108,7 +173,7 @@ public class SolrXmlHandler extends DefaultXmlPipe<ObjectReceiver<SolrInputDocum
         {
             if (documentDepth == 1)
             {
-                if (!fieldUpdatesMap.isEmpty())
+                if (fieldUpdatesMap != null)
                 {
                     for (Map.Entry<String, Map<String,Object>> entry : fieldUpdatesMap.entrySet())
                     {
@@ -117,7 +182,12 @@ public class SolrXmlHandler extends DefaultXmlPipe<ObjectReceiver<SolrInputDocum
                        solrDocument.addField(fieldName, fieldUpdates);
                     }
                 }
-                getReceiver().process(solrDocument);
+                scaledAverageFields += solrDocument.size() - (scaledAverageFields >> AVERAGE_SHIFT);
+                if (invalidValue != null) {
+                    reject();
+                } else {
+                    getReceiver().process(solrDocument);
+                }
                 reset();
             }
             else
@@ -126,36 +196,55 @@ public class SolrXmlHandler extends DefaultXmlPipe<ObjectReceiver<SolrInputDocum
             }
             documentDepth--;
         }
+        else if (currentElement.equals(DELETE))
+        {
+            isDelete = false;
+        }
+        else if (isDelete && currentElement.equals(ID))
+        {
+            getReceiver().process(SolrDelete.byId(trimmedCharacters()));
+        }
+        else if (isDelete && currentElement.equals(QUERY))
+        {
+            getReceiver().process(SolrDelete.byQuery(trimmedCharacters()));
+        }
         else if (currentElement.equals(FIELD))
         {
-            String fieldValue = characters.toString().trim();
+            String text = trimmedCharacters();
+            // A regular expression is no value of the field
+            Object fieldValue = isModified && fieldModifier.startsWith("removeregex") ? text : convert(fieldName, text);
             if (!isModified)
             {
                 solrDocument.addField(fieldName, fieldValue);
             }
             else
             {
-                Map<String,Object> fieldUpdates = fieldUpdatesMap.getOrDefault(fieldName, new HashMap<>());
-                if (fieldUpdates.isEmpty() || !fieldUpdates.containsKey(fieldModifier))
+                if (fieldUpdatesMap == null)
                 {
-                    fieldUpdates.put(fieldModifier, fieldValue);
+                    fieldUpdatesMap = new HashMap<>();
+                }
+                Map<String,Object> fieldUpdates = fieldUpdatesMap.get(fieldName);
+                if (fieldUpdates == null)
+                {
+                    fieldUpdates = new HashMap<>();
                     fieldUpdatesMap.put(fieldName, fieldUpdates);
                 }
+                Object existingValue = fieldUpdates.get(fieldModifier);
+                if (existingValue == null)
+                {
+                    fieldUpdates.put(fieldModifier, fieldValue);
+                }
+                else if (existingValue instanceof List)
+                {
+                    List<Object> existingValues = (List<Object>) existingValue;
+                    existingValues.add(fieldValue);
+                }
                 else
                 {
-                    Object existingValue = fieldUpdates.get(fieldModifier);
-                    if (existingValue instanceof List)
-                    {
-                        List<String> existingValues = (List<String>) existingValue;
-                        existingValues.add(fieldValue);
-                    }
-                    else
-                    {
-                        List list = new ArrayList();
-                        list.add(existingValue);
-                        list.add(fieldValue);
-                        fieldUpdates.put(fieldModifier, list);
-                    }
+                    List list = new ArrayList();
+                    list.add(existingValue);
+                    list.add(fieldValue);
+                    fieldUpdates.put(fieldModifier, list);
                 }
             }
         }
@@ -167,9 +256,52 @@ public class SolrXmlHandler extends DefaultXmlPipe<ObjectReceiver<SolrInputDocum
         characters.append(chars, start, length);
     }
 
+    /** Returns the characters without leading and trailing whitespace (like {@link String#trim()}), copied once. */
+    private String trimmedCharacters() {
+        int start = 0;
+        int end = characters.length();
+        while (start < end && characters.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && characters.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return characters.substring(start, end);
+    }
+
+    private void reject() {
+        if (deadLetterReceiver == null) {
+            System.err.println("Dropped document " + solrDocument.getFieldValue(ID) + ": " + invalidValue + ".");
+        } else {
+            deadLetterReceiver.process(new RejectedDocument(solrDocument, invalidValue));
+        }
+    }
+
+    private Object convert(String name, String value) {
+        if (schema == null) {
+            return value;
+        }
+        try {
+            return schema.convert(name, value);
+        } catch (IllegalArgumentException e) {
+            if (invalidValue == null) {
+                invalidValue = e.getMessage();
+            }
+            return value;
+        }
+    }
+
+    @Override
+    public void onCloseStream() {
+        if (deadLetterReceiver != null) {
+            deadLetterReceiver.closeStream();
+        }
+    }
+
     private void reset() {
-        solrDocument = new SolrInputDocument();
-        fieldUpdatesMap.clear();
+        solrDocument = null;
+        fieldUpdatesMap = null;
         fieldModifier = NO_MODIFICATION;
+        invalidValue = null;
     }
 }
\ No newline at end of file
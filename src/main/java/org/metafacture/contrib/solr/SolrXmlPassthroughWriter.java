@@ -0,0 +1,349 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.jcsp.lang.Channel;
+import org.jcsp.lang.One2AnyChannel;
+import org.jcsp.lang.Parallel;
+import org.metafacture.framework.FluxCommand;
+import org.metafacture.framework.MetafactureException;
+import org.metafacture.framework.annotations.Description;
+import org.metafacture.framework.annotations.In;
+import org.metafacture.framework.annotations.Out;
+import org.metafacture.framework.helpers.DefaultObjectReceiver;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.ObjectName;
+
+@Description("Sends Solr XML update files to a Solr core as they are, without parsing the documents.")
+@In(Reader.class)
+@Out(Void.class)
+@FluxCommand("to-solr-xml")
+public class SolrXmlPassthroughWriter extends DefaultObjectReceiver<Reader> {
+
+    /** Solr Server URL */
+    private String url;
+    private String core;
+    /** Name of the transport, that creates the client (see {@link SolrTransport}) */
+    private String transportName;
+    /** Transport of the client, if the client has been created by the writer (and is closed by it) */
+    private SolrTransport transport;
+    private SolrClient client;
+
+    /** Number of documents (and other commands) per request */
+    private int batchSize;
+    /** Max size (in characters) of a request */
+    private int maxBatchBytes;
+    private int commitWithinMs;
+    private int threads;
+    private int maxRetries;
+    private int waitMs;
+    private int maxWaitMs;
+    /** Max number of retries across all threads without successful requests in between */
+    private int retryBudget;
+    private RejectedDocumentWriter deadLetterWriter;
+    private boolean verbose;
+
+    private SolrMetrics metrics;
+    /** Flag for registering the metrics as a JMX MBean */
+    private boolean jmx;
+    private ObjectName mbeanName;
+    /** Time (in ms) between two reports of the metrics */
+    private int metricsIntervalMs;
+    /** CSV file for the reports of the metrics (instead of standard error) */
+    private String metricsFile;
+    private SolrMetricsReporter metricsReporter;
+
+    private SolrXmlSlicer slicer;
+    private List<SolrXmlSlicer.Command> batch;
+    private long batchBytes;
+    /** Flag for a batch that contains other commands than documents (e.g. deletes) */
+    private boolean batchHasCommands;
+    /** Number of batches, that have been handed over, but not been sent yet */
+    private int pendingBatches;
+    private final Object pendingLock;
+    private One2AnyChannel<List<SolrXmlSlicer.Command>> batchChannel;
+    private Thread runner;
+
+    /** Flag for a hook that acts before the first processing occurs. */
+    private boolean onStartup;
+
+    public SolrXmlPassthroughWriter(String url) {
+        this.url = url;
+        this.core = "default";
+        this.transportName = HttpTransport.NAME;
+        this.batchSize = 1000;
+        this.maxBatchBytes = -1;
+        this.commitWithinMs = -1;
+        this.threads = 1;
+        this.maxRetries = 0;
+        this.waitMs = 10_000;
+        this.maxWaitMs = 300_000;
+        this.retryBudget = -1;
+        this.verbose = false;
+        this.metrics = new SolrMetrics();
+        this.jmx = false;
+        this.metricsIntervalMs = -1;
+        this.slicer = new SolrXmlSlicer();
+        this.pendingLock = new Object();
+        this.onStartup = true;
+    }
+
+    public void setCore(String core) {
+        this.core = core;
+    }
+
+    /** Uses the given client instead of creating one from the URL. The client stays open, it is closed by the caller. */
+    public void setClient(SolrClient client) {
+        this.client = client;
+    }
+
+    public void setTransport(String transport) {
+        this.transportName = transport;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    public void setCommitWithinMs(int commitWithinMs) {
+        this.commitWithinMs = commitWithinMs;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public void setWaitMs(int waitMs) {
+        this.waitMs = waitMs;
+    }
+
+    public void setMaxWaitMs(int maxWaitMs) {
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    public void setRetryBudget(int retryBudget) {
+        this.retryBudget = retryBudget;
+    }
+
+    /**
+     * Writes commands that could not be sent to a Solr XML file.
+     *
+     * @param path path of the file
+     */
+    public void setDeadLetterFile(String path) {
+        this.deadLetterWriter = new RejectedDocumentWriter(path);
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    public void setJmx(boolean jmx) {
+        this.jmx = jmx;
+    }
+
+    public void setMetricsIntervalMs(int metricsIntervalMs) {
+        this.metricsIntervalMs = metricsIntervalMs;
+    }
+
+    public void setMetricsFile(String metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    public SolrMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void process(Reader reader) {
+        if (onStartup) {
+            start();
+            onStartup = false;
+        }
+        try {
+            slicer.slice(reader, this::add);
+        } catch (IOException e) {
+            throw new MetafactureException(e);
+        }
+    }
+
+    private void start() {
+        if (client == null) {
+            transport = SolrTransports.create(transportName);
+            SolrTransportOptions options = new SolrTransportOptions();
+            options.setPoolSize(threads);
+            client = transport.createClient(url, core, options);
+        }
+
+        int noPoisonImmunity = 0;
+        batchChannel = Channel.one2any(noPoisonImmunity);
+        batch = new ArrayList<>();
+        batchBytes = 0;
+        batchHasCommands = false;
+        pendingBatches = 0;
+
+        RetryBudget sharedRetryBudget = retryBudget >= 0 ? new RetryBudget(retryBudget) : null;
+
+        if (jmx) {
+            mbeanName = metrics.register("SolrXmlPassthroughWriter", core, this);
+        }
+        if (metricsIntervalMs > 0) {
+            metricsReporter = new SolrMetricsReporter(metrics, metricsIntervalMs, metricsFile);
+        }
+
+        Parallel parallel = new Parallel();
+        for (int i = 0; i < threads; i++) {
+            SolrXmlBatchProcess process = new SolrXmlBatchProcess(batchChannel.in(), client, core);
+            process.setCommitWithinMs(commitWithinMs);
+            process.setMaxRetries(maxRetries);
+            process.setWaitMs(waitMs);
+            process.setMaxWaitMs(maxWaitMs);
+            process.setRetryBudget(sharedRetryBudget);
+            process.setMetrics(metrics);
+            process.setDeadLetterWriter(deadLetterWriter);
+            process.setVerbose(verbose);
+            process.setSentListener(this::batchSent);
+            parallel.addProcess(process);
+        }
+
+        runner = new Thread(parallel::run);
+        runner.start();
+    }
+
+    private void add(SolrXmlSlicer.Command command) {
+        long commandBytes = command.getXml().length();
+        if (maxBatchBytes > 0 && !batch.isEmpty() && batchBytes + commandBytes > maxBatchBytes) {
+            flush();
+        }
+        batch.add(command);
+        batchBytes += commandBytes;
+        batchHasCommands |= !command.isDocument();
+        if (batch.size() == batchSize || (maxBatchBytes > 0 && batchBytes >= maxBatchBytes)) {
+            flush();
+        }
+    }
+
+    /**
+     * Hands over the batch to the threads. With several threads, a batch with other commands than documents
+     * (e.g. a delete) is sent only after all earlier batches, and later batches wait until it has been sent.
+     */
+    private void flush() {
+        boolean isOrdered = batchHasCommands && threads > 1;
+        if (isOrdered) {
+            awaitPendingBatches();
+        }
+        synchronized (pendingLock) {
+            pendingBatches++;
+        }
+        batchChannel.out().write(batch);
+        if (isOrdered) {
+            awaitPendingBatches();
+        }
+        batch = new ArrayList<>();
+        batchBytes = 0;
+        batchHasCommands = false;
+    }
+
+    private void batchSent() {
+        synchronized (pendingLock) {
+            pendingBatches--;
+            pendingLock.notifyAll();
+        }
+    }
+
+    private void awaitPendingBatches() {
+        synchronized (pendingLock) {
+            while (pendingBatches > 0) {
+                try {
+                    pendingLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MetafactureException(e);
+                }
+            }
+        }
+    }
+
+    /** Sends the last batch and waits until all batches have been sent. */
+    private void finish() {
+        if (!batch.isEmpty()) {
+            flush();
+        }
+        batchChannel.out().poison(1);
+        try {
+            runner.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MetafactureException(e);
+        }
+        closeMetrics();
+    }
+
+    private void closeMetrics() {
+        if (metricsReporter != null) {
+            metricsReporter.close();
+            metricsReporter = null;
+        }
+        if (mbeanName != null) {
+            SolrMetrics.unregister(mbeanName);
+            mbeanName = null;
+        }
+    }
+
+    @Override
+    public void resetStream() {
+        if (!onStartup) {
+            finish();
+        }
+        onStartup = true;
+    }
+
+    @Override
+    public void closeStream() {
+        if (!onStartup) {
+            finish();
+        }
+        if (deadLetterWriter != null) {
+            deadLetterWriter.closeStream();
+        }
+        if (transport == null) {
+            // No client has been created, or it has been set by the caller, who closes it
+            return;
+        }
+        try {
+            client.close();
+            client = null;
+            transport.close();
+            transport = null;
+        } catch (IOException e) {
+            throw new MetafactureException(e);
+        }
+    }
+}
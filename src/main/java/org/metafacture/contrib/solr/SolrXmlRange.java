@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * A byte range of a Solr XML update file, that starts at the beginning of a command
+ * and ends after a command (see {@link SolrXmlRangeScanner}).
+ */
+public class SolrXmlRange {
+
+    private final long start;
+    private final long end;
+    private final boolean startsInAdd;
+    private final boolean endsInAdd;
+    private final Set<String> ids;
+    private final boolean isBarrier;
+
+    public SolrXmlRange(long start, long end, boolean startsInAdd, boolean endsInAdd, Set<String> ids, boolean isBarrier) {
+        this.start = start;
+        this.end = end;
+        this.startsInAdd = startsInAdd;
+        this.endsInAdd = endsInAdd;
+        this.ids = ids;
+        this.isBarrier = isBarrier;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    /** Returns whether the range starts within an <code>&lt;add&gt;</code> element. */
+    public boolean startsInAdd() {
+        return startsInAdd;
+    }
+
+    /** Returns whether the range ends within an <code>&lt;add&gt;</code> element. */
+    public boolean endsInAdd() {
+        return endsInAdd;
+    }
+
+    /** Returns the ids of the documents and of the deletes by id. */
+    public Set<String> getIds() {
+        return Collections.unmodifiableSet(ids);
+    }
+
+    /**
+     * Returns whether the range contains a command, that affects documents regardless of their id
+     * (delete by query, commit, optimize or rollback).
+     */
+    public boolean isBarrier() {
+        return isBarrier;
+    }
+
+    /** Returns whether the commands of this and of a later range must be handled in order. */
+    public boolean precedes(SolrXmlRange later) {
+        if (isBarrier || later.isBarrier) {
+            return true;
+        }
+        Set<String> smaller = ids.size() <= later.ids.size() ? ids : later.ids;
+        Set<String> larger = smaller == ids ? later.ids : ids;
+        for (String id : smaller) {
+            if (larger.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
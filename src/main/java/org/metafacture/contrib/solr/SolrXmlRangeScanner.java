@@ -0,0 +1,367 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Splits the bytes of a Solr XML update file into ranges of commands (see {@link SolrXmlSlicer}),
+ * which can be parsed independently of each other.
+ *
+ * The bytes are only scanned for markup, nothing is decoded except the ids of the documents.
+ * The encoding has to be ASCII compatible (e.g. UTF-8 or ISO-8859-1). Bytes are fed in order,
+ * in as many buffers as needed (e.g. memory-mapped segments of a large file).
+ */
+public class SolrXmlRangeScanner {
+
+    private static final int TEXT = 0;
+    private static final int MARKUP = 1;
+    private static final int COMMENT = 2;
+    private static final int CDATA = 3;
+    private static final int PROCESSING_INSTRUCTION = 4;
+    private static final int DECLARATION = 5;
+
+    private static final byte[] ADD = bytes("add");
+    private static final byte[] DOC = bytes("doc");
+    private static final byte[] DELETE = bytes("delete");
+    private static final byte[] FIELD = bytes("field");
+    private static final byte[] ID = bytes("id");
+    private static final byte[] QUERY = bytes("query");
+    private static final byte[][] BARRIER_COMMANDS = {bytes("commit"), bytes("optimize"), bytes("rollback")};
+    private static final byte[] COMMENT_START = bytes("!--");
+    private static final byte[] CDATA_START = bytes("![CDATA[");
+
+    private final long chunkSize;
+    private final Consumer<SolrXmlRange> receiver;
+
+    private int state;
+    private long offset;
+    private byte[] tag;
+    private int tagLength;
+    private long tagStart;
+    private byte quote;
+    private int brackets;
+    private byte previous;
+    private byte beforePrevious;
+
+    private boolean inAdd;
+    private byte[] command;
+    private int depth;
+    private boolean isBarrierCommand;
+    private boolean isCapturingId;
+    private ByteArrayOutputStream id;
+
+    private long rangeStart;
+    private boolean rangeStartsInAdd;
+    private Set<String> rangeIds;
+    private boolean isBarrierRange;
+    private long lastCommandEnd;
+    private boolean lastCommandEndsInAdd;
+
+    /**
+     * @param chunkSize min size (in bytes) of a range, a range ends with the first command that reaches this size
+     * @param receiver receiver for the ranges in the order of the file
+     */
+    public SolrXmlRangeScanner(long chunkSize, Consumer<SolrXmlRange> receiver) {
+        this.chunkSize = chunkSize;
+        this.receiver = receiver;
+        this.state = TEXT;
+        this.tag = new byte[256];
+        this.id = new ByteArrayOutputStream();
+        this.rangeStart = -1;
+    }
+
+    /** Scans the remaining bytes of the buffer. */
+    public void scan(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            switch (state) {
+                case TEXT:
+                    if (b == '<') {
+                        state = MARKUP;
+                        tagLength = 0;
+                        tagStart = offset;
+                        quote = 0;
+                    } else if (isCapturingId) {
+                        id.write(b);
+                    }
+                    break;
+                case MARKUP:
+                    scanMarkup(b);
+                    break;
+                case COMMENT:
+                    if (b == '>' && previous == '-' && beforePrevious == '-') {
+                        state = TEXT;
+                    }
+                    break;
+                case CDATA:
+                    if (b == '>' && previous == ']' && beforePrevious == ']') {
+                        state = TEXT;
+                    } else if (isCapturingId) {
+                        id.write(b);
+                    }
+                    break;
+                case PROCESSING_INSTRUCTION:
+                    if (b == '>' && previous == '?') {
+                        state = TEXT;
+                    }
+                    break;
+                case DECLARATION:
+                    if (b == '[') {
+                        brackets++;
+                    } else if (b == ']') {
+                        brackets--;
+                    } else if (b == '>' && brackets == 0) {
+                        state = TEXT;
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException();
+            }
+            beforePrevious = previous;
+            previous = b;
+            offset++;
+        }
+    }
+
+    /** Hands over the last range. */
+    public void finish() throws IOException {
+        if (state != TEXT || command != null) {
+            throw new IOException("Unexpected end of input at byte " + offset + ".");
+        }
+        if (rangeStart >= 0) {
+            emitRange(lastCommandEnd, lastCommandEndsInAdd);
+        }
+    }
+
+    private void scanMarkup(byte b) {
+        if (quote != 0) {
+            if (b == quote) {
+                quote = 0;
+            }
+            append(b);
+            return;
+        }
+        if (b != '>') {
+            append(b);
+            if (tag[0] == '?') {
+                state = PROCESSING_INSTRUCTION;
+            } else if (tag[0] == '!') {
+                if (startsWith(COMMENT_START)) {
+                    state = COMMENT;
+                    // "<!-->" is no complete comment
+                    previous = 0;
+                    b = 0;
+                } else if (startsWith(CDATA_START)) {
+                    state = CDATA;
+                } else if (!isPrefixOf(COMMENT_START) && !isPrefixOf(CDATA_START)) {
+                    state = DECLARATION;
+                    brackets = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            }
+            return;
+        }
+        endTag(offset + 1);
+        state = TEXT;
+    }
+
+    private void endTag(long end) {
+        if (isCapturingId) {
+            endId();
+        }
+        boolean isEndTag = tagLength > 0 && tag[0] == '/';
+        boolean isEmptyTag = !isEndTag && tagLength > 0 && tag[tagLength - 1] == '/';
+        int nameStart = isEndTag ? 1 : 0;
+        int nameEnd = nameStart;
+        while (nameEnd < tagLength && tag[nameEnd] != '/' && !isWhitespace(tag[nameEnd])) {
+            nameEnd++;
+        }
+
+        if (command != null) {
+            if (nameEquals(command, nameStart, nameEnd) && !isEmptyTag) {
+                depth += isEndTag ? -1 : 1;
+                if (depth == 0) {
+                    endCommand(end);
+                }
+            } else if (!isEndTag && !isEmptyTag) {
+                if (command == DOC && depth == 1 && nameEquals(FIELD, nameStart, nameEnd) && hasNameId(nameEnd)) {
+                    startId();
+                } else if (command == DELETE && nameEquals(ID, nameStart, nameEnd)) {
+                    startId();
+                } else if (command == DELETE && nameEquals(QUERY, nameStart, nameEnd)) {
+                    isBarrierCommand = true;
+                }
+            }
+        } else if (isEndTag) {
+            if (nameEquals(ADD, nameStart, nameEnd)) {
+                inAdd = false;
+            }
+        } else if (nameEquals(ADD, nameStart, nameEnd)) {
+            inAdd = !isEmptyTag;
+        } else if (nameEquals(DOC, nameStart, nameEnd) ? inAdd : !inAdd && isCommand(nameStart, nameEnd)) {
+            startCommand(nameStart, nameEnd);
+            if (isEmptyTag) {
+                endCommand(end);
+            } else {
+                depth = 1;
+            }
+        }
+    }
+
+    private boolean isCommand(int nameStart, int nameEnd) {
+        if (nameEquals(DELETE, nameStart, nameEnd)) {
+            return true;
+        }
+        for (byte[] barrierCommand : BARRIER_COMMANDS) {
+            if (nameEquals(barrierCommand, nameStart, nameEnd)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void startCommand(int nameStart, int nameEnd) {
+        if (nameEquals(DOC, nameStart, nameEnd)) {
+            command = DOC;
+            isBarrierCommand = false;
+        } else if (nameEquals(DELETE, nameStart, nameEnd)) {
+            command = DELETE;
+            isBarrierCommand = false;
+        } else {
+            command = Arrays.copyOfRange(tag, nameStart, nameEnd);
+            isBarrierCommand = true;
+        }
+
+        if (rangeStart < 0) {
+            rangeStart = tagStart;
+            rangeStartsInAdd = inAdd;
+            rangeIds = new HashSet<>();
+            isBarrierRange = false;
+        }
+    }
+
+    private void endCommand(long end) {
+        isBarrierRange |= isBarrierCommand;
+        command = null;
+        lastCommandEnd = end;
+        lastCommandEndsInAdd = inAdd;
+        if (end - rangeStart >= chunkSize) {
+            emitRange(end, inAdd);
+        }
+    }
+
+    private void emitRange(long end, boolean endsInAdd) {
+        receiver.accept(new SolrXmlRange(rangeStart, end, rangeStartsInAdd, endsInAdd, rangeIds, isBarrierRange));
+        rangeStart = -1;
+    }
+
+    private void startId() {
+        isCapturingId = true;
+        id.reset();
+    }
+
+    private void endId() {
+        isCapturingId = false;
+        // A delete may have several ids, all of them order the range
+        rangeIds.add(decodeEntities(new String(id.toByteArray(), StandardCharsets.UTF_8).trim()));
+    }
+
+    /** Returns whether the attributes of the tag contain name="id" (or name='id'). */
+    private boolean hasNameId(int attributesStart) {
+        for (int i = attributesStart; i + 4 <= tagLength; i++) {
+            if (!isWhitespace(tag[i - 1]) || tag[i] != 'n' || tag[i + 1] != 'a' || tag[i + 2] != 'm' || tag[i + 3] != 'e') {
+                continue;
+            }
+            int j = skipWhitespace(i + 4);
+            if (j < tagLength && tag[j] == '=') {
+                j = skipWhitespace(j + 1);
+                return j + 3 < tagLength && (tag[j] == '"' || tag[j] == '\'')
+                        && tag[j + 1] == 'i' && tag[j + 2] == 'd' && tag[j + 3] == tag[j];
+            }
+        }
+        return false;
+    }
+
+    private int skipWhitespace(int index) {
+        int i = index;
+        while (i < tagLength && isWhitespace(tag[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    /** Decodes the predefined entities, so that an id is the same whether it is escaped or not. */
+    private static String decodeEntities(String s) {
+        if (s.indexOf('&') < 0) {
+            return s;
+        }
+        return s.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&apos;", "'")
+                .replace("&amp;", "&");
+    }
+
+    private boolean nameEquals(byte[] name, int nameStart, int nameEnd) {
+        if (nameEnd - nameStart != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (tag[nameStart + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean startsWith(byte[] prefix) {
+        return tagLength == prefix.length && isPrefixOf(prefix);
+    }
+
+    /** Returns whether the tag read so far is a prefix of the given bytes. */
+    private boolean isPrefixOf(byte[] bytes) {
+        if (tagLength > bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < tagLength; i++) {
+            if (tag[i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void append(byte b) {
+        if (tagLength == tag.length) {
+            tag = Arrays.copyOf(tag, tag.length * 2);
+        }
+        tag[tagLength++] = b;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Cuts a Solr XML update file into its commands, without parsing the documents.
+ *
+ * A command is either a <code>&lt;doc&gt;</code> (with its child documents) of an <code>&lt;add&gt;</code>
+ * or a <code>&lt;delete&gt;</code>, <code>&lt;commit&gt;</code>, <code>&lt;optimize&gt;</code> or
+ * <code>&lt;rollback&gt;</code> element. The markup of a command is kept as it is. Comments, CDATA sections
+ * and processing instructions are skipped over, so that they can not end a command early.
+ */
+public class SolrXmlSlicer {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String ADD = "add";
+    private static final String DOC = "doc";
+    private static final Set<String> OTHER_COMMANDS = new HashSet<>(Arrays.asList("delete", "commit", "optimize", "rollback"));
+
+    private final char[] buffer;
+    private final StringBuilder markup;
+    private final StringBuilder command;
+
+    private Reader reader;
+    private int position;
+    private int limit;
+
+    public SolrXmlSlicer() {
+        this.buffer = new char[BUFFER_SIZE];
+        this.markup = new StringBuilder();
+        this.command = new StringBuilder();
+    }
+
+    /**
+     * Reads the update file and hands over its commands in the order of the file.
+     */
+    public void slice(Reader input, Consumer<Command> receiver) throws IOException {
+        reader = input;
+        position = 0;
+        limit = 0;
+
+        String addTag = null;
+        String commandName = null;
+        int depth = 0;
+
+        while (fill()) {
+            if (buffer[position] != '<') {
+                int start = position;
+                while (position < limit && buffer[position] != '<') {
+                    position++;
+                }
+                if (commandName != null) {
+                    command.append(buffer, start, position - start);
+                }
+                continue;
+            }
+
+            readMarkup();
+            boolean isTag = isTag();
+            if (!isTag) {
+                if (commandName != null) {
+                    command.append(markup);
+                }
+                continue;
+            }
+
+            boolean isEndTag = markup.charAt(1) == '/';
+            boolean isEmptyTag = !isEndTag && markup.charAt(markup.length() - 2) == '/';
+            String name = tagName(isEndTag ? 2 : 1);
+
+            if (commandName != null) {
+                command.append(markup);
+                if (name.equals(commandName) && !isEmptyTag) {
+                    depth += isEndTag ? -1 : 1;
+                    if (depth == 0) {
+                        receiver.accept(new Command(DOC.equals(commandName) ? addTag : null, command.toString()));
+                        commandName = null;
+                    }
+                }
+            } else if (isEndTag) {
+                if (ADD.equals(name)) {
+                    addTag = null;
+                }
+            } else if (ADD.equals(name)) {
+                addTag = isEmptyTag ? null : markup.toString();
+            } else if (DOC.equals(name) ? addTag != null : addTag == null && OTHER_COMMANDS.contains(name)) {
+                if (isEmptyTag) {
+                    receiver.accept(new Command(DOC.equals(name) ? addTag : null, markup.toString()));
+                } else {
+                    command.setLength(0);
+                    command.append(markup);
+                    commandName = name;
+                    depth = 1;
+                }
+            }
+        }
+
+        if (commandName != null) {
+            throw new IOException("Unexpected end of input in <" + commandName + ">.");
+        }
+    }
+
+    /** Reads the markup at the current position (which is a '&lt;') into {@link #markup}. */
+    private void readMarkup() throws IOException {
+        markup.setLength(0);
+        markup.append(next());
+        if (startsWith("!--")) {
+            readUntil("-->");
+        } else if (startsWith("![CDATA[")) {
+            readUntil("]]>");
+        } else if (startsWith("?")) {
+            readUntil("?>");
+        } else if (startsWith("!")) {
+            readDeclaration();
+        } else {
+            readTag();
+        }
+    }
+
+    private boolean isTag() {
+        char c = markup.charAt(1);
+        return c != '!' && c != '?';
+    }
+
+    private void readTag() throws IOException {
+        char quote = 0;
+        while (true) {
+            char c = next();
+            markup.append(c);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return;
+            }
+        }
+    }
+
+    /** Reads a declaration like <code>&lt;!DOCTYPE ...&gt;</code>, including an internal subset. */
+    private void readDeclaration() throws IOException {
+        int brackets = 0;
+        while (true) {
+            char c = next();
+            markup.append(c);
+            if (c == '[') {
+                brackets++;
+            } else if (c == ']') {
+                brackets--;
+            } else if (c == '>' && brackets == 0) {
+                return;
+            }
+        }
+    }
+
+    private void readUntil(String end) throws IOException {
+        while (markup.length() < end.length() + 1 || !endsWith(end)) {
+            markup.append(next());
+        }
+    }
+
+    /**
+     * Returns whether the markup (after the '&lt;') starts with the prefix. Reads only as many characters
+     * as needed to decide; they stay in {@link #markup}.
+     */
+    private boolean startsWith(String prefix) throws IOException {
+        for (int i = 0; i < prefix.length(); i++) {
+            if (markup.length() == i + 1) {
+                markup.append(next());
+            }
+            if (markup.charAt(i + 1) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean endsWith(String suffix) {
+        int offset = markup.length() - suffix.length();
+        for (int i = 0; i < suffix.length(); i++) {
+            if (markup.charAt(offset + i) != suffix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String tagName(int start) {
+        int end = start;
+        while (end < markup.length()) {
+            char c = markup.charAt(end);
+            if (c == '>' || c == '/' || Character.isWhitespace(c)) {
+                break;
+            }
+            end++;
+        }
+        return markup.substring(start, end);
+    }
+
+    private boolean fill() throws IOException {
+        if (position < limit) {
+            return true;
+        }
+        limit = reader.read(buffer, 0, buffer.length);
+        position = 0;
+        return limit > 0;
+    }
+
+    private char next() throws IOException {
+        if (!fill()) {
+            throw new IOException("Unexpected end of input in markup.");
+        }
+        return buffer[position++];
+    }
+
+    /**
+     * A command of an update file.
+     */
+    public static final class Command {
+
+        private final String addTag;
+        private final String xml;
+
+        public Command(String addTag, String xml) {
+            this.addTag = addTag;
+            this.xml = xml;
+        }
+
+        /** Returns the start tag of the enclosing <code>&lt;add&gt;</code> (with its attributes), or null. */
+        public String getAddTag() {
+            return addTag;
+        }
+
+        public boolean isDocument() {
+            return addTag != null;
+        }
+
+        public String getXml() {
+            return xml;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    @Test
+    public void shouldIncreaseAfterSuccessfulBatches() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 4, 2);
+        sendBatches(limiter, 2, 100, true);
+        assertThat(limiter.getLimit(), is(equalTo(3)));
+    }
+
+    @Test
+    public void shouldNotExceedMaxLimit() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 4, 2);
+        sendBatches(limiter, 50, 100, true);
+        assertThat(limiter.getLimit(), is(equalTo(4)));
+    }
+
+    @Test
+    public void shouldHalveOnFailure() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 8, 8);
+        sendBatches(limiter, 1, 100, false);
+        assertThat(limiter.getLimit(), is(equalTo(4)));
+    }
+
+    @Test
+    public void shouldHalveOnHighLatency() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 8, 8);
+        sendBatches(limiter, 1, 100, true);
+        sendBatches(limiter, 1, 1000, true);
+        assertThat(limiter.getLimit(), is(equalTo(4)));
+    }
+
+    @Test
+    public void shouldCompareLatencyWithBaselineBeforeTheBatch() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 8, 8);
+        sendBatches(limiter, 50, 100, true);
+        sendBatches(limiter, 1, 201, true);
+        assertThat(limiter.getLimit(), is(equalTo(4)));
+    }
+
+    @Test
+    public void shouldHalveOnceForConcurrentFailures() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 8, 8);
+        for (int i = 0; i < 8; i++) {
+            limiter.acquire();
+        }
+        for (int i = 0; i < 8; i++) {
+            limiter.release(100, false);
+        }
+        assertThat(limiter.getLimit(), is(equalTo(4)));
+    }
+
+    @Test
+    public void shouldNotFollowASingleFastBatch() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 8, 8);
+        sendBatches(limiter, 50, 100, true);
+        sendBatches(limiter, 1, 1, true);
+        sendBatches(limiter, 10, 100, true);
+        assertThat(limiter.getLimit(), is(equalTo(8)));
+    }
+
+    @Test
+    public void shouldNotFallBelowMinLimit() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 8, 2);
+        sendBatches(limiter, 3, 100, false);
+        assertThat(limiter.getLimit(), is(equalTo(2)));
+    }
+
+    private void sendBatches(AdaptiveConcurrencyLimiter limiter, int batches, long latencyNanos, boolean isSuccessful)
+            throws InterruptedException {
+        for (int i = 0; i < batches; i++) {
+            limiter.acquire();
+            limiter.release(latencyNanos, isSuccessful);
+        }
+    }
+}
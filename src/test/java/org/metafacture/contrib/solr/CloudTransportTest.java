@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.embedded.JettyConfig;
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.request.CollectionAdminRequest;
+import org.apache.solr.cloud.MiniSolrCloudCluster;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.cloud.DocCollection;
+import org.apache.solr.common.cloud.Replica;
+import org.apache.solr.common.cloud.Slice;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Sends documents with the cloud transport to an embedded SolrCloud cluster with two nodes,
+ * each of which leads one shard of the collection.
+ */
+public class CloudTransportTest {
+
+    private static final String COLLECTION = "test";
+
+    private static MiniSolrCloudCluster cluster;
+
+    @BeforeClass
+    public static void startCluster() throws Exception {
+        JettyConfig jettyConfig = JettyConfig.builder().setContext("/solr").withFilter(UpdateRecorder.class, "/*").build();
+
+        cluster = new MiniSolrCloudCluster(2, Files.createTempDirectory("solr-cloud"), jettyConfig);
+        cluster.uploadConfigSet(Paths.get(CloudTransportTest.class.getResource("/solr-cloud/conf").toURI()), "conf");
+        CollectionAdminRequest.createCollection(COLLECTION, "conf", 2, 1).process(cluster.getSolrClient());
+        cluster.getSolrClient().waitForState(COLLECTION, 60, TimeUnit.SECONDS, (liveNodes, collection) ->
+                collection != null && collection.getSlices().size() == 2 && collection.getSlices().stream()
+                        .allMatch(slice -> slice.getLeader() != null && slice.getLeader().getState() == Replica.State.ACTIVE));
+    }
+
+    @AfterClass
+    public static void stopCluster() throws Exception {
+        if (cluster != null) {
+            cluster.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldSendSubBatchesToTheirShardLeaders() throws Exception {
+        UpdateRecorder.clear();
+
+        SolrWriter writer = new SolrWriter(cluster.getZkServer().getZkAddress());
+        writer.setCore(COLLECTION);
+        writer.setCloud(true);
+        writer.setBatchSize(20);
+        for (int i = 0; i < 100; i++) {
+            SolrInputDocument document = new SolrInputDocument();
+            document.addField("id", String.valueOf(i));
+            writer.process(document);
+        }
+        writer.closeStream();
+        cluster.getSolrClient().commit(COLLECTION);
+
+        assertThat(cluster.getSolrClient().query(COLLECTION, new SolrQuery("*:*")).getResults().getNumFound(), is(equalTo(100L)));
+
+        // Every leader holds only the documents of its shard
+        DocCollection collection = cluster.getSolrClient().getZkStateReader().getClusterState().getCollection(COLLECTION);
+        long documents = 0;
+        for (Slice slice : collection.getSlices()) {
+            Replica leader = slice.getLeader();
+            try (HttpSolrClient client = new HttpSolrClient.Builder(leader.getBaseUrl()).build()) {
+                SolrQuery query = new SolrQuery("*:*").setRows(100);
+                query.set("distrib", false);
+                for (SolrDocument document : client.query(leader.getCoreName(), query).getResults()) {
+                    String id = (String) document.getFieldValue("id");
+                    assertThat(collection.getRouter().getTargetSlice(id, null, null, null, collection).getName(),
+                            is(equalTo(slice.getName())));
+                    documents++;
+                }
+            }
+        }
+        assertThat(documents, is(equalTo(100L)));
+
+        // The sub-batches went straight to the leaders, which did not have to forward any of them
+        assertThat(UpdateRecorder.ports.size(), is(equalTo(2)));
+        assertThat(UpdateRecorder.isForwarded, is(false));
+    }
+
+    /** Records which nodes received update requests, and whether any of them has been forwarded to a leader. */
+    public static class UpdateRecorder implements Filter {
+
+        static final Set<Integer> ports = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        static volatile boolean isForwarded;
+
+        static void clear() {
+            ports.clear();
+            isForwarded = false;
+        }
+
+        @Override
+        public void init(FilterConfig filterConfig) {
+            // Nothing to configure
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+                throws IOException, ServletException {
+            HttpServletRequest httpRequest = (HttpServletRequest) request;
+            if (httpRequest.getRequestURI().endsWith("/update")) {
+                ports.add(request.getLocalPort());
+                String queryString = httpRequest.getQueryString();
+                if (queryString != null && queryString.contains("update.distrib=TOLEADER")) {
+                    isForwarded = true;
+                }
+            }
+            chain.doFilter(request, response);
+        }
+
+        @Override
+        public void destroy() {
+            // Nothing to release
+        }
+    }
+}
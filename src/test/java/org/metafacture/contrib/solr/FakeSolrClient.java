@@ -3,11 +3,20 @@ package org.metafacture.contrib.solr;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrRequest;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.request.JavaBinUpdateRequestCodec;
+import org.apache.solr.client.solrj.request.UpdateRequest;
 import org.apache.solr.client.solrj.response.UpdateResponse;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.util.NamedList;
+import org.metafacture.framework.helpers.DefaultObjectReceiver;
+import org.metafacture.xml.XmlDecoder;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.*;
 
 /**
@@ -16,20 +25,52 @@ import java.util.*;
 public class FakeSolrClient extends SolrClient {
 
     Map<String,List<SolrInputDocument>> storage;
+    List<Integer> batchSizes;
+    Set<Object> rejectedIds;
+    List<String> deleteQueries;
+    int failures;
+    boolean isClosed;
 
     public FakeSolrClient() {
         this.storage = new HashMap<>();
+        this.batchSizes = new ArrayList<>();
+        this.rejectedIds = new HashSet<>();
+        this.deleteQueries = new ArrayList<>();
     }
 
-    public List<SolrInputDocument> getCollection(String collection) {
+    /** Lets the next requests fail, like an unavailable server does. */
+    public void fail(int failures) {
+        this.failures = failures;
+    }
+
+    /** Rejects every batch that contains a document with the given id, like Solr does for invalid documents. */
+    public void reject(Object id) {
+        rejectedIds.add(id);
+    }
+
+    public List<Integer> getBatchSizes() {
+        return batchSizes;
+    }
+
+    public synchronized List<SolrInputDocument> getCollection(String collection) {
         return storage.getOrDefault(collection, new ArrayList<>());
     }
 
     @Override
-    public UpdateResponse add(String collection, Collection<SolrInputDocument> docs, int commitWithinMs) throws SolrServerException, IOException {
+    public synchronized UpdateResponse add(String collection, Collection<SolrInputDocument> docs, int commitWithinMs) throws SolrServerException, IOException {
+        if (failures > 0) {
+            failures--;
+            throw new IOException("Service unavailable");
+        }
+        for (SolrInputDocument doc : docs) {
+            if (rejectedIds.contains(doc.getFieldValue("id"))) {
+                throw new HttpSolrClient.RemoteSolrException("localhost", 400, "Invalid document " + doc.getFieldValue("id"), null);
+            }
+        }
         if (!storage.containsKey(collection)) storage.put(collection, new ArrayList<>());
         List<SolrInputDocument> list = storage.get(collection);
         list.addAll(docs);
+        batchSizes.add(docs.size());
 
         UpdateResponse updateResponse = new UpdateResponse();
         updateResponse.setElapsedTime(0);
@@ -41,11 +82,74 @@ public class FakeSolrClient extends SolrClient {
 
     @Override
     public NamedList<Object> request(SolrRequest request, String collection) throws SolrServerException, IOException {
-        throw new UnsupportedOperationException();
+        if (request instanceof UpdateRequest) {
+            return update((UpdateRequest) request, collection);
+        }
+        if (request instanceof RawXmlUpdateRequest) {
+            return update(parse((RawXmlUpdateRequest) request), collection);
+        }
+        if (!(request instanceof SerializedUpdateRequest)) {
+            throw new UnsupportedOperationException();
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        request.getContentWriter("application/javabin").write(bytes);
+        List<SolrInputDocument> docs = new ArrayList<>();
+        new JavaBinUpdateRequestCodec().unmarshal(new ByteArrayInputStream(bytes.toByteArray()),
+                (document, req, commitWithin, override) -> docs.add(document));
+        return add(collection, docs).getResponse();
+    }
+
+    /** Handles the documents of a request first, then the deletes by id and then the deletes by query, like Solr does. */
+    private synchronized NamedList<Object> update(UpdateRequest request, String collection) throws SolrServerException, IOException {
+        NamedList<Object> response = add(collection, request.getDocuments() == null ? new ArrayList<>() : request.getDocuments()).getResponse();
+        if (request.getDeleteById() != null) {
+            getCollection(collection).removeIf(doc -> request.getDeleteById().contains(String.valueOf(doc.getFieldValue("id"))));
+        }
+        if (request.getDeleteQuery() != null) {
+            for (String query : request.getDeleteQuery()) {
+                deleteQueries.add(query);
+                if ("*:*".equals(query)) {
+                    getCollection(collection).clear();
+                }
+            }
+        }
+        return response;
+    }
+
+    /** Parses the XML of a request with {@link SolrXmlHandler}. */
+    private static UpdateRequest parse(RawXmlUpdateRequest request) throws IOException {
+        StringWriter xml = new StringWriter();
+        request.write(xml);
+
+        UpdateRequest updateRequest = new UpdateRequest();
+        XmlDecoder decoder = new XmlDecoder();
+        decoder.setReceiver(new SolrXmlHandler()).setReceiver(new DefaultObjectReceiver<SolrInputDocument>() {
+            @Override
+            public void process(SolrInputDocument document) {
+                if (!(document instanceof SolrDelete)) {
+                    updateRequest.add(document);
+                } else if (((SolrDelete) document).isById()) {
+                    updateRequest.deleteById(((SolrDelete) document).getId());
+                } else {
+                    updateRequest.deleteByQuery(((SolrDelete) document).getQuery());
+                }
+            }
+        });
+        decoder.process(new StringReader(xml.toString()));
+        decoder.closeStream();
+        return updateRequest;
+    }
+
+    public List<String> getDeleteQueries() {
+        return deleteQueries;
+    }
+
+    public boolean isClosed() {
+        return isClosed;
     }
 
     @Override
     public void close() throws IOException {
-        throw new UnsupportedOperationException();
+        isClosed = true;
     }
 }
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.solr.client.solrj.request.JavaBinUpdateRequestCodec;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.common.util.NamedList;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A small HTTP server, that speaks the javabin protocol of the Solr update handler
+ * (<code>/solr/&lt;core&gt;/update</code>) and stores the added documents in memory.
+ *
+ * Latency, errors (HTTP 500/503 or stalled connections, that are dropped without a response)
+ * and a bandwidth limit can be injected to reproduce a slow or failing server.
+ */
+public class FakeSolrServer implements AutoCloseable {
+
+    private static final String JAVABIN_CONTENT_TYPE = "application/javabin";
+    private static final String UPDATE_PATH = "/update";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private final Map<String,List<SolrInputDocument>> storage;
+    private final LongAdder requests;
+    private final LongAdder documents;
+    private final LongAdder bytesReceived;
+    private final AtomicInteger failNext;
+
+    private volatile boolean storeDocuments;
+    private volatile int latencyMs;
+    private volatile double errorRate;
+    private volatile int errorCode;
+    private volatile int failNextCode;
+    private volatile double stallRate;
+    private volatile int stallMs;
+    private volatile int bytesPerSecond;
+
+    public FakeSolrServer() throws IOException {
+        this.storage = new HashMap<>();
+        this.requests = new LongAdder();
+        this.documents = new LongAdder();
+        this.bytesReceived = new LongAdder();
+        this.failNext = new AtomicInteger();
+        this.storeDocuments = true;
+        this.errorCode = 503;
+        this.failNextCode = 503;
+
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "fake-solr-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server.setExecutor(executor);
+        this.server.createContext("/solr", this::handle);
+        this.server.start();
+    }
+
+    /** Returns the base URL of the server (without core). */
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/solr";
+    }
+
+    /** Keeps only counters, if false (e.g. for load tests). */
+    public void setStoreDocuments(boolean storeDocuments) {
+        this.storeDocuments = storeDocuments;
+    }
+
+    /** Delays every response by the given time (in ms). */
+    public void setLatencyMs(int latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    /** Answers the given fraction of requests with the given HTTP status code. */
+    public void setErrorRate(double errorRate, int errorCode) {
+        this.errorRate = errorRate;
+        this.errorCode = errorCode;
+    }
+
+    /** Answers the next requests with the given HTTP status code. */
+    public void failNext(int count, int errorCode) {
+        this.failNextCode = errorCode;
+        this.failNext.set(count);
+    }
+
+    /** Stalls the given fraction of requests for the given time (in ms) and drops them without a response. */
+    public void setStallRate(double stallRate, int stallMs) {
+        this.stallRate = stallRate;
+        this.stallMs = stallMs;
+    }
+
+    /** Limits the rate (in bytes per second) in which a request body is read, values &lt;= 0 mean unlimited. */
+    public void setBytesPerSecond(int bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public synchronized List<SolrInputDocument> getCollection(String core) {
+        return new ArrayList<>(storage.getOrDefault(core, new ArrayList<>()));
+    }
+
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    public long getDocumentCount() {
+        return documents.sum();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requests.increment();
+
+            String path = exchange.getRequestURI().getPath();
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            if (!path.endsWith(UPDATE_PATH) || contentType == null || !contentType.startsWith(JAVABIN_CONTENT_TYPE)) {
+                sendError(exchange, 400, "Unsupported request: " + path + " (" + contentType + ")");
+                return;
+            }
+            String core = path.substring("/solr/".length(), path.length() - UPDATE_PATH.length());
+
+            List<SolrInputDocument> docs = new ArrayList<>();
+            UpdateRequest updateRequest;
+            try (InputStream in = openBody(exchange)) {
+                updateRequest = new JavaBinUpdateRequestCodec().unmarshal(in,
+                        (document, req, commitWithin, override) -> docs.add(document));
+            }
+
+            sleep(latencyMs);
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (random.nextDouble() < stallRate) {
+                sleep(stallMs);
+                // Drop the connection without a response
+                return;
+            }
+            if (failNext.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                sendError(exchange, failNextCode, "Injected error");
+                return;
+            }
+            if (random.nextDouble() < errorRate) {
+                sendError(exchange, errorCode, "Injected error");
+                return;
+            }
+
+            store(core, docs, updateRequest);
+            sendResponse(exchange);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private InputStream openBody(HttpExchange exchange) throws IOException {
+        InputStream in = new CountingInputStream(exchange.getRequestBody());
+        if (bytesPerSecond > 0) {
+            in = new ThrottledInputStream(in, bytesPerSecond);
+        }
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        return in;
+    }
+
+    private synchronized void store(String core, List<SolrInputDocument> docs, UpdateRequest updateRequest) {
+        documents.add(docs.size());
+        if (!storeDocuments) {
+            return;
+        }
+        List<SolrInputDocument> collection = storage.computeIfAbsent(core, k -> new ArrayList<>());
+        collection.addAll(docs);
+        if (updateRequest != null && updateRequest.getDeleteById() != null) {
+            collection.removeIf(doc -> updateRequest.getDeleteById().contains(String.valueOf(doc.getFieldValue("id"))));
+        }
+    }
+
+    private static void sendResponse(HttpExchange exchange) throws IOException {
+        NamedList<Object> header = new NamedList<>();
+        header.add("status", 0);
+        header.add("QTime", 0);
+        NamedList<Object> response = new NamedList<>();
+        response.add("responseHeader", header);
+
+        boolean isGzip = acceptsGzip(exchange);
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        if (isGzip) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        if (isGzip) {
+            out = new GZIPOutputStream(out);
+        }
+        try (OutputStream body = out) {
+            new JavaBinCodec().marshal(response, body);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int code, String message) throws IOException {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(bytes);
+        }
+    }
+
+    private static boolean acceptsGzip(HttpExchange exchange) {
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        return acceptEncoding != null && acceptEncoding.contains("gzip");
+    }
+
+    private static void sleep(int ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                bytesReceived.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                bytesReceived.add(n);
+            }
+            return n;
+        }
+    }
+
+    private static class ThrottledInputStream extends FilterInputStream {
+
+        private static final int CHUNK_SIZE = 8 * 1024;
+
+        private final int bytesPerSecond;
+        private final long start;
+        private long bytes;
+
+        ThrottledInputStream(InputStream in, int bytesPerSecond) {
+            super(in);
+            this.bytesPerSecond = bytesPerSecond;
+            this.start = System.nanoTime();
+        }
+
+        @Override
+        public int read() throws IOException {
+            throttle(1);
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, Math.min(len, CHUNK_SIZE));
+            if (n > 0) {
+                throttle(n);
+            }
+            return n;
+        }
+
+        private void throttle(int n) {
+            bytes += n;
+            long expectedNanos = bytes * 1_000_000_000L / bytesPerSecond;
+            long aheadMs = (expectedNanos - (System.nanoTime() - start)) / 1_000_000;
+            sleep((int) aheadMs);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void shouldCountSmallValuesExactly() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 4; i++) {
+            histogram.record(i);
+        }
+        assertThat(histogram.getCount(), is(equalTo(4L)));
+        assertThat(histogram.getPercentile(0.5), is(equalTo(2L)));
+        assertThat(histogram.getPercentile(1.0), is(equalTo(4L)));
+        assertThat(histogram.getMean(), is(equalTo(2.5)));
+    }
+
+    @Test
+    public void shouldBoundPercentileError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10_000; i++) {
+            histogram.record(i);
+        }
+        long p99 = histogram.getPercentile(0.99);
+        assertTrue(p99 >= 9_900 && p99 <= 9_900 * 1.125);
+        assertThat(histogram.getMax(), is(equalTo(10_000L)));
+    }
+
+    @Test
+    public void shouldMapValuesToTheirBuckets() {
+        for (long value : new long[] {0, 7, 8, 15, 16, 1_000, 123_456_789L, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(value <= LatencyHistogram.highestValueOf(index));
+            assertTrue(index == 0 || value > LatencyHistogram.highestValueOf(index - 1));
+        }
+    }
+
+    @Test
+    public void shouldReturnZeroWhenEmpty() {
+        assertThat(new LatencyHistogram().getPercentile(0.99), is(equalTo(0L)));
+    }
+}
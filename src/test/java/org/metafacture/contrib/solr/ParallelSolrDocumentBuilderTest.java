@@ -0,0 +1,256 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Before;
+import org.junit.Test;
+import org.metafacture.framework.MetafactureException;
+import org.metafacture.framework.StreamReceiver;
+import org.metafacture.framework.helpers.DefaultObjectReceiver;
+import org.metafacture.framework.helpers.DefaultStreamPipe;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ParallelSolrDocumentBuilderTest {
+
+    private ParallelSolrDocumentBuilder builder;
+    private List<SolrInputDocument> documents;
+
+    @Before
+    public void setUp() {
+        documents = Collections.synchronizedList(new ArrayList<>());
+        builder = new ParallelSolrDocumentBuilder();
+        builder.setThreads(4);
+        builder.setReceiver(new DefaultObjectReceiver<SolrInputDocument>() {
+            @Override
+            public void process(SolrInputDocument document) {
+                documents.add(document);
+            }
+        });
+    }
+
+    @Test
+    public void shouldBuildAllDocuments() {
+        for (int i = 0; i < 1000; i++) {
+            builder.startRecord(String.valueOf(i));
+            builder.literal("id", String.valueOf(i));
+            builder.literal("name", "alice");
+            builder.endRecord();
+        }
+        builder.closeStream();
+
+        Set<Object> ids = new HashSet<>();
+        for (SolrInputDocument document : documents) {
+            ids.add(document.getFieldValue("id"));
+            assertThat(document.getFieldValue("name"), is(equalTo("alice")));
+        }
+        assertThat(documents.size(), is(equalTo(1000)));
+        assertThat(ids.size(), is(equalTo(1000)));
+    }
+
+    @Test
+    public void shouldPassDocumentsWithInvalidValuesToDeadLetterReceiver() throws Exception {
+        List<RejectedDocument> rejectedDocuments = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean isClosed = new AtomicBoolean();
+        builder.setSchema(SolrSchemaTest.schemaPath());
+        builder.setDeadLetterReceiver(new DefaultObjectReceiver<RejectedDocument>() {
+            @Override
+            public void process(RejectedDocument rejectedDocument) {
+                rejectedDocuments.add(rejectedDocument);
+            }
+
+            @Override
+            public void closeStream() {
+                isClosed.set(true);
+            }
+        });
+        for (int i = 0; i < 1000; i++) {
+            builder.startRecord(String.valueOf(i));
+            builder.literal("id", String.valueOf(i));
+            builder.literal("year", i % 10 == 0 ? "unknown" : "2018");
+            builder.endRecord();
+        }
+        builder.closeStream();
+
+        assertThat(documents.size(), is(equalTo(900)));
+        assertThat(rejectedDocuments.size(), is(equalTo(100)));
+        assertThat(isClosed.get(), is(true));
+    }
+
+    @Test
+    public void shouldKeepOrderPerId() {
+        builder.setOrder("id");
+        for (int i = 0; i < 1000; i++) {
+            builder.startRecord(String.valueOf(i));
+            builder.literal("id", "doc" + i % 10);
+            builder.startEntity("set");
+            builder.literal("version", String.valueOf(i));
+            builder.endEntity();
+            builder.endRecord();
+        }
+        builder.closeStream();
+
+        Map<Object,Integer> lastVersions = new HashMap<>();
+        for (SolrInputDocument document : documents) {
+            Map<?,?> update = (Map<?,?>) document.getFieldValue("version");
+            int version = Integer.parseInt((String) update.get("set"));
+            Integer last = lastVersions.put(document.getFieldValue("id"), version);
+            assertThat(last == null || last < version, is(true));
+        }
+        assertThat(documents.size(), is(equalTo(1000)));
+    }
+
+    @Test
+    public void shouldPassOnDeleteByQueryAfterEarlierDocuments() {
+        builder.setOrder("id");
+        for (int i = 0; i < 2000; i++) {
+            if (i == 1000) {
+                builder.startRecord("delete");
+                builder.startEntity("delete");
+                builder.literal("query", "*:*");
+                builder.endEntity();
+                builder.endRecord();
+            }
+            builder.startRecord(String.valueOf(i));
+            builder.literal("id", String.valueOf(i));
+            builder.endRecord();
+        }
+        builder.closeStream();
+
+        assertThat(documents.size(), is(equalTo(2001)));
+        assertThat(((SolrDelete) documents.get(1000)).getQuery(), is(equalTo("*:*")));
+        for (int i = 0; i < 1000; i++) {
+            assertThat(Integer.parseInt((String) documents.get(i).getFieldValue("id")) < 1000, is(true));
+        }
+    }
+
+    @Test
+    public void shouldApplyTransformation() {
+        builder.setTransformation(() -> new DefaultStreamPipe<StreamReceiver>() {
+            @Override
+            public void startRecord(String identifier) {
+                getReceiver().startRecord(identifier);
+            }
+
+            @Override
+            public void endRecord() {
+                getReceiver().endRecord();
+            }
+
+            @Override
+            public void literal(String name, String value) {
+                getReceiver().literal(name, value.toUpperCase());
+            }
+        });
+        builder.startRecord("1");
+        builder.literal("name", "alice");
+        builder.endRecord();
+        builder.closeStream();
+
+        assertThat(documents.size(), is(equalTo(1)));
+        assertThat(documents.get(0).getFieldValue("name"), is(equalTo("ALICE")));
+    }
+
+    @Test
+    public void shouldApplyMorphOnWorkers() {
+        builder.setMorph("morph/title.xml");
+        for (int i = 0; i < 100; i++) {
+            builder.startRecord(String.valueOf(i));
+            builder.literal("id", String.valueOf(i));
+            builder.literal("name", "alice");
+            builder.endRecord();
+        }
+        builder.closeStream();
+
+        assertThat(documents.size(), is(equalTo(100)));
+        for (SolrInputDocument document : documents) {
+            assertThat(document.getFieldValue("title"), is(equalTo("ALICE")));
+            assertThat(document.getFieldValue("name"), is(nullValue()));
+        }
+    }
+
+    @Test
+    public void shouldApplyFluxCommandOnWorkers() {
+        builder.setPipe("normalize-unicode-stream");
+        builder.startRecord("1");
+        builder.literal("name", "Mu\u0308nchen");
+        builder.endRecord();
+        builder.closeStream();
+
+        assertThat(documents.get(0).getFieldValue("name"), is(equalTo("M\u00fcnchen")));
+    }
+
+    @Test(expected = MetafactureException.class)
+    public void shouldRejectUnknownPipe() {
+        builder.setPipe("no-such-command");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectMorphAndPipe() {
+        builder.setMorph("morph/title.xml");
+        builder.setPipe("normalize-unicode-stream");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidNumberOfThreads() {
+        builder.setThreads(0);
+    }
+
+    @Test
+    public void shouldCloseReceiverAfterFailureOfWorker() {
+        AtomicBoolean isClosed = new AtomicBoolean();
+        builder.setReceiver(new DefaultObjectReceiver<SolrInputDocument>() {
+            @Override
+            public void closeStream() {
+                isClosed.set(true);
+            }
+        });
+        builder.startRecord("1");
+        builder.startEntity("invalid");
+        builder.endEntity();
+        builder.endRecord();
+
+        try {
+            builder.closeStream();
+        } catch (MetafactureException e) {
+            assertThat(isClosed.get(), is(true));
+            return;
+        }
+        fail("Expected the failure of the worker");
+    }
+
+    @Test(expected = MetafactureException.class)
+    public void shouldPassOnFailureOfWorker() {
+        builder.startRecord("1");
+        builder.startEntity("invalid");
+        builder.literal("name", "alice");
+        builder.endEntity();
+        builder.endRecord();
+        builder.closeStream();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class RejectedDocumentWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldWriteSolrXmlWithReason() throws IOException {
+        File file = folder.newFile("rejected.xml");
+
+        SolrInputDocument document = new SolrInputDocument();
+        document.addField("id", "1");
+
+        RejectedDocumentWriter writer = new RejectedDocumentWriter(file.getPath());
+        writer.process(new RejectedDocument(document, "Invalid --- value"));
+        writer.process(new RejectedDocument(SolrDelete.byQuery("year:[* TO 2000}"), "Invalid query"));
+        writer.process(new RejectedDocument(SolrDelete.byId("<2>"), "Timeout"));
+        writer.closeStream();
+
+        String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        String expectedContent = "<update>\n" +
+                "<!-- Invalid - - - value -->\n" +
+                "<add><doc><field name=\"id\">1</field></doc></add>\n" +
+                "<!-- Invalid query -->\n" +
+                "<delete><query>year:[* TO 2000}</query></delete>\n" +
+                "<!-- Timeout -->\n" +
+                "<delete><id>&lt;2&gt;</id></delete>\n" +
+                "</update>\n";
+        assertThat(content, is(equalTo(expectedContent)));
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class RetryBudgetTest {
+
+    @Test
+    public void shouldRunDry() {
+        RetryBudget budget = new RetryBudget(2);
+        assertThat(budget.tryAcquire(), is(true));
+        assertThat(budget.tryAcquire(), is(true));
+        assertThat(budget.tryAcquire(), is(false));
+    }
+
+    @Test
+    public void shouldRefillOnSuccess() {
+        RetryBudget budget = new RetryBudget(1);
+        budget.tryAcquire();
+        for (int i = 0; i < 10; i++) {
+            budget.onSuccess();
+        }
+        assertThat(budget.tryAcquire(), is(true));
+    }
+
+    @Test
+    public void shouldNotExceedMaxTokens() {
+        RetryBudget budget = new RetryBudget(1);
+        budget.onSuccess();
+        assertThat(budget.getTokens(), is(equalTo(1.0)));
+    }
+}
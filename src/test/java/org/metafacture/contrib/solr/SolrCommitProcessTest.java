@@ -77,6 +77,238 @@ public class SolrCommitProcessTest {
         assertThat(collection, hasItems(doc1, doc2, doc3));
     }
 
+    @Test
+    public void shouldReceiveBufferedDocumentsBeforePoison() {
+        One2AnyChannel<SolrInputDocument> bufferedChannel = Channel.one2any(new SolrDocumentBuffer(10, 0), noPoisonImmunity);
+
+        SolrInputDocument doc1 = new SolrInputDocument();
+        doc1.addField("id", "1");
+
+        SolrInputDocument doc2 = new SolrInputDocument();
+        doc2.addField("id", "2");
+
+        List<SolrInputDocument> docs = Stream.of(doc1, doc2).collect(Collectors.toList());
+
+        Parallel parallel = new Parallel();
+        parallel.addProcess(new SendProcess(bufferedChannel.out(), docs));
+        parallel.run();
+
+        parallel = new Parallel();
+        parallel.addProcess(new SolrCommitProcess(bufferedChannel.in(), new Barrier(1), client, "test"));
+        parallel.run();
+
+        assertThat(client.getCollection("test"), hasItems(doc1, doc2));
+    }
+
+    @Test
+    public void shouldFlushOnMaxBatchBytes() {
+        SolrInputDocument doc1 = new SolrInputDocument();
+        doc1.addField("id", "1");
+
+        SolrInputDocument doc2 = new SolrInputDocument();
+        doc2.addField("id", "2");
+
+        SolrInputDocument doc3 = new SolrInputDocument();
+        doc3.addField("id", "3");
+
+        List<SolrInputDocument> docs = Stream.of(doc1, doc2, doc3).collect(Collectors.toList());
+
+        CSProcess send = new SendProcess(documentChannel.out(), docs);
+        SolrCommitProcess commit = new SolrCommitProcess(documentChannel.in(), new Barrier(1), client, "test");
+        commit.setBatchSize(10);
+        commit.setMaxBatchBytes((int) (DocumentSizeEstimator.estimate(doc1) * 2));
+
+        Parallel parallel = new Parallel();
+        parallel.addProcess(send);
+        parallel.addProcess(commit);
+        parallel.run();
+
+        assertThat(client.getCollection("test").size(), is(equalTo(3)));
+        assertThat(client.getBatchSizes(), is(equalTo(Stream.of(2, 1).collect(Collectors.toList()))));
+    }
+
+    @Test
+    public void shouldFlushPartialBatchAfterLinger() {
+        SolrInputDocument doc1 = new SolrInputDocument();
+        doc1.addField("id", "1");
+
+        List<Integer> committedBeforeClose = new ArrayList<>();
+        CSProcess send = () -> {
+            documentChannel.out().write(doc1);
+            new CSTimer().sleep(500);
+            committedBeforeClose.add(client.getCollection("test").size());
+            documentChannel.out().poison(1);
+        };
+        SolrCommitProcess commit = new SolrCommitProcess(documentChannel.in(), new Barrier(1), client, "test");
+        commit.setBatchSize(10);
+        commit.setLingerMs(50);
+
+        Parallel parallel = new Parallel();
+        parallel.addProcess(send);
+        parallel.addProcess(commit);
+        parallel.run();
+
+        assertThat(committedBeforeClose, hasItems(1));
+        assertThat(client.getCollection("test").size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void shouldBisectRejectedBatch() {
+        List<SolrInputDocument> docs = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            SolrInputDocument doc = new SolrInputDocument();
+            doc.addField("id", String.valueOf(i));
+            docs.add(doc);
+        }
+        client.reject("5");
+
+        ObjectBuffer<RejectedDocument> deadLetters = new ObjectBuffer<>();
+        CSProcess send = new SendProcess(documentChannel.out(), docs);
+        SolrCommitProcess commit = new SolrCommitProcess(documentChannel.in(), new Barrier(1), client, "test");
+        commit.setBatchSize(8);
+        commit.setMaxRetries(3);
+        commit.setDeadLetterReceiver(deadLetters);
+
+        Parallel parallel = new Parallel();
+        parallel.addProcess(send);
+        parallel.addProcess(commit);
+        parallel.run();
+
+        List<SolrInputDocument> collection = client.getCollection("test");
+        assertThat(collection.size(), is(equalTo(7)));
+        assertThat(collection, not(hasItem(docs.get(5))));
+        assertThat(deadLetters.getObject().getDocument(), is(sameInstance(docs.get(5))));
+        assertThat(deadLetters.getObject().getReason(), containsString("Invalid document 5"));
+    }
+
+    @Test
+    public void shouldRetryUnavailableServer() {
+        SolrInputDocument doc1 = new SolrInputDocument();
+        doc1.addField("id", "1");
+        client.fail(2);
+
+        CSProcess send = new SendProcess(documentChannel.out(), Stream.of(doc1).collect(Collectors.toList()));
+        SolrCommitProcess commit = new SolrCommitProcess(documentChannel.in(), new Barrier(1), client, "test");
+        commit.setMaxRetries(2);
+        commit.setWaitMs(1);
+
+        Parallel parallel = new Parallel();
+        parallel.addProcess(send);
+        parallel.addProcess(commit);
+        parallel.run();
+
+        assertThat(client.getCollection("test"), hasItems(doc1));
+    }
+
+    @Test
+    public void shouldRecordMetrics() {
+        SolrInputDocument doc1 = new SolrInputDocument();
+        doc1.addField("id", "1");
+
+        SolrInputDocument doc2 = new SolrInputDocument();
+        doc2.addField("id", "2");
+        client.fail(1);
+
+        SolrMetrics metrics = new SolrMetrics();
+        CSProcess send = new SendProcess(documentChannel.out(), Stream.of(doc1, doc2).collect(Collectors.toList()));
+        SolrCommitProcess commit = new SolrCommitProcess(documentChannel.in(), new Barrier(1), client, "test");
+        commit.setBatchSize(2);
+        commit.setMaxRetries(1);
+        commit.setWaitMs(1);
+        commit.setMetrics(metrics);
+
+        Parallel parallel = new Parallel();
+        parallel.addProcess(send);
+        parallel.addProcess(commit);
+        parallel.run();
+
+        assertThat(metrics.getDocuments(), is(equalTo(2L)));
+        assertThat(metrics.getBatches(), is(equalTo(1L)));
+        assertThat(metrics.getFailures(), is(equalTo(1L)));
+        assertThat(metrics.getRetries(), is(equalTo(1L)));
+        assertThat(metrics.getSendLatency().getCount(), is(equalTo(2L)));
+        assertThat(metrics.getBusyThreads(), is(equalTo(0)));
+        assertThat(metrics.getInFlightBytes(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void shouldKeepOrderOfAddsAndDeletes() {
+        SolrInputDocument doc1 = new SolrInputDocument();
+        doc1.addField("id", "1");
+
+        SolrInputDocument doc2 = new SolrInputDocument();
+        doc2.addField("id", "2");
+
+        SolrInputDocument doc1Again = new SolrInputDocument();
+        doc1Again.addField("id", "1");
+
+        List<SolrInputDocument> docs = Stream.of(doc1, doc2, SolrDelete.byId("2"), SolrDelete.byId("1"), doc1Again)
+                .collect(Collectors.toList());
+
+        CSProcess send = new SendProcess(documentChannel.out(), docs);
+        SolrCommitProcess commit = new SolrCommitProcess(documentChannel.in(), new Barrier(1), client, "test");
+        commit.setBatchSize(10);
+
+        Parallel parallel = new Parallel();
+        parallel.addProcess(send);
+        parallel.addProcess(commit);
+        parallel.run();
+
+        // One request for the adds and deletes, another one for the add after the deletes
+        assertThat(client.getBatchSizes(), is(equalTo(Stream.of(2, 1).collect(Collectors.toList()))));
+        assertThat(client.getCollection("test"), is(equalTo(Stream.of(doc1Again).collect(Collectors.toList()))));
+    }
+
+    @Test
+    public void shouldNotRetryWithoutBudget() {
+        SolrInputDocument doc1 = new SolrInputDocument();
+        doc1.addField("id", "1");
+        client.fail(1);
+
+        ObjectBuffer<RejectedDocument> deadLetters = new ObjectBuffer<>();
+        CSProcess send = new SendProcess(documentChannel.out(), Stream.of(doc1).collect(Collectors.toList()));
+        SolrCommitProcess commit = new SolrCommitProcess(documentChannel.in(), new Barrier(1), client, "test");
+        commit.setMaxRetries(2);
+        commit.setWaitMs(1);
+        commit.setRetryBudget(new RetryBudget(0));
+        commit.setDeadLetterReceiver(deadLetters);
+
+        Parallel parallel = new Parallel();
+        parallel.addProcess(send);
+        parallel.addProcess(commit);
+        parallel.run();
+
+        assertThat(client.getCollection("test").size(), is(equalTo(0)));
+        assertThat(deadLetters.getObject().getDocument(), is(sameInstance(doc1)));
+    }
+
+    @Test
+    public void shouldSendSerializedBatches() {
+        SolrInputDocument doc1 = new SolrInputDocument();
+        doc1.addField("id", "1");
+
+        SolrInputDocument doc2 = new SolrInputDocument();
+        doc2.addField("id", "2");
+        client.fail(1);
+
+        CSProcess send = new SendProcess(documentChannel.out(), Stream.of(doc1, doc2).collect(Collectors.toList()));
+        SolrCommitProcess commit = new SolrCommitProcess(documentChannel.in(), new Barrier(1), client, "test");
+        commit.setBatchSize(2);
+        commit.setMaxRetries(1);
+        commit.setWaitMs(1);
+        commit.setSerializeOnce(true);
+
+        Parallel parallel = new Parallel();
+        parallel.addProcess(send);
+        parallel.addProcess(commit);
+        parallel.run();
+
+        List<SolrInputDocument> collection = client.getCollection("test");
+        assertThat(collection.size(), is(equalTo(2)));
+        assertThat(collection.get(0).getFieldValue("id"), is(equalTo("1")));
+        assertThat(collection.get(1).getFieldValue("id"), is(equalTo("2")));
+    }
+
     /** A simple producer process that puts elements into a channel. */
     class SendProcess implements CSProcess {
 
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.jcsp.util.ChannelDataStore;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SolrDocumentBufferTest {
+
+    @Test
+    public void shouldBeFullAtCapacity() {
+        SolrDocumentBuffer buffer = new SolrDocumentBuffer(2, 0);
+        assertThat(buffer.getState(), is(equalTo(ChannelDataStore.EMPTY)));
+
+        buffer.put(document("1"));
+        assertThat(buffer.getState(), is(equalTo(ChannelDataStore.NONEMPTYFULL)));
+
+        buffer.put(document("2"));
+        assertThat(buffer.getState(), is(equalTo(ChannelDataStore.FULL)));
+        assertThat(buffer.size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void shouldBeFullAtMaxBytes() {
+        SolrInputDocument document = document("1");
+        long documentBytes = DocumentSizeEstimator.estimate(document);
+        SolrDocumentBuffer buffer = new SolrDocumentBuffer(0, documentBytes);
+
+        buffer.put(document);
+        assertThat(buffer.getState(), is(equalTo(ChannelDataStore.FULL)));
+        assertThat(buffer.bytes(), is(equalTo(documentBytes)));
+    }
+
+    @Test
+    public void shouldNotEstimateWithoutMaxBytes() {
+        SolrDocumentBuffer buffer = new SolrDocumentBuffer(2, 0);
+
+        buffer.put(document("1"));
+        assertThat(buffer.bytes(), is(equalTo(0L)));
+        buffer.get();
+        assertThat(buffer.size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void shouldReturnDocumentsInOrder() {
+        SolrInputDocument doc1 = document("1");
+        SolrInputDocument doc2 = document("2");
+        SolrDocumentBuffer buffer = new SolrDocumentBuffer(2, 0);
+        buffer.put(doc1);
+        buffer.put(doc2);
+
+        assertThat(buffer.startGet(), is(sameInstance(doc1)));
+        buffer.endGet();
+        assertThat(buffer.get(), is(sameInstance(doc2)));
+        assertThat(buffer.size(), is(equalTo(0)));
+        assertThat(buffer.bytes(), is(equalTo(0L)));
+    }
+
+    private SolrInputDocument document(String id) {
+        SolrInputDocument document = new SolrInputDocument();
+        document.addField("id", id);
+        return document;
+    }
+}
@@ -18,8 +18,10 @@ package org.metafacture.contrib.solr;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.SolrInputField;
 import org.junit.Before;
+import org.metafacture.framework.helpers.DefaultObjectReceiver;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -160,4 +162,122 @@ public class SolrDocumentBuilderTest {
 
         assertThat(document.toString(), is(equalTo(expectedDocument)));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldKeepFieldsOfRecordsWithChangingFields() {
+        List<SolrInputDocument> documents = new ArrayList<>();
+        builder.setReceiver(new DefaultObjectReceiver<SolrInputDocument>() {
+            @Override
+            public void process(SolrInputDocument document) {
+                documents.add(document);
+            }
+        });
+
+        for (int i = 0; i < 100; i++) {
+            builder.startRecord(String.valueOf(i));
+            builder.literal(new String("id"), String.valueOf(i));
+            for (int f = 0; f < i % 20; f++) {
+                builder.literal("field_" + ((i + f) % 7), "value");
+            }
+            builder.endRecord();
+        }
+        builder.closeStream();
+
+        assertThat(documents.size(), is(equalTo(100)));
+        for (int i = 0; i < 100; i++) {
+            SolrInputDocument document = documents.get(i);
+            assertThat(document.getFieldValue("id"), is(equalTo((Object) String.valueOf(i))));
+            int values = 0;
+            for (String name : document.getFieldNames()) {
+                values += document.getField(name).getValueCount();
+            }
+            assertThat(values, is(equalTo(1 + i % 20)));
+        }
+    }
+
+    @Test
+    public void shouldCreateDeletes() {
+        List<SolrInputDocument> documents = new ArrayList<>();
+        builder.setReceiver(new DefaultObjectReceiver<SolrInputDocument>() {
+            @Override
+            public void process(SolrInputDocument document) {
+                documents.add(document);
+            }
+        });
+
+        builder.startRecord("1");
+        builder.startEntity("delete");
+        builder.literal("id", "1");
+        builder.literal("query", "name:alice");
+        builder.endEntity();
+        builder.endRecord();
+        builder.closeStream();
+
+        assertThat(documents.size(), is(equalTo(2)));
+        assertThat(((SolrDelete) documents.get(0)).getId(), is(equalTo("1")));
+        assertThat(((SolrDelete) documents.get(1)).getQuery(), is(equalTo("name:alice")));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldConvertValuesToTheirFieldTypes() throws Exception {
+        builder.setSchema(SolrSchemaTest.schemaPath());
+
+        builder.startRecord("1");
+        builder.literal("id", "1");
+        builder.literal("year", "2018");
+        builder.startEntity("inc");
+        builder.literal("size", "5");
+        builder.endEntity();
+        builder.endRecord();
+        builder.closeStream();
+
+        SolrInputDocument document = buffer.getObject();
+        assertThat(document.getFieldValue("id"), is(equalTo((Object) "1")));
+        assertThat(document.getFieldValue("year"), is(equalTo((Object) 2018)));
+        assertThat(((Map<String,Object>) document.getFieldValue("size")).get("inc"), is(equalTo((Object) 5L)));
+    }
+
+    @Test
+    public void shouldDropDocumentsWithInvalidValues() throws Exception {
+        List<SolrInputDocument> documents = new ArrayList<>();
+        builder.setReceiver(new DefaultObjectReceiver<SolrInputDocument>() {
+            @Override
+            public void process(SolrInputDocument document) {
+                documents.add(document);
+            }
+        });
+        builder.setSchema(SolrSchemaTest.schemaPath());
+
+        builder.startRecord("1");
+        builder.literal("id", "1");
+        builder.literal("year", "not a number");
+        builder.endRecord();
+        builder.startRecord("2");
+        builder.literal("id", "2");
+        builder.literal("year", "2018");
+        builder.endRecord();
+        builder.closeStream();
+
+        assertThat(documents.size(), is(equalTo(1)));
+        assertThat(documents.get(0).getFieldValue("id"), is(equalTo((Object) "2")));
+    }
+
+    @Test
+    public void shouldPassDocumentsWithInvalidValuesToDeadLetterReceiver() throws Exception {
+        ObjectBuffer<RejectedDocument> deadLetters = new ObjectBuffer<>();
+        builder.setDeadLetterReceiver(deadLetters);
+        builder.setSchema(SolrSchemaTest.schemaPath());
+
+        builder.startRecord("1");
+        builder.literal("id", "1");
+        builder.literal("year", "not a number");
+        builder.endRecord();
+        builder.closeStream();
+
+        assertThat(buffer.getObject(), is(nullValue()));
+        RejectedDocument rejectedDocument = deadLetters.getObject();
+        assertThat(rejectedDocument.getDocument().getFieldValue("year"), is(equalTo((Object) "not a number")));
+        assertThat(rejectedDocument.getReason(), containsString("'not a number' is no valid"));
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SolrDocumentCoalescerTest {
+
+    private List<SolrInputDocument> output;
+    private SolrDocumentCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        output = new ArrayList<>();
+        coalescer = new SolrDocumentCoalescer("id", 10, 0);
+    }
+
+    @Test
+    public void shouldKeepLastFullDocument() {
+        coalescer.add(document("1", "name", "alice"), 0, output::add);
+        coalescer.add(document("1", "name", "bob"), 0, output::add);
+        coalescer.drain(output::add);
+
+        assertThat(output.size(), is(equalTo(1)));
+        assertThat(output.get(0).getFieldValue("name"), is(equalTo("bob")));
+        assertThat(coalescer.getMergedDocuments(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void shouldApplyUpdatesToFullDocument() {
+        SolrInputDocument full = document("1", "name", "alice");
+        full.addField("count", "1");
+        coalescer.add(full, 0, output::add);
+        coalescer.add(update("1", "name", "add", "bob"), 0, output::add);
+        coalescer.add(update("1", "count", "inc", "2"), 0, output::add);
+        coalescer.add(update("1", "tag", "set", "new"), 0, output::add);
+        coalescer.drain(output::add);
+
+        assertThat(output.size(), is(equalTo(1)));
+        SolrInputDocument document = output.get(0);
+        assertThat(document.getFieldValues("name"), hasItems("alice", "bob"));
+        assertThat(document.getFieldValue("count"), is(equalTo("3")));
+        assertThat(document.getFieldValue("tag"), is(equalTo("new")));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldMergeOperationsOfUpdates() {
+        coalescer.add(update("1", "name", "add", "alice"), 0, output::add);
+        coalescer.add(update("1", "name", "add", "bob"), 0, output::add);
+        coalescer.add(update("1", "count", "inc", "1"), 0, output::add);
+        coalescer.add(update("1", "count", "inc", "2"), 0, output::add);
+        coalescer.drain(output::add);
+
+        assertThat(output.size(), is(equalTo(1)));
+        Map<String,Object> name = (Map<String,Object>) output.get(0).getFieldValue("name");
+        assertThat((List<Object>) name.get("add"), is(equalTo(Arrays.asList("alice", "bob"))));
+        Map<String,Object> count = (Map<String,Object>) output.get(0).getFieldValue("count");
+        assertThat(count.get("inc"), is(equalTo("3")));
+    }
+
+    @Test
+    public void shouldKeepOrderOfConflictingUpdates() {
+        SolrInputDocument add = update("1", "name", "add", "alice");
+        SolrInputDocument remove = update("1", "name", "remove", "alice");
+        coalescer.add(add, 0, output::add);
+        coalescer.add(remove, 0, output::add);
+        coalescer.drain(output::add);
+
+        assertThat(output, is(equalTo(Arrays.asList(add, remove))));
+    }
+
+    @Test
+    public void shouldNotApplyInvalidIncrement() {
+        SolrInputDocument full = document("1", "count", "many");
+        SolrInputDocument inc = update("1", "count", "inc", "1");
+        coalescer.add(full, 0, output::add);
+        coalescer.add(inc, 0, output::add);
+        coalescer.drain(output::add);
+
+        assertThat(output, is(equalTo(Arrays.asList(full, inc))));
+        assertThat(full.getFieldValue("count"), is(equalTo("many")));
+    }
+
+    @Test
+    public void shouldEvictEldestDocumentWhenFull() {
+        coalescer = new SolrDocumentCoalescer("id", 2, 0);
+        SolrInputDocument first = document("1", "name", "alice");
+        coalescer.add(first, 0, output::add);
+        coalescer.add(document("2", "name", "bob"), 0, output::add);
+        coalescer.add(document("3", "name", "carol"), 0, output::add);
+
+        assertThat(output, is(equalTo(Arrays.asList(first))));
+        assertThat(coalescer.size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void shouldExpireOldDocuments() {
+        coalescer = new SolrDocumentCoalescer("id", 0, 10);
+        SolrInputDocument first = document("1", "name", "alice");
+        coalescer.add(first, 0, output::add);
+        coalescer.add(document("2", "name", "bob"), 5_000_000L, output::add);
+        coalescer.expire(12_000_000L, output::add);
+
+        assertThat(output, is(equalTo(Arrays.asList(first))));
+    }
+
+    @Test
+    public void shouldReplaceDocumentByDelete() {
+        SolrDelete delete = SolrDelete.byId("1");
+        SolrInputDocument other = document("2", "name", "bob");
+        SolrDelete deleteByQuery = SolrDelete.byQuery("name:*");
+        coalescer.add(document("1", "name", "alice"), 0, output::add);
+        coalescer.add(delete, 0, output::add);
+        coalescer.add(other, 0, output::add);
+        coalescer.add(deleteByQuery, 0, output::add);
+
+        assertThat(output, is(equalTo(Arrays.asList(delete, other, deleteByQuery))));
+        assertThat(coalescer.size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void shouldPassDocumentsWithoutId() {
+        SolrInputDocument document = new SolrInputDocument();
+        document.addField("name", "alice");
+        coalescer.add(document, 0, output::add);
+
+        assertThat(output, is(equalTo(Arrays.asList(document))));
+    }
+
+    private static SolrInputDocument document(String id, String name, String value) {
+        SolrInputDocument document = new SolrInputDocument();
+        document.addField("id", id);
+        document.addField(name, value);
+        return document;
+    }
+
+    private static SolrInputDocument update(String id, String name, String operation, Object value) {
+        Map<String,Object> operations = new HashMap<>();
+        operations.put(operation, value);
+        SolrInputDocument document = new SolrInputDocument();
+        document.addField("id", id);
+        document.addField(name, operations);
+        return document;
+    }
+}
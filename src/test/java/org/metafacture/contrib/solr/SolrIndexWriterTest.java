@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.cloud.CompositeIdRouter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SolrIndexWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String configDirectory() throws URISyntaxException {
+        return Paths.get(SolrIndexWriterTest.class.getResource("/solr-index/conf").toURI()).toString();
+    }
+
+    @Test
+    public void shouldBuildOneIndexPerShard() throws IOException, URISyntaxException {
+        Path output = folder.getRoot().toPath();
+        SolrIndexWriter writer = new SolrIndexWriter(output.toString());
+        writer.setConfigDirectory(configDirectory());
+        writer.setShards(2);
+        writer.setPartitions(2);
+        writer.setBatchSize(10);
+
+        for (int i = 0; i < 100; i++) {
+            SolrInputDocument document = new SolrInputDocument();
+            document.addField("id", "doc" + i);
+            document.addField("title", "Title " + i);
+            document.addField("year", 1900 + i);
+            writer.process(document);
+        }
+        writer.process(SolrDelete.byId("doc0"));
+        writer.process(SolrDelete.byQuery("year:[1990 TO *]"));
+        writer.closeStream();
+
+        CompositeIdRouter router = new CompositeIdRouter();
+        int total = 0;
+        for (int shard = 0; shard < 2; shard++) {
+            try (Directory directory = FSDirectory.open(output.resolve("shard" + (shard + 1)).resolve("data").resolve("index"));
+                 DirectoryReader reader = DirectoryReader.open(directory)) {
+                assertThat(reader.leaves().size(), is(equalTo(1)));
+                for (int doc = 0; doc < reader.maxDoc(); doc++) {
+                    String id = reader.document(doc).get("id");
+                    assertThat(writer.getShardRange(shard).includes(router.sliceHash(id, null, null, null)), is(true));
+                }
+                total += reader.numDocs();
+            }
+        }
+        assertThat(total, is(equalTo(89)));
+        assertThat(Files.exists(output.resolve(".partitions")), is(false));
+    }
+
+    @Test
+    public void shouldRejectInvalidDocuments() throws IOException, URISyntaxException {
+        Path output = folder.getRoot().toPath();
+        ObjectBuffer<RejectedDocument> rejected = new ObjectBuffer<>();
+        SolrIndexWriter writer = new SolrIndexWriter(output.toString());
+        writer.setConfigDirectory(configDirectory());
+        writer.setDeadLetterReceiver(rejected);
+
+        SolrInputDocument document = new SolrInputDocument();
+        document.addField("id", "1");
+        document.addField("year", "not a number");
+        writer.process(document);
+        writer.closeStream();
+
+        assertThat(rejected.getObject().getDocument().getFieldValue("id"), is(equalTo("1")));
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.metafacture.framework.MetafactureException;
+import org.metafacture.framework.helpers.DefaultObjectReceiver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class SolrJavabinReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReplayRecordedDocuments() throws IOException {
+        File file = record(false, 1000);
+
+        List<SolrInputDocument> documents = replay(file);
+
+        assertThat(documents.size(), is(equalTo(1001)));
+        assertThat(documents.get(999).getFieldValue("id"), is(equalTo("999")));
+        assertThat(documents.get(999).getFieldValues("title"), is(equalTo((Object) Arrays.asList("a", "b"))));
+        assertThat(documents.get(999).getFieldValue("year"), is(equalTo(2018)));
+        assertThat(documents.get(999).getChildDocuments().get(0).getFieldValue("id"), is(equalTo("999.1")));
+        assertThat(((SolrDelete) documents.get(1000)).getId(), is(equalTo("1")));
+    }
+
+    @Test
+    public void shouldReplayCompressedDocuments() throws IOException {
+        File plain = record(false, 1000);
+        File compressed = record(true, 1000);
+
+        List<SolrInputDocument> documents = replay(compressed);
+
+        assertThat(documents.size(), is(equalTo(1001)));
+        assertThat(documents.get(500).getFieldValue("id"), is(equalTo("500")));
+        assertThat(compressed.length() < plain.length(), is(true));
+    }
+
+    @Test
+    public void shouldReplayLargeDocuments() throws IOException {
+        File file = folder.newFile();
+        SolrJavabinWriter writer = new SolrJavabinWriter(file.getPath());
+        SolrInputDocument document = new SolrInputDocument();
+        document.addField("id", "1");
+        document.addField("text", String.join("", Collections.nCopies(2 * 1024 * 1024, "x")));
+        writer.process(document);
+        writer.closeStream();
+
+        List<SolrInputDocument> documents = replay(file);
+
+        assertThat(((String) documents.get(0).getFieldValue("text")).length(), is(equalTo(2 * 1024 * 1024)));
+    }
+
+    @Test
+    public void shouldSkipATruncatedRecord() throws IOException {
+        File file = record(false, 10);
+        try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+            truncated.setLength(file.length() - 3);
+        }
+
+        List<SolrInputDocument> documents = replay(file);
+
+        assertThat(documents.size(), is(equalTo(10)));
+
+        File compressed = record(true, 1000);
+        try (RandomAccessFile truncated = new RandomAccessFile(compressed, "rw")) {
+            truncated.setLength(compressed.length() / 2);
+        }
+
+        List<SolrInputDocument> replayed = replay(compressed);
+
+        assertThat(replayed.size() > 0 && replayed.size() < 1001, is(true));
+        assertThat(replayed.get(replayed.size() - 1).getFieldValue("id"), is(equalTo(String.valueOf(replayed.size() - 1))));
+    }
+
+    @Test
+    public void shouldRejectARecordWithInvalidLength() throws IOException {
+        File file = record(false, 3);
+        List<SolrInputDocument> replayed = new ArrayList<>();
+        SolrJavabinReader reader = new SolrJavabinReader();
+        reader.setReceiver(new DefaultObjectReceiver<SolrInputDocument>() {
+            @Override
+            public void process(SolrInputDocument document) {
+                replayed.add(document);
+            }
+        });
+
+        for (int length : new int[] {-1, Integer.MAX_VALUE}) {
+            replayed.clear();
+            try (RandomAccessFile corrupt = new RandomAccessFile(file, "rw")) {
+                // The length of the second record follows the header and the first record
+                corrupt.seek(SolrJavabinWriter.MAGIC.length + 2);
+                corrupt.seek(corrupt.getFilePointer() + 4 + corrupt.readInt());
+                corrupt.writeInt(length);
+            }
+            try {
+                reader.process(file.getPath());
+                fail("Expected a corrupt record");
+            } catch (MetafactureException e) {
+                assertThat(e.getMessage(), containsString("Corrupt record 2"));
+            }
+            assertThat(replayed.size(), is(equalTo(1)));
+        }
+    }
+
+    @Test(expected = MetafactureException.class)
+    public void shouldRejectOtherFiles() throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), "<add/>".getBytes("UTF-8"));
+
+        replay(file);
+    }
+
+    private File record(boolean compress, int count) throws IOException {
+        File file = folder.newFile();
+        SolrJavabinWriter writer = new SolrJavabinWriter(file.getPath());
+        writer.setCompress(compress);
+        for (int i = 0; i < count; i++) {
+            SolrInputDocument document = new SolrInputDocument();
+            document.addField("id", String.valueOf(i));
+            document.addField("title", "a");
+            document.addField("title", "b");
+            document.addField("year", 2018);
+            SolrInputDocument child = new SolrInputDocument();
+            child.addField("id", i + ".1");
+            document.addChildDocument(child);
+            writer.process(document);
+        }
+        writer.process(SolrDelete.byId("1"));
+        writer.closeStream();
+        return file;
+    }
+
+    private static List<SolrInputDocument> replay(File file) {
+        List<SolrInputDocument> documents = new ArrayList<>();
+        SolrJavabinReader reader = new SolrJavabinReader();
+        reader.setReceiver(new DefaultObjectReceiver<SolrInputDocument>() {
+            @Override
+            public void process(SolrInputDocument document) {
+                documents.add(document);
+            }
+        });
+        reader.process(file.getPath());
+        reader.closeStream();
+        return documents;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Before;
+import org.junit.Test;
+import org.metafacture.framework.MetafactureException;
+import org.metafacture.framework.helpers.DefaultObjectReceiver;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class SolrJsonHandlerTest {
+
+    private SolrJsonHandler handler;
+    private List<SolrInputDocument> documents;
+
+    @Before
+    public void setUp() {
+        documents = new ArrayList<>();
+        handler = new SolrJsonHandler();
+        handler.setReceiver(new DefaultObjectReceiver<SolrInputDocument>() {
+            @Override
+            public void process(SolrInputDocument document) {
+                documents.add(document);
+            }
+        });
+    }
+
+    @Test
+    public void arrayOfDocuments() {
+        handler.process(new StringReader("[{\"id\": \"1\", \"name\": [\"alice\", \"bob\"], \"year\": 2018, \"score\": 1.5, " +
+                "\"active\": true, \"empty\": null}, {\"id\": \"2\"}]"));
+
+        assertThat(documents.size(), equalTo(2));
+        SolrInputDocument document = documents.get(0);
+        assertThat(document.getFieldValue("id"), equalTo("1"));
+        assertThat(document.getFieldValues("name"), contains("alice", "bob"));
+        assertThat(document.getFieldValue("year"), equalTo(2018L));
+        assertThat(document.getFieldValue("score"), equalTo(1.5));
+        assertThat(document.getFieldValue("active"), equalTo(true));
+        assertThat(document.getFieldNames(), not(hasItem("empty")));
+    }
+
+    @Test
+    public void jsonLines() {
+        handler.process(new StringReader("{\"id\": \"1\"}\n{\"id\": \"2\"}\n{\"id\": \"3\"}\n"));
+
+        assertThat(documents.size(), equalTo(3));
+        assertThat(documents.get(2).getFieldValue("id"), equalTo("3"));
+    }
+
+    @Test
+    public void commands() {
+        handler.process(new StringReader("{\"add\": {\"commitWithin\": 1000, \"doc\": {\"id\": \"1\"}}, " +
+                "\"delete\": {\"id\": \"2\"}, \"delete\": [\"3\", {\"query\": \"year:2018\"}], " +
+                "\"commit\": {\"waitSearcher\": false}, \"add\": {\"doc\": {\"id\": \"4\"}}}"));
+
+        assertThat(documents.size(), equalTo(5));
+        assertThat(documents.get(0).getFieldValue("id"), equalTo("1"));
+        assertThat(((SolrDelete) documents.get(1)).getId(), equalTo("2"));
+        assertThat(((SolrDelete) documents.get(2)).getId(), equalTo("3"));
+        assertThat(((SolrDelete) documents.get(3)).getQuery(), equalTo("year:2018"));
+        assertThat(documents.get(4).getFieldValue("id"), equalTo("4"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void atomicUpdates() {
+        handler.process(new StringReader("{\"id\": \"1\", \"name\": {\"set\": \"alice\"}, " +
+                "\"alias\": {\"add\": [\"bob\", \"carol\"], \"remove\": \"dave\"}}"));
+
+        SolrInputDocument document = documents.get(0);
+        assertThat((Map<String,Object>) document.getFieldValue("name"), hasEntry("set", "alice"));
+        Map<String,Object> alias = (Map<String,Object>) document.getFieldValue("alias");
+        assertThat(alias.get("add"), equalTo(Arrays.asList("bob", "carol")));
+        assertThat(alias.get("remove"), equalTo("dave"));
+        assertThat(document.hasChildDocuments(), equalTo(false));
+    }
+
+    @Test
+    public void childDocuments() {
+        handler.process(new StringReader("{\"id\": \"1\", \"_childDocuments_\": [{\"id\": \"1.1\"}, " +
+                "{\"id\": \"1.2\", \"reviews\": [{\"id\": \"1.2.1\"}]}], \"author\": {\"id\": \"1.3\"}}"));
+
+        SolrInputDocument document = documents.get(0);
+        assertThat(document.getChildDocumentCount(), equalTo(3));
+        assertThat(document.getChildDocuments().get(1).getChildDocuments().get(0).getFieldValue("id"), equalTo("1.2.1"));
+        assertThat(document.getChildDocuments().get(2).getFieldValue("id"), equalTo("1.3"));
+    }
+
+    @Test(expected = MetafactureException.class)
+    public void invalidJson() {
+        handler.process(new StringReader("[{\"id\": \"1\"}, 2]"));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.metafacture.xml.XmlDecoder;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Replays a corpus of Solr XML updates through to-solr against a {@link FakeSolrServer}
+ * and reports the throughput and the latency of sending batches.
+ *
+ * Usage: <code>SolrLoadTest corpus.xml [option=value ...]</code>, see {@link #main(String[])} for the options.
+ */
+public final class SolrLoadTest {
+
+    private SolrLoadTest() {
+        // No instances allowed
+    }
+
+    /**
+     * Options of the writer: threads, batchSize, maxRetries, waitMs, coalesceSize, serializeOnce, repeat (number of replays).
+     * Options of the server: latencyMs, errorRate, errorCode, stallRate, stallMs, bytesPerSecond.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: SolrLoadTest corpus.xml [option=value ...]");
+            System.exit(1);
+        }
+
+        Map<String,String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            options.put(option[0], option.length > 1 ? option[1] : "true");
+        }
+
+        try (FakeSolrServer server = new FakeSolrServer()) {
+            server.setStoreDocuments(false);
+            server.setLatencyMs(intOption(options, "latencyMs", 0));
+            server.setErrorRate(doubleOption(options, "errorRate", 0), intOption(options, "errorCode", 503));
+            server.setStallRate(doubleOption(options, "stallRate", 0), intOption(options, "stallMs", 0));
+            server.setBytesPerSecond(intOption(options, "bytesPerSecond", 0));
+
+            SolrWriter writer = new SolrWriter(server.getUrl());
+            writer.setCore("load-test");
+            writer.setThreads(intOption(options, "threads", 4));
+            writer.setBatchSize(intOption(options, "batchSize", 1000));
+            writer.setMaxRetries(intOption(options, "maxRetries", 3));
+            writer.setWaitMs(intOption(options, "waitMs", 100));
+            writer.setCoalesceSize(intOption(options, "coalesceSize", 0));
+            writer.setSerializeOnce(Boolean.parseBoolean(options.getOrDefault("serializeOnce", "false")));
+
+            XmlDecoder decoder = new XmlDecoder();
+            decoder.setReceiver(new SolrXmlHandler()).setReceiver(writer);
+
+            long start = System.nanoTime();
+            int repeat = intOption(options, "repeat", 1);
+            for (int i = 0; i < repeat; i++) {
+                try (Reader reader = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+                    decoder.process(reader);
+                }
+            }
+            decoder.closeStream();
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            report(writer.getMetrics(), server, seconds);
+        }
+    }
+
+    private static void report(SolrMetrics metrics, FakeSolrServer server, double seconds) {
+        LatencyHistogram send = metrics.getSendLatency();
+        System.out.println(String.format(Locale.ROOT, "Documents:   %d in %.2f s (%.1f docs/s)",
+                metrics.getDocuments(), seconds, metrics.getDocuments() / seconds));
+        System.out.println(String.format(Locale.ROOT, "Batches:     %d (%d failures, %d retries, %d rejected documents)",
+                metrics.getBatches(), metrics.getFailures(), metrics.getRetries(), metrics.getRejectedDocuments()));
+        System.out.println(String.format(Locale.ROOT, "Send (ms):   p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f",
+                send.getPercentile(0.5) / 1e3, send.getPercentile(0.9) / 1e3, send.getPercentile(0.99) / 1e3,
+                send.getPercentile(0.999) / 1e3, send.getMax() / 1e3));
+        System.out.println(String.format(Locale.ROOT, "Server:      %d requests, %.1f MiB received",
+                server.getRequestCount(), server.getBytesReceived() / (1024.0 * 1024.0)));
+    }
+
+    private static int intOption(Map<String,String> options, String name, int defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static double doubleOption(Map<String,String> options, String name, double defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.common.SolrException;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SolrRequestSenderTest {
+
+    @Test
+    public void shouldRejectClientErrorsWithoutRetry() {
+        SolrRequestSender sender = new SolrRequestSender();
+        sender.setMaxRetries(3);
+        sender.setWaitMs(1);
+        int[] attempts = new int[1];
+
+        boolean isSuccessful = sender.send(() -> {
+            attempts[0]++;
+            throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "Invalid document");
+        });
+
+        assertThat(isSuccessful, is(false));
+        assertThat(sender.isRejected(), is(true));
+        assertThat(sender.getLastError(), containsString("Invalid document"));
+        assertThat(attempts[0], is(equalTo(1)));
+    }
+
+    @Test
+    public void shouldRetryRateLimitsWithinBudget() {
+        SolrRequestSender sender = new SolrRequestSender();
+        sender.setMaxRetries(5);
+        sender.setWaitMs(1);
+        sender.setRetryBudget(new RetryBudget(2));
+        SolrMetrics metrics = new SolrMetrics();
+        sender.setMetrics(metrics);
+        SolrRequestSender.Request tooManyRequests = () -> {
+            throw new HttpSolrClient.RemoteSolrException("localhost", 429, "Too many requests", null);
+        };
+
+        boolean isSuccessful = sender.send(tooManyRequests) || sender.retry(() -> sender.send(tooManyRequests));
+
+        assertThat(isSuccessful, is(false));
+        assertThat(sender.isRejected(), is(false));
+        assertThat(metrics.getRetries(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void shouldCapBackoff() {
+        SolrRequestSender sender = new SolrRequestSender();
+        sender.setWaitMs(100);
+        sender.setMaxWaitMs(1000);
+
+        for (int attempt = 0; attempt < 40; attempt++) {
+            long delay = sender.backoffMs(attempt);
+            long expected = Math.min(1000, 100L << Math.min(attempt, 30));
+            assertThat(delay >= expected / 2 && delay <= expected, is(true));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Date;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SolrSchemaTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SolrSchema schema;
+
+    @Before
+    public void setUp() throws URISyntaxException {
+        schema = SolrSchema.load(schemaPath());
+    }
+
+    @Test
+    public void shouldConvertValuesToTheirFieldTypes() {
+        assertThat(schema.convert("id", "1"), is(equalTo((Object) "1")));
+        assertThat(schema.convert("year", " 2018 "), is(equalTo((Object) 2018)));
+        assertThat(schema.convert("size", "4294967296"), is(equalTo((Object) 4294967296L)));
+        assertThat(schema.convert("views", "7"), is(equalTo((Object) 7L)));
+        assertThat(schema.convert("price", "9.99"), is(equalTo((Object) 9.99)));
+        assertThat(schema.convert("available", "true"), is(equalTo((Object) true)));
+        assertThat(schema.convert("available", "F"), is(equalTo((Object) false)));
+        assertThat(schema.convert("modified", "2018-10-01T12:00:00Z"),
+                is(equalTo((Object) Date.from(Instant.parse("2018-10-01T12:00:00Z")))));
+        assertThat(schema.convert("unknown", "2018"), is(equalTo((Object) "2018")));
+    }
+
+    @Test
+    public void shouldReadFieldTypesInLowerCase() throws IOException {
+        File file = folder.newFile("schema.xml");
+        Files.write(file.toPath(), ("<schema name=\"old\" version=\"1.1\"><types>"
+                + "<fieldtype name=\"string\" class=\"solr.StrField\"/>"
+                + "<fieldtype name=\"int\" class=\"solr.TrieIntField\"/>"
+                + "</types><fields>"
+                + "<field name=\"id\" type=\"string\"/><field name=\"year\" type=\"int\"/>"
+                + "</fields></schema>").getBytes(StandardCharsets.UTF_8));
+
+        SolrSchema oldSchema = SolrSchema.load(file.getPath());
+
+        assertThat(oldSchema.convert("year", "2018"), is(equalTo((Object) 2018)));
+        assertThat(oldSchema.convert("id", "1"), is(equalTo((Object) "1")));
+    }
+
+    @Test
+    public void shouldMatchTheLongestDynamicField() {
+        assertThat(schema.convert("pages_i", "12"), is(equalTo((Object) 12)));
+        assertThat(schema.convert("attr_color", "2018-10-01T12:00:00Z"), is(equalTo((Object) "2018-10-01T12:00:00Z")));
+        assertThat(schema.convert("attr_date_seen", "2018-10-01T12:00:00Z"), is(instanceOf(Date.class)));
+    }
+
+    @Test
+    public void shouldLeaveDateMathToTheServer() {
+        assertThat(schema.convert("modified", "NOW/DAY"), is(equalTo((Object) "NOW/DAY")));
+        assertThat(schema.convert("modified", "2018-10-01T12:00:00Z+1DAY"), is(equalTo((Object) "2018-10-01T12:00:00Z+1DAY")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectValuesThatDoNotFitTheirFieldType() {
+        schema.convert("year", "2147483648");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidDates() {
+        schema.convert("modified", "2018-13-01T00:00:00Z");
+    }
+
+    static String schemaPath() throws URISyntaxException {
+        return Paths.get(SolrSchemaTest.class.getResource("/schema/managed-schema").toURI()).toString();
+    }
+}
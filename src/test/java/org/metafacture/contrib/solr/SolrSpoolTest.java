@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.jcsp.lang.Barrier;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SolrSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String directory;
+    private SolrInputDocument doc1;
+    private SolrInputDocument doc2;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("spool").getPath();
+
+        doc1 = new SolrInputDocument();
+        doc1.addField("id", "1");
+        doc1.addField("name", "alice");
+
+        doc2 = new SolrInputDocument();
+        doc2.addField("id", "2");
+    }
+
+    @Test
+    public void shouldReadWrittenDocuments() throws IOException {
+        SolrSpool spool = new SolrSpool(directory);
+        Path segment = spool.write(Stream.of(doc1, doc2).collect(Collectors.toList()));
+
+        List<SolrInputDocument> documents = spool.read(segment);
+        assertThat(documents.size(), is(equalTo(2)));
+        assertThat(documents.get(0).toString(), is(equalTo(doc1.toString())));
+        assertThat(documents.get(1).toString(), is(equalTo(doc2.toString())));
+    }
+
+    @Test
+    public void shouldRecoverUnacknowledgedSegments() throws IOException {
+        SolrSpool spool = new SolrSpool(directory);
+        Path acknowledged = spool.write(Stream.of(doc1).collect(Collectors.toList()));
+        Path unacknowledged = spool.write(Stream.of(doc2).collect(Collectors.toList()));
+        spool.acknowledge(acknowledged);
+
+        SolrSpool recoveredSpool = new SolrSpool(directory);
+        assertThat(recoveredSpool.getRecoveredCount(), is(equalTo(1)));
+        assertThat(recoveredSpool.pollRecovered(), is(equalTo(unacknowledged)));
+        assertThat(recoveredSpool.pollRecovered(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldCommitRecoveredSegments() throws IOException {
+        new SolrSpool(directory).write(Stream.of(doc1).collect(Collectors.toList()));
+
+        FakeSolrClient client = new FakeSolrClient();
+        SolrCommitProcess commit = new SolrCommitProcess(null, new Barrier(1), client, "test");
+        commit.setSpool(new SolrSpool(directory));
+
+        commit.recover();
+
+        assertThat(client.getCollection("test").size(), is(equalTo(1)));
+        assertThat(client.getCollection("test").get(0).getFieldValue("id"), is(equalTo("1")));
+        assertThat(new File(directory).list().length, is(equalTo(0)));
+    }
+
+    @Test
+    public void shouldKeepDeletes() throws IOException {
+        SolrSpool spool = new SolrSpool(directory);
+        Path segment = spool.write(Stream.of(doc1, SolrDelete.byId("1"), SolrDelete.byQuery("*:*")).collect(Collectors.toList()));
+
+        List<SolrInputDocument> documents = spool.read(segment);
+        assertThat(documents.get(0).getFieldValue("id"), is(equalTo("1")));
+        assertThat(((SolrDelete) documents.get(1)).getId(), is(equalTo("1")));
+        assertThat(((SolrDelete) documents.get(2)).getQuery(), is(equalTo("*:*")));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.client.solrj.impl.CloudSolrClient;
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.request.JavaBinUpdateRequestCodec;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.common.util.NamedList;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.Test;
+import org.metafacture.framework.MetafactureException;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class SolrTransportTest {
+
+    @Test
+    public void shouldCreateTransportByName() throws IOException {
+        for (String name : new String[]{HttpTransport.NAME, Http2Transport.NAME, CloudTransport.NAME}) {
+            try (SolrTransport transport = SolrTransports.create(name)) {
+                assertThat(transport.getName(), is(equalTo(name)));
+            }
+        }
+    }
+
+    @Test(expected = MetafactureException.class)
+    public void shouldRejectUnknownTransport() {
+        SolrTransports.create("carrier-pigeon");
+    }
+
+    @Test
+    public void shouldCreateCloudClientWithZkChroot() throws IOException {
+        try (CloudSolrClient client = CloudTransport.builder("zk1:2181,zk2:2181/solr").build()) {
+            assertThat(client.getZkHost(), is(equalTo("zk1:2181,zk2:2181/solr")));
+        }
+    }
+
+    @Test
+    public void shouldCreateCloudClientWithoutZkChroot() throws IOException {
+        try (CloudSolrClient client = CloudTransport.builder("zk1:2181").build()) {
+            assertThat(client.getZkHost(), is(equalTo("zk1:2181")));
+        }
+    }
+
+    @Test
+    public void shouldSendDocumentsOverHttp2() throws Exception {
+        List<SolrInputDocument> documents = new CopyOnWriteArrayList<>();
+        Set<String> protocols = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+        Server server = startHttp2Server(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+                protocols.add(request.getProtocol());
+                new JavaBinUpdateRequestCodec().unmarshal(request.getInputStream(),
+                        (document, req, commitWithin, override) -> documents.add(document));
+
+                NamedList<Object> header = new NamedList<>();
+                header.add("status", 0);
+                NamedList<Object> body = new NamedList<>();
+                body.add("responseHeader", header);
+                response.setContentType("application/octet-stream");
+                new JavaBinCodec().marshal(body, response.getOutputStream());
+                baseRequest.setHandled(true);
+            }
+        });
+
+        try {
+            SolrWriter writer = new SolrWriter("http://localhost:" + getPort(server) + "/solr");
+            writer.setCore("test");
+            writer.setTransport(Http2Transport.NAME);
+            writer.setThreads(2);
+            writer.setBatchSize(10);
+            writer.setSerializeOnce(true);
+
+            for (int i = 0; i < 50; i++) {
+                SolrInputDocument document = new SolrInputDocument();
+                document.addField("id", String.valueOf(i));
+                writer.process(document);
+            }
+            writer.closeStream();
+        } finally {
+            server.stop();
+        }
+
+        assertThat(documents.size(), is(equalTo(50)));
+        assertThat(protocols, is(equalTo(Collections.singleton("HTTP/2.0"))));
+    }
+
+    @Test
+    public void shouldReportErrorMessageOfSolrOverHttp2() throws Exception {
+        Server server = startHttp2Server(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+                NamedList<Object> error = new NamedList<>();
+                error.add("msg", "ERROR: [doc=1] unknown field 'title'");
+                error.add("code", 400);
+                NamedList<Object> body = new NamedList<>();
+                body.add("error", error);
+                response.setStatus(400);
+                response.setContentType("application/octet-stream");
+                new JavaBinCodec().marshal(body, response.getOutputStream());
+                baseRequest.setHandled(true);
+            }
+        });
+
+        try (JettyHttp2SolrClient client = new JettyHttp2SolrClient("http://localhost:" + getPort(server) + "/solr",
+                new SolrTransportOptions())) {
+            SolrInputDocument document = new SolrInputDocument();
+            document.addField("id", "1");
+            client.add("test", document);
+            fail("Expected an error of the server");
+        } catch (HttpSolrClient.RemoteSolrException e) {
+            assertThat(e.code(), is(equalTo(400)));
+            assertThat(e.getMessage(), containsString("unknown field 'title'"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static Server startHttp2Server(Handler handler) throws Exception {
+        Server server = new Server();
+        ServerConnector connector = new ServerConnector(server, new HTTP2CServerConnectionFactory(new HttpConfiguration()));
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.setHandler(handler);
+        server.start();
+        return server;
+    }
+
+    private static int getPort(Server server) {
+        return ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SolrWriterHttpTest {
+
+    private FakeSolrServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeSolrServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void shouldSendDocumentsOverHttp() {
+        SolrWriter writer = createWriter();
+        writer.setThreads(2);
+        writer.setBatchSize(10);
+
+        send(writer, 25);
+
+        assertThat(server.getCollection("test").size(), is(equalTo(25)));
+    }
+
+    @Test
+    public void shouldSendSerializedBatchesOverHttp() {
+        SolrWriter writer = createWriter();
+        writer.setBatchSize(10);
+        writer.setSerializeOnce(true);
+
+        send(writer, 25);
+
+        assertThat(server.getCollection("test").size(), is(equalTo(25)));
+        assertThat(server.getCollection("test").get(24).getFieldValue("id"), is(equalTo("24")));
+    }
+
+    @Test
+    public void shouldRetryUnavailableServer() {
+        server.failNext(2, 503);
+
+        SolrWriter writer = createWriter();
+        writer.setBatchSize(10);
+        writer.setMaxRetries(2);
+        writer.setWaitMs(1);
+
+        send(writer, 10);
+
+        assertThat(server.getCollection("test").size(), is(equalTo(10)));
+        assertThat(writer.getMetrics().getRetries(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void shouldDeleteDocumentsOverHttp() {
+        SolrWriter writer = createWriter();
+        writer.setBatchSize(10);
+
+        for (int i = 0; i < 5; i++) {
+            SolrInputDocument document = new SolrInputDocument();
+            document.addField("id", String.valueOf(i));
+            writer.process(document);
+        }
+        writer.process(SolrDelete.byId("1"));
+        writer.process(SolrDelete.byId("3"));
+        writer.closeStream();
+
+        assertThat(server.getCollection("test").size(), is(equalTo(3)));
+        assertThat(server.getRequestCount(), is(equalTo(1L)));
+    }
+
+    private SolrWriter createWriter() {
+        SolrWriter writer = new SolrWriter(server.getUrl());
+        writer.setCore("test");
+        return writer;
+    }
+
+    private static void send(SolrWriter writer, int count) {
+        for (int i = 0; i < count; i++) {
+            SolrInputDocument document = new SolrInputDocument();
+            document.addField("id", String.valueOf(i));
+            document.addField("name", "document " + i);
+            writer.process(document);
+        }
+        writer.closeStream();
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SolrWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldKeepOrderPerPartition() {
+        FakeSolrClient client = new FakeSolrClient();
+        SolrWriter writer = new SolrWriter("http://localhost:8983/solr");
+        writer.setClient(client);
+        writer.setCore("test");
+        writer.setThreads(4);
+        writer.setPartitionField("id");
+
+        for (int i = 0; i < 100; i++) {
+            SolrInputDocument document = new SolrInputDocument();
+            document.addField("id", String.valueOf(i % 10));
+            document.addField("sequence", i);
+            writer.process(document);
+        }
+        writer.closeStream();
+
+        List<SolrInputDocument> collection = client.getCollection("test");
+        assertThat(collection.size(), is(equalTo(100)));
+
+        Map<Object,Integer> lastSequences = new HashMap<>();
+        for (SolrInputDocument document : collection) {
+            int sequence = (Integer) document.getFieldValue("sequence");
+            Integer lastSequence = lastSequences.put(document.getFieldValue("id"), sequence);
+            assertThat(lastSequence == null || lastSequence < sequence, is(true));
+        }
+    }
+
+    @Test
+    public void shouldNotCloseAGivenClient() {
+        FakeSolrClient client = new FakeSolrClient();
+        SolrWriter writer = new SolrWriter("http://localhost:8983/solr");
+        writer.setClient(client);
+        writer.setCore("test");
+
+        SolrInputDocument document = new SolrInputDocument();
+        document.addField("id", "1");
+        writer.process(document);
+        writer.closeStream();
+
+        assertThat(client.getCollection("test").size(), is(equalTo(1)));
+        assertThat(client.isClosed(), is(false));
+    }
+
+    @Test
+    public void shouldOrderDeletesAfterEarlierDocuments() {
+        FakeSolrClient client = new FakeSolrClient();
+        SolrWriter writer = new SolrWriter("http://localhost:8983/solr");
+        writer.setClient(client);
+        writer.setCore("test");
+        writer.setThreads(4);
+        writer.setBatchSize(3);
+        writer.setLingerMs(10);
+
+        for (int i = 0; i < 100; i++) {
+            SolrInputDocument document = new SolrInputDocument();
+            document.addField("id", String.valueOf(i));
+            writer.process(document);
+            if (i % 2 == 0) {
+                writer.process(SolrDelete.byId(String.valueOf(i)));
+            }
+        }
+        writer.closeStream();
+
+        List<SolrInputDocument> collection = client.getCollection("test");
+        assertThat(collection.size(), is(equalTo(50)));
+        for (SolrInputDocument document : collection) {
+            assertThat(Integer.parseInt((String) document.getFieldValue("id")) % 2, is(equalTo(1)));
+        }
+    }
+
+    @Test
+    public void shouldOrderDeletesByQueryAcrossPartitions() {
+        FakeSolrClient client = new FakeSolrClient();
+        SolrWriter writer = new SolrWriter("http://localhost:8983/solr");
+        writer.setClient(client);
+        writer.setCore("test");
+        writer.setThreads(4);
+        writer.setBatchSize(3);
+        writer.setPartitionField("id");
+
+        for (int i = 0; i < 100; i++) {
+            if (i == 50) {
+                writer.process(SolrDelete.byQuery("*:*"));
+            }
+            SolrInputDocument document = new SolrInputDocument();
+            document.addField("id", String.valueOf(i));
+            writer.process(document);
+        }
+        writer.closeStream();
+
+        List<SolrInputDocument> collection = client.getCollection("test");
+        assertThat(collection.size(), is(equalTo(50)));
+        for (SolrInputDocument document : collection) {
+            assertThat(Integer.parseInt((String) document.getFieldValue("id")) >= 50, is(true));
+        }
+        assertThat(client.getDeleteQueries().size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void shouldRecoverSpooledBatchesInOrderBeforeNewDocuments() throws IOException {
+        String directory = folder.newFolder("spool").getPath();
+        SolrSpool spool = new SolrSpool(directory);
+        for (int i = 0; i < 20; i++) {
+            SolrInputDocument document = new SolrInputDocument();
+            document.addField("id", "1");
+            document.addField("sequence", i);
+            spool.write(Collections.singletonList(document));
+        }
+
+        FakeSolrClient client = new FakeSolrClient();
+        SolrWriter writer = new SolrWriter("http://localhost:8983/solr");
+        writer.setClient(client);
+        writer.setCore("test");
+        writer.setThreads(4);
+        writer.setSpoolDirectory(directory);
+
+        SolrInputDocument document = new SolrInputDocument();
+        document.addField("id", "1");
+        document.addField("sequence", 20);
+        writer.process(document);
+        writer.closeStream();
+
+        List<SolrInputDocument> collection = client.getCollection("test");
+        assertThat(collection.size(), is(equalTo(21)));
+        for (int i = 0; i < collection.size(); i++) {
+            assertThat(collection.get(i).getFieldValue("sequence"), is(equalTo(i)));
+        }
+        assertThat(new File(directory).list().length, is(equalTo(0)));
+    }
+
+    @Test
+    public void shouldCoalesceDocumentsWithSameId() {
+        FakeSolrClient client = new FakeSolrClient();
+        SolrWriter writer = new SolrWriter("http://localhost:8983/solr");
+        writer.setClient(client);
+        writer.setCore("test");
+        writer.setBatchSize(100);
+        writer.setCoalesceSize(100);
+
+        for (int i = 0; i < 100; i++) {
+            SolrInputDocument document = new SolrInputDocument();
+            document.addField("id", String.valueOf(i % 10));
+            document.addField("sequence", i);
+            writer.process(document);
+        }
+        writer.closeStream();
+
+        List<SolrInputDocument> collection = client.getCollection("test");
+        assertThat(collection.size(), is(equalTo(10)));
+        assertThat(collection.get(0).getFieldValue("sequence"), is(equalTo(90)));
+        assertThat(writer.getMetrics().getCoalescedDocuments(), is(equalTo(90L)));
+    }
+
+    @Test
+    public void shouldExpireCoalescedDocumentsWithoutFurtherDocuments() throws InterruptedException {
+        FakeSolrClient client = new FakeSolrClient();
+        SolrWriter writer = new SolrWriter("http://localhost:8983/solr");
+        writer.setClient(client);
+        writer.setCore("test");
+        writer.setCoalesceSize(100);
+        writer.setCoalesceMs(20);
+
+        SolrInputDocument document = new SolrInputDocument();
+        document.addField("id", "1");
+        writer.process(document);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (client.getCollection("test").isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(client.getCollection("test").size(), is(equalTo(1)));
+        writer.closeStream();
+        assertThat(client.getCollection("test").size(), is(equalTo(1)));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.metafacture.framework.helpers.DefaultObjectReceiver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SolrXmlFileReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldKeepTheOrderOfTheDocuments() throws IOException {
+        File file = writeFile(100);
+        List<SolrInputDocument> documents = read(file, SolrXmlFileReader.ORDER_DOCUMENT);
+
+        assertThat(documents.size(), is(equalTo(2000)));
+        for (int i = 0; i < documents.size(); i++) {
+            assertThat(documents.get(i).getFieldValue("seq"), is(equalTo(String.valueOf(i))));
+        }
+    }
+
+    @Test
+    public void shouldKeepTheOrderPerId() throws IOException {
+        File file = writeFile(100);
+        List<SolrInputDocument> documents = read(file, SolrXmlFileReader.ORDER_ID);
+
+        assertThat(documents.size(), is(equalTo(2000)));
+        Map<Object,Integer> lastSequence = new HashMap<>();
+        for (SolrInputDocument document : documents) {
+            int sequence = Integer.parseInt((String) document.getFieldValue("seq"));
+            Integer last = lastSequence.put(document.getFieldValue("id"), sequence);
+            assertThat(last == null || last < sequence, is(true));
+        }
+    }
+
+    @Test
+    public void shouldPassOnDeletes() throws IOException {
+        File file = folder.newFile("delete.xml");
+        Files.write(file.toPath(), ("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n<update><add>" +
+                "<doc><field name=\"id\">1</field><field name=\"title\">M\u00fcnchen</field></doc></add>" +
+                "<delete><id>1</id></delete></update>").getBytes(StandardCharsets.ISO_8859_1));
+
+        List<SolrInputDocument> documents = read(file, SolrXmlFileReader.ORDER_ID);
+
+        assertThat(documents.size(), is(equalTo(2)));
+        assertThat(documents.get(0).getFieldValue("title"), is(equalTo("M\u00fcnchen")));
+        assertThat(documents.get(1), is(instanceOf(SolrDelete.class)));
+    }
+
+    /** Writes 2000 documents with 100 distinct ids. */
+    private File writeFile(int ids) throws IOException {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<update>\n<add>\n");
+        for (int i = 0; i < 2000; i++) {
+            xml.append("<doc><field name=\"id\">").append(i % ids).append("</field>")
+                    .append("<field name=\"seq\">").append(i).append("</field></doc>\n");
+            if (i % 500 == 499) {
+                xml.append("</add>\n<add>\n");
+            }
+        }
+        xml.append("</add>\n</update>\n");
+        File file = folder.newFile("update.xml");
+        Files.write(file.toPath(), xml.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static List<SolrInputDocument> read(File file, String order) {
+        List<SolrInputDocument> documents = new ArrayList<>();
+        SolrXmlFileReader reader = new SolrXmlFileReader();
+        reader.setThreads(4);
+        reader.setChunkSize(512);
+        reader.setOrder(order);
+        reader.setReceiver(new DefaultObjectReceiver<SolrInputDocument>() {
+            @Override
+            public void process(SolrInputDocument document) {
+                documents.add(document);
+            }
+        });
+        reader.process(file.getAbsolutePath());
+        reader.closeStream();
+        return documents;
+    }
+}
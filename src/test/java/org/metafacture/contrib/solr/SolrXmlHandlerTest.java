@@ -3,8 +3,10 @@ package org.metafacture.contrib.solr;
 import org.apache.solr.common.SolrInputDocument;
 import org.junit.Before;
 import org.junit.Test;
+import org.metafacture.framework.helpers.DefaultObjectReceiver;
 import org.xml.sax.helpers.AttributesImpl;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -125,6 +127,119 @@ public class SolrXmlHandlerTest {
         assertThat(documentString, is(equalTo(expectedDocumentString)));
     }
 
+    @Test
+    public void deletesBetweenDocuments() {
+        List<SolrInputDocument> documents = new ArrayList<>();
+        handler.setReceiver(new DefaultObjectReceiver<SolrInputDocument>() {
+            @Override
+            public void process(SolrInputDocument document) {
+                documents.add(document);
+            }
+        });
+
+        handler.startElement("", "update", "update", new AttributesImpl());
+        startRoot(handler);
+        startDocument(handler);
+        addField(handler, "id", "1");
+        endDocument(handler);
+        endRoot(handler);
+        handler.startElement("", "delete", "delete", new AttributesImpl());
+        addElement(handler, "id", "1");
+        addElement(handler, "query", "name:alice");
+        handler.endElement("", "delete", "delete");
+        handler.endElement("", "update", "update");
+
+        assertThat(documents.size(), equalTo(3));
+        assertThat(documents.get(0).getFieldValue("id"), equalTo("1"));
+        assertThat(((SolrDelete) documents.get(1)).getId(), equalTo("1"));
+        assertThat(((SolrDelete) documents.get(2)).getQuery(), equalTo("name:alice"));
+    }
+
+    @Test
+    public void updatesPerDocument() {
+        List<SolrInputDocument> documents = new ArrayList<>();
+        handler.setReceiver(new DefaultObjectReceiver<SolrInputDocument>() {
+            @Override
+            public void process(SolrInputDocument document) {
+                documents.add(document);
+            }
+        });
+
+        startRoot(handler);
+        startDocument(handler);
+        addField(handler, "id", "\n  1\t ");
+        addField(handler, "name", " alice ", "set");
+        endDocument(handler);
+        startDocument(handler);
+        addField(handler, "id", "2");
+        addField(handler, "title", "   ");
+        endDocument(handler);
+        endRoot(handler);
+
+        assertThat(documents.size(), equalTo(2));
+        assertThat(documents.get(0).toString(), equalTo("SolrInputDocument(fields: [id=1, name={set=alice}])"));
+        assertThat(documents.get(1).toString(), equalTo("SolrInputDocument(fields: [id=2, title=])"));
+    }
+
+    @Test
+    public void typedValues() throws Exception {
+        List<SolrInputDocument> documents = new ArrayList<>();
+        handler.setReceiver(new DefaultObjectReceiver<SolrInputDocument>() {
+            @Override
+            public void process(SolrInputDocument document) {
+                documents.add(document);
+            }
+        });
+        handler.setSchema(SolrSchemaTest.schemaPath());
+
+        startRoot(handler);
+        startDocument(handler);
+        addField(handler, "id", "1");
+        addField(handler, "price", "9.99");
+        addField(handler, "available", "true", "set");
+        endDocument(handler);
+        startDocument(handler);
+        addField(handler, "id", "2");
+        addField(handler, "price", "free");
+        endDocument(handler);
+        endRoot(handler);
+
+        assertThat(documents.size(), equalTo(1));
+        assertThat(documents.get(0).getFieldValue("price"), equalTo((Object) 9.99));
+        assertThat(documents.get(0).getFieldValue("available").toString(), equalTo("{set=true}"));
+    }
+
+    @Test
+    public void shouldPassDocumentsWithInvalidValuesToDeadLetterReceiver() throws Exception {
+        List<SolrInputDocument> documents = new ArrayList<>();
+        handler.setReceiver(new DefaultObjectReceiver<SolrInputDocument>() {
+            @Override
+            public void process(SolrInputDocument document) {
+                documents.add(document);
+            }
+        });
+        ObjectBuffer<RejectedDocument> deadLetters = new ObjectBuffer<>();
+        handler.setDeadLetterReceiver(deadLetters);
+        handler.setSchema(SolrSchemaTest.schemaPath());
+
+        startRoot(handler);
+        startDocument(handler);
+        addField(handler, "id", "2");
+        addField(handler, "price", "free");
+        endDocument(handler);
+        endRoot(handler);
+
+        assertThat(documents.size(), equalTo(0));
+        assertThat(deadLetters.getObject().getDocument().getFieldValue("id"), equalTo((Object) "2"));
+        assertThat(deadLetters.getObject().getReason(), containsString("'free' is no valid"));
+    }
+
+    private void addElement(SolrXmlHandler handler, String name, String value) {
+        handler.startElement("", name, name, new AttributesImpl());
+        handler.characters(value.toCharArray(), 0, value.length());
+        handler.endElement("", name, name);
+    }
+
     private void startRoot(SolrXmlHandler handler) {
         handler.startElement("", "add", "add", new AttributesImpl());
     }
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SolrXmlPassthroughWriterTest {
+
+    @Test
+    public void shouldSendCommandsInBatches() {
+        FakeSolrClient client = new FakeSolrClient();
+        SolrXmlPassthroughWriter writer = new SolrXmlPassthroughWriter("http://localhost:8983/solr");
+        writer.setClient(client);
+        writer.setCore("test");
+        writer.setBatchSize(4);
+
+        StringBuilder xml = new StringBuilder("<add>");
+        for (int i = 0; i < 10; i++) {
+            xml.append("<doc><field name=\"id\">").append(i).append("</field></doc>");
+        }
+        xml.append("</add>");
+        writer.process(new StringReader(xml.toString()));
+        writer.process(new StringReader("<update><delete><id>0</id></delete></update>"));
+        writer.closeStream();
+
+        List<SolrInputDocument> collection = client.getCollection("test");
+        assertThat(collection.size(), is(equalTo(9)));
+        assertThat(collection.get(0).getFieldValue("id"), is(equalTo("1")));
+        assertThat(client.getBatchSizes(), is(equalTo(Arrays.asList(4, 4, 2))));
+        assertThat(client.isClosed(), is(false));
+    }
+
+    @Test
+    public void shouldOrderDeletesAcrossThreads() {
+        FakeSolrClient client = new FakeSolrClient();
+        SolrXmlPassthroughWriter writer = new SolrXmlPassthroughWriter("http://localhost:8983/solr");
+        writer.setClient(client);
+        writer.setCore("test");
+        writer.setBatchSize(2);
+        writer.setThreads(4);
+
+        StringBuilder xml = new StringBuilder("<update>");
+        for (int i = 0; i < 100; i++) {
+            xml.append("<add><doc><field name=\"id\">").append(i).append("</field></doc></add>");
+            if (i % 2 == 0) {
+                xml.append("<delete><id>").append(i).append("</id></delete>");
+            }
+        }
+        xml.append("</update>");
+        writer.process(new StringReader(xml.toString()));
+        writer.closeStream();
+
+        List<SolrInputDocument> collection = client.getCollection("test");
+        assertThat(collection.size(), is(equalTo(50)));
+        for (SolrInputDocument document : collection) {
+            assertThat(Integer.parseInt((String) document.getFieldValue("id")) % 2, is(equalTo(1)));
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void shouldGoOnAfterUnexpectedErrors() {
+        FakeSolrClient client = new FakeSolrClient() {
+            @Override
+            public NamedList<Object> request(SolrRequest request, String collection) throws SolrServerException, IOException {
+                throw new IllegalStateException("Client closed");
+            }
+        };
+        SolrXmlPassthroughWriter writer = new SolrXmlPassthroughWriter("http://localhost:8983/solr");
+        writer.setClient(client);
+        writer.setCore("test");
+        writer.setBatchSize(1);
+
+        writer.process(new StringReader("<add><doc><field name=\"id\">1</field></doc><doc><field name=\"id\">2</field></doc></add>"));
+        writer.closeStream();
+
+        assertThat(client.getCollection("test").size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void shouldRetryWithinBudgetAndRecordMetrics() {
+        FakeSolrClient client = new FakeSolrClient();
+        client.fail(2);
+        SolrXmlPassthroughWriter writer = new SolrXmlPassthroughWriter("http://localhost:8983/solr");
+        writer.setClient(client);
+        writer.setCore("test");
+        writer.setBatchSize(1);
+        writer.setMaxRetries(5);
+        writer.setWaitMs(1);
+        writer.setRetryBudget(1);
+
+        writer.process(new StringReader("<add><doc><field name=\"id\">1</field></doc><doc><field name=\"id\">2</field></doc></add>"));
+        writer.closeStream();
+
+        assertThat(client.getCollection("test").size(), is(equalTo(1)));
+        SolrMetrics metrics = writer.getMetrics();
+        assertThat(metrics.getBatches(), is(equalTo(2L)));
+        assertThat(metrics.getRetries(), is(equalTo(1L)));
+        assertThat(metrics.getFailures(), is(equalTo(2L)));
+        assertThat(metrics.getDocuments(), is(equalTo(1L)));
+        assertThat(metrics.getRejectedDocuments(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void shouldBisectRejectedBatches() {
+        FakeSolrClient client = new FakeSolrClient();
+        client.reject("3");
+        SolrXmlPassthroughWriter writer = new SolrXmlPassthroughWriter("http://localhost:8983/solr");
+        writer.setClient(client);
+        writer.setCore("test");
+        writer.setBatchSize(8);
+
+        StringBuilder xml = new StringBuilder("<add>");
+        for (int i = 0; i < 8; i++) {
+            xml.append("<doc><field name=\"id\">").append(i).append("</field></doc>");
+        }
+        xml.append("</add>");
+        writer.process(new StringReader(xml.toString()));
+        writer.closeStream();
+
+        assertThat(client.getCollection("test").size(), is(equalTo(7)));
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SolrXmlRangeScannerTest {
+
+    @Test
+    public void shouldAlignRangesWithDocuments() throws IOException {
+        String xml = "<?xml version=\"1.0\"?>\n<update>\n<add>" +
+                "<doc><field name=\"id\">1</field></doc>" +
+                "<doc><field name=\"id\">2</field></doc>" +
+                "<doc><field name=\"id\">3</field></doc>" +
+                "</add>\n</update>\n";
+
+        List<SolrXmlRange> ranges = scan(xml, 1);
+
+        assertThat(ranges.size(), is(equalTo(3)));
+        assertThat(text(xml, ranges.get(0)), is(equalTo("<doc><field name=\"id\">1</field></doc>")));
+        assertThat(ranges.get(0).startsInAdd(), is(true));
+        assertThat(ranges.get(0).endsInAdd(), is(true));
+        assertThat(ranges.get(1).getIds(), is(equalTo(new HashSet<>(Arrays.asList("2")))));
+    }
+
+    @Test
+    public void shouldJoinCommandsUpToTheChunkSize() throws IOException {
+        String xml = "<update><add><doc><field name=\"id\">1</field></doc></add>" +
+                "<delete><id>2</id></delete><add><doc><field name=\"id\">3</field></doc></add></update>";
+
+        List<SolrXmlRange> ranges = scan(xml, 60);
+
+        assertThat(ranges.size(), is(equalTo(2)));
+        assertThat(text(xml, ranges.get(0)), is(equalTo("<doc><field name=\"id\">1</field></doc></add><delete><id>2</id></delete>")));
+        assertThat(ranges.get(0).startsInAdd(), is(true));
+        assertThat(ranges.get(0).endsInAdd(), is(false));
+        assertThat(ranges.get(0).getIds(), is(equalTo(new HashSet<>(Arrays.asList("1", "2")))));
+        assertThat(ranges.get(1).startsInAdd(), is(true));
+    }
+
+    @Test
+    public void shouldNotEndDocumentsInChildrenCommentsOrCdata() throws IOException {
+        String document = "<doc><field name=\"id\">a&amp;b</field><!-- </doc> --><field name=\"text\"><![CDATA[</doc><doc>]]></field>" +
+                "<doc><field name=\"id\">child</field></doc></doc>";
+        String xml = "<!DOCTYPE add [<!ENTITY x \"y\">]><add>" + document + "<doc><field name='id'>2</field></doc></add>";
+
+        List<SolrXmlRange> ranges = scan(xml, 1);
+
+        assertThat(ranges.size(), is(equalTo(2)));
+        assertThat(text(xml, ranges.get(0)), is(equalTo(document)));
+        assertThat(ranges.get(0).getIds(), is(equalTo(new HashSet<>(Arrays.asList("a&b")))));
+        assertThat(ranges.get(1).getIds(), is(equalTo(new HashSet<>(Arrays.asList("2")))));
+    }
+
+    @Test
+    public void shouldOrderRangesWithSharedIdsOrBarriers() throws IOException {
+        String xml = "<update><add><doc><field name=\"id\">1</field></doc><doc><field name=\"id\">2</field></doc>" +
+                "<doc><field name=\"id\">1</field></doc></add><delete><query>*:*</query></delete></update>";
+
+        List<SolrXmlRange> ranges = scan(xml, 1);
+
+        assertThat(ranges.size(), is(equalTo(4)));
+        assertThat(ranges.get(0).precedes(ranges.get(1)), is(false));
+        assertThat(ranges.get(0).precedes(ranges.get(2)), is(true));
+        assertThat(ranges.get(3).isBarrier(), is(true));
+        assertThat(ranges.get(1).precedes(ranges.get(3)), is(true));
+    }
+
+    @Test
+    public void shouldKeepAllIdsOfADelete() throws IOException {
+        String xml = "<update><delete><id>1</id><id>2</id></delete><add><doc><field name=\"id\">1</field></doc></add></update>";
+
+        List<SolrXmlRange> ranges = scan(xml, 1);
+
+        assertThat(ranges.size(), is(equalTo(2)));
+        assertThat(ranges.get(0).getIds(), is(equalTo(new HashSet<>(Arrays.asList("1", "2")))));
+        assertThat(ranges.get(0).precedes(ranges.get(1)), is(true));
+    }
+
+    @Test
+    public void shouldScanAcrossBuffers() throws IOException {
+        StringBuilder xml = new StringBuilder("<add>");
+        for (int i = 0; i < 1000; i++) {
+            xml.append("<doc><field name=\"id\">").append(i).append("</field></doc>\n");
+        }
+        xml.append("</add>");
+        byte[] bytes = xml.toString().getBytes(StandardCharsets.UTF_8);
+
+        List<SolrXmlRange> ranges = new ArrayList<>();
+        SolrXmlRangeScanner scanner = new SolrXmlRangeScanner(1, ranges::add);
+        for (int i = 0; i < bytes.length; i += 7) {
+            scanner.scan(ByteBuffer.wrap(bytes, i, Math.min(7, bytes.length - i)));
+        }
+        scanner.finish();
+
+        assertThat(ranges.size(), is(equalTo(1000)));
+        assertThat(ranges.get(999).getIds(), is(equalTo(new HashSet<>(Arrays.asList("999")))));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldFailOnTruncatedDocuments() throws IOException {
+        scan("<add><doc><field name=\"id\">1</field>", 1);
+    }
+
+    private static List<SolrXmlRange> scan(String xml, long chunkSize) throws IOException {
+        List<SolrXmlRange> ranges = new ArrayList<>();
+        SolrXmlRangeScanner scanner = new SolrXmlRangeScanner(chunkSize, ranges::add);
+        scanner.scan(ByteBuffer.wrap(xml.getBytes(StandardCharsets.UTF_8)));
+        scanner.finish();
+        return ranges;
+    }
+
+    private static String text(String xml, SolrXmlRange range) {
+        byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+        return new String(bytes, (int) range.getStart(), (int) (range.getEnd() - range.getStart()), StandardCharsets.UTF_8);
+    }
+}
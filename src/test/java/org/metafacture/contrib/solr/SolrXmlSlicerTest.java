@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Deutsche Nationalbibliothek
+ *
+ * Licensed under the Apache License, Version 2.0 the "License";
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metafacture.contrib.solr;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SolrXmlSlicerTest {
+
+    @Test
+    public void shouldSliceDocumentsAndDeletes() throws IOException {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<update>\n" +
+                "  <add commitWithin=\"1000\">\n" +
+                "    <doc><field name=\"id\">1</field></doc>\n" +
+                "    <doc boost=\"2.0\"><field name=\"id\">2</field></doc>\n" +
+                "  </add>\n" +
+                "  <delete><id>3</id></delete>\n" +
+                "  <commit/>\n" +
+                "</update>\n";
+
+        List<SolrXmlSlicer.Command> commands = slice(xml);
+
+        assertThat(commands.size(), is(equalTo(4)));
+        assertThat(commands.get(0).getAddTag(), is(equalTo("<add commitWithin=\"1000\">")));
+        assertThat(commands.get(0).getXml(), is(equalTo("<doc><field name=\"id\">1</field></doc>")));
+        assertThat(commands.get(1).getXml(), is(equalTo("<doc boost=\"2.0\"><field name=\"id\">2</field></doc>")));
+        assertThat(commands.get(2).isDocument(), is(false));
+        assertThat(commands.get(2).getXml(), is(equalTo("<delete><id>3</id></delete>")));
+        assertThat(commands.get(3).getXml(), is(equalTo("<commit/>")));
+    }
+
+    @Test
+    public void shouldKeepChildDocumentsInTheirParent() throws IOException {
+        String parent = "<doc><field name=\"id\">1</field><doc><field name=\"id\">1.1</field></doc></doc>";
+
+        List<SolrXmlSlicer.Command> commands = slice("<add>" + parent + "<doc><field name=\"id\">2</field></doc></add>");
+
+        assertThat(commands.size(), is(equalTo(2)));
+        assertThat(commands.get(0).getXml(), is(equalTo(parent)));
+    }
+
+    @Test
+    public void shouldNotEndDocumentsInCommentsOrCdata() throws IOException {
+        String document = "<doc><!-- </doc> --><field name=\"text\"><![CDATA[</doc><doc>]]></field>" +
+                "<field name=\"title\" update=\"set\">a &gt; b</field></doc>";
+
+        List<SolrXmlSlicer.Command> commands = slice("<!DOCTYPE add [<!ENTITY x \"y\">]><add>" + document + "</add>");
+
+        assertThat(commands.size(), is(equalTo(1)));
+        assertThat(commands.get(0).getXml(), is(equalTo(document)));
+    }
+
+    @Test
+    public void shouldSliceAcrossBufferBoundaries() throws IOException {
+        StringBuilder xml = new StringBuilder("<add>");
+        for (int i = 0; i < 10_000; i++) {
+            xml.append("<doc><field name=\"id\">").append(i).append("</field></doc>\n");
+        }
+        xml.append("</add>");
+
+        List<SolrXmlSlicer.Command> commands = slice(xml.toString());
+
+        assertThat(commands.size(), is(equalTo(10_000)));
+        assertThat(commands.get(9_999).getXml(), is(equalTo("<doc><field name=\"id\">9999</field></doc>")));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldFailOnTruncatedDocument() throws IOException {
+        slice("<add><doc><field name=\"id\">1</field>");
+    }
+
+    private static List<SolrXmlSlicer.Command> slice(String xml) throws IOException {
+        List<SolrXmlSlicer.Command> commands = new ArrayList<>();
+        new SolrXmlSlicer().slice(new StringReader(xml), commands::add);
+        return commands;
+    }
+}